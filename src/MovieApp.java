@@ -1,10 +1,9 @@
 import panel.LoginFrame;
-import entities.MovieDatabase;
 import loader.CSVLoader;
 
 /**
  * Main class for the Movie Application.
- * This class loads the movie database from a CSV file and initializes the login interface.
+ * This class checks the movie catalog in the CSV file and initializes the login interface.
  */
 public class MovieApp {
 
@@ -13,11 +12,10 @@ public class MovieApp {
      * @param args Command line arguments (not used in this application).
      */
     public static void main(String[] args) {
-        // Load the movie database from a CSV file.
-        MovieDatabase movieDatabase = CSVLoader.loadMoviesFromCSV();
-
-        // Print the movie database to the console (for debugging or verification).
-        System.out.println(movieDatabase.toString());
+        // Make sure the binary snapshot of the catalog is current, so the main window loads it without parsing
+        // the CSV file again, and print the catalog size (for debugging or verification).
+        int movieCount = CSVLoader.prepareSnapshot();
+        System.out.println("Movies in the catalog: " + movieCount);
 
         // Open the login window.
         new LoginFrame();
@@ -1,15 +1,54 @@
+import entities.ColumnarMovieDatabase;
+import entities.CredentialStore;
+import entities.DirectorDictionary;
 import entities.Movie;
 import entities.MovieDatabase;
+import entities.MovieChange;
+import entities.MovieDatabaseSnapshot;
+import entities.MovieIdSet;
+import entities.MoviePage;
+import entities.MovieSortKey;
+import entities.WatchListBatch;
+import entities.WatchListChange;
+import entities.IndexedWatchListStore;
+import entities.JournaledWatchListStore;
+import entities.MappedMovieDatabase;
+import entities.MovieCatalog;
 import entities.User;
 import entities.WatchListDatabase;
+import entities.WatchListFileStore;
+import entities.WatchListStore;
+import entities.WriteBehindWatchListStore;
 import loader.CSVLoader;
 import org.junit.Test;
 import panel.LoginFrame;
+import panel.MovieTableModel;
 
 import static org.junit.Assert.*;
 import javax.swing.*;
 import javax.swing.table.DefaultTableModel;
 import java.awt.*;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IntSummaryStatistics;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Test suite for Movie Application.
@@ -139,7 +178,7 @@ public class MovieAppTest {
      */
     @Test
     public void testWatchListDatabase() {
-        WatchListDatabase watchListDB = new WatchListDatabase();
+        WatchListDatabase watchListDB = new WatchListDatabase(CSVLoader.loadMoviesFromCSV());
         watchListDB.addMovieToWatchlist("admin", "Inception");
         assertTrue(watchListDB.getWatchlistForUser("admin").contains("Inception"));
     }
@@ -150,7 +189,7 @@ public class MovieAppTest {
      */
     @Test
     public void testRemoveFromWatchlist() {
-        WatchListDatabase watchListDB = new WatchListDatabase();
+        WatchListDatabase watchListDB = new WatchListDatabase(CSVLoader.loadMoviesFromCSV());
         watchListDB.addMovieToWatchlist("user123", "Inception");
 
         // Create a dummy JTable with a model and a row
@@ -180,7 +219,7 @@ public class MovieAppTest {
 
     @Test
     public void testAddDuplicateToWatchlist() {
-        WatchListDatabase watchListDB = new WatchListDatabase();
+        WatchListDatabase watchListDB = new WatchListDatabase(CSVLoader.loadMoviesFromCSV());
         watchListDB.addMovieToWatchlist("user123", "Inception");
 
         // First check: The movie should be added successfully
@@ -219,4 +258,827 @@ public class MovieAppTest {
         assertTrue("Movie database should have movies loaded", !movieDatabase.getAllMovies().isEmpty());
     }
 
+    /**
+     * Tests the secondary indexes of the MovieDatabase.
+     * Verifies that year, running time and director queries return only the matching movies and follow removals.
+     */
+    @Test
+    public void testMovieDatabaseRangeQueries() {
+        MovieDatabase db = new MovieDatabase();
+        Movie matrix = new Movie("The Matrix", "Lana Wachowski", 1999, 136);
+        Movie fightClub = new Movie("Fight Club", "David Fincher", 1999, 139);
+        Movie se7en = new Movie("Se7en", "David Fincher", 1995, 127);
+        Movie inception = new Movie("Inception", "Christopher Nolan", 2010, 148);
+        db.addMovie(matrix);
+        db.addMovie(fightClub);
+        db.addMovie(se7en);
+        db.addMovie(inception);
+
+        assertEquals(List.of(se7en, matrix, fightClub), db.getMoviesByYearRange(1990, 1999));
+        assertEquals(List.of(se7en, matrix), db.getMoviesByRunningTimeRange(120, 136));
+        assertEquals(List.of(fightClub, se7en), db.getMoviesByDirector("david fincher"));
+
+        db.removeMovie("Fight Club");
+        assertEquals(List.of(matrix), db.getMoviesByYear(1999));
+        assertEquals(List.of(se7en), db.getMoviesByDirector("David Fincher"));
+    }
+
+    /**
+     * Tests the substring search of the MovieDatabase.
+     * Verifies that titles and directors are matched ignoring case, for short and long queries alike.
+     */
+    @Test
+    public void testMovieDatabaseSearch() {
+        MovieDatabase db = new MovieDatabase();
+        Movie darkKnight = new Movie("The Dark Knight", "Christopher Nolan", 2008, 152);
+        Movie inception = new Movie("Inception", "Christopher Nolan", 2010, 148);
+        Movie matrix = new Movie("The Matrix", "Lana Wachowski", 1999, 136);
+        db.addMovie(darkKnight);
+        db.addMovie(inception);
+        db.addMovie(matrix);
+
+        assertEquals(List.of(darkKnight, inception), db.searchMovies("NOLAN"));
+        assertEquals(List.of(darkKnight), db.searchMovies("dark kn"));
+        assertEquals(List.of(matrix), db.searchMovies("ix"));
+        assertTrue(db.searchMovies("nolan matrix").isEmpty());
+        assertEquals(List.of(darkKnight, matrix), db.searchMovies("K"));
+        assertTrue(db.searchMovies(null).isEmpty());
+
+        // An updated movie keeps its place in the results
+        Movie longerCut = new Movie(darkKnight.getId(), "The Dark Knight", "Christopher Nolan", 2008, 164);
+        db.updateMovie(longerCut);
+        assertEquals(List.of(longerCut, matrix), db.searchMovies("the"));
+
+        db.removeMovie("Inception");
+        assertEquals(List.of(longerCut), db.searchMovies("nolan"));
+    }
+
+    /**
+     * Creates a small movie database for the watchlist tests, with the ids 9 (Inception), 20 (Se7en) and 16 (The Matrix).
+     */
+    private static MovieDatabase watchlistMovies() {
+        MovieDatabase db = new MovieDatabase();
+        db.addMovie(new Movie(9, "Inception", "Christopher Nolan", 2010, 148));
+        db.addMovie(new Movie(20, "Se7en", "David Fincher", 1995, 127));
+        db.addMovie(new Movie(16, "The Matrix", "Lana Wachowski", 1999, 136));
+        return db;
+    }
+
+    /**
+     * Tests the journaled watchlist store.
+     * Verifies that changes only append to the journal, are replayed on load and are folded into the checkpoint.
+     */
+    @Test
+    public void testJournaledWatchListStore() throws IOException {
+        Path dir = Files.createTempDirectory("watchlists");
+        Path checkpoint = dir.resolve("watchlistdb.txt");
+        Path journal = dir.resolve("watchlistdb.journal");
+        Files.writeString(checkpoint, "admin==>9\n");
+        MovieDatabase movies = watchlistMovies();
+
+        WatchListDatabase watchListDB = new WatchListDatabase(movies, new JournaledWatchListStore(checkpoint, journal, 3));
+        watchListDB.addMovieToWatchlist("admin", "Se7en");
+        watchListDB.addMovieToWatchlist("user123", 9);
+        assertEquals("admin==>9\n", Files.readString(checkpoint));
+        assertEquals(List.of("+admin==>20", "+user123==>9"), Files.readAllLines(journal));
+
+        WatchListDatabase reloaded = new WatchListDatabase(movies, new JournaledWatchListStore(checkpoint, journal, 3));
+        assertEquals(List.of("Inception", "Se7en"), reloaded.getWatchlistForUser("admin"));
+        assertEquals(List.of("Inception"), reloaded.getWatchlistForUser("user123"));
+
+        // The third record reaches the interval and folds the journal into the checkpoint
+        watchListDB.addMovieToWatchlist("user123", 20);
+        assertFalse(Files.exists(journal));
+        reloaded = new WatchListDatabase(movies, new JournaledWatchListStore(checkpoint, journal, 3));
+        assertArrayEquals(new int[]{9, 20}, reloaded.getWatchlistIds("user123"));
+    }
+
+    /**
+     * Tests the write-behind watchlist store.
+     * Verifies that changes are only written once flushed, that changes of one user are coalesced and that closing the
+     * database writes the pending changes.
+     */
+    @Test
+    public void testWriteBehindWatchListStore() throws IOException {
+        Path file = Files.createTempDirectory("watchlists").resolve("watchlistdb.txt");
+        Files.writeString(file, "admin==>9\n");
+
+        WriteBehindWatchListStore store = new WriteBehindWatchListStore(new WatchListFileStore(file), 60_000, 2);
+        WatchListDatabase watchListDB = new WatchListDatabase(watchlistMovies(), store);
+        watchListDB.addMovieToWatchlist("admin", 20);
+        watchListDB.addMovieToWatchlist("admin", 16);
+        assertEquals(List.of("Inception", "Se7en", "The Matrix"), watchListDB.getWatchlistForUser("admin"));
+        assertEquals("admin==>9\n", Files.readString(file));
+
+        watchListDB.flush();
+        assertEquals("admin==>9,,20,,16\n", Files.readString(file));
+
+        watchListDB.removeMovieFromWatchlist("admin", 9);
+        watchListDB.close();
+        assertEquals("admin==>20,,16\n", Files.readString(file));
+    }
+
+    /**
+     * Tests the migration of a watchlist file that lists movie titles.
+     * Verifies that the titles are resolved to movie ids, that the ids survive a save and a reload, and that the
+     * shipped watchlistdb.txt, which still lists titles, is migrated against the shipped catalog.
+     */
+    @Test
+    public void testWatchListTitleMigration() throws IOException {
+        Path file = Files.createTempDirectory("watchlists").resolve("watchlistdb.txt");
+        Files.writeString(file, "admin==>Inception,,Se7en\nuser123==>The Matrix,,Unknown Movie\n");
+
+        MovieDatabase movies = watchlistMovies();
+        WatchListDatabase watchListDB = new WatchListDatabase(movies, new WatchListFileStore(file, movies));
+        assertArrayEquals(new int[]{9, 20}, watchListDB.getWatchlistIds("admin"));
+        assertArrayEquals(new int[]{16}, watchListDB.getWatchlistIds("user123"));
+        watchListDB.addMovieToWatchlist("admin", 16);
+        watchListDB.close();
+
+        WatchListDatabase reloaded = new WatchListDatabase(movies, new WatchListFileStore(file));
+        assertArrayEquals(new int[]{9, 20, 16}, reloaded.getWatchlistIds("admin"));
+        assertArrayEquals(new int[]{16}, reloaded.getWatchlistIds("user123"));
+
+        Files.copy(Path.of("src/resources/watchlistdb.txt"), file, StandardCopyOption.REPLACE_EXISTING);
+        new WatchListFileStore(file, CSVLoader.loadMoviesFromCSV()).load();
+        assertEquals("admin==>9\nuser123==>9\n", Files.readString(file));
+    }
+
+    /**
+     * Tests the movie id sets that back the watchlists.
+     * Verifies that ids keep their insertion order across removals and that duplicates are ignored.
+     */
+    @Test
+    public void testMovieIdSet() {
+        MovieIdSet ids = new MovieIdSet();
+        for (int id = 1; id <= 100; id++) {
+            assertTrue(ids.add(id * 7));
+        }
+        assertFalse(ids.add(7));
+        for (int id = 1; id <= 100; id += 2) {
+            assertTrue(ids.remove(id * 7));
+        }
+        assertFalse(ids.remove(7));
+        assertEquals(50, ids.size());
+        assertTrue(ids.contains(14));
+        assertFalse(ids.contains(21));
+        assertEquals(14, ids.toArray()[0]);
+        assertEquals(700, ids.toArray()[49]);
+    }
+
+    /**
+     * Tests the indexed watchlist store.
+     * Verifies that it is built from a watchlist file and that watchlists are read and rewritten one user at a time.
+     */
+    @Test
+    public void testIndexedWatchListStore() throws IOException {
+        Path dir = Files.createTempDirectory("watchlists");
+        Path file = dir.resolve("watchlistdb.txt");
+        Path index = dir.resolve("watchlistdb.idx");
+        Files.writeString(file, "admin==>9\nuser123==>9,,20\n");
+        MovieDatabase movies = watchlistMovies();
+
+        try (IndexedWatchListStore store = new IndexedWatchListStore(index, file, 4)) {
+            WatchListDatabase watchListDB = new WatchListDatabase(movies, store);
+            assertEquals(List.of("Inception", "Se7en"), watchListDB.getWatchlistForUser("user123"));
+            for (int id = 21; id <= 30; id++) {
+                watchListDB.addMovieToWatchlist("admin", id);
+            }
+            watchListDB.removeMovieFromWatchlist("user123", 9);
+            watchListDB.addMovieToWatchlist("newUser", 16);
+        }
+
+        try (IndexedWatchListStore store = new IndexedWatchListStore(index, file, 4)) {
+            assertTrue(store.load().isEmpty());
+            assertEquals(11, store.loadUser("admin").size());
+            assertArrayEquals(new int[]{20}, store.loadUser("user123").toArray());
+            assertArrayEquals(new int[]{16}, store.loadUser("newUser").toArray());
+            assertNull(store.loadUser("nobody"));
+        }
+    }
+
+    /**
+     * Tests concurrent use of the WatchListDatabase.
+     * 64 threads add and remove movies of eight shared users at the same time. Every thread adds its own movies and
+     * removes every other one again, so no update may be lost in memory or in the journal.
+     */
+    @Test
+    public void testConcurrentWatchListUpdates() throws Exception {
+        Path dir = Files.createTempDirectory("watchlists");
+        Path checkpoint = dir.resolve("watchlistdb.txt");
+        Path journal = dir.resolve("watchlistdb.journal");
+        int threads = 64;
+        int moviesPerThread = 100;
+        WatchListDatabase watchListDB = new WatchListDatabase(new MovieDatabase(), new JournaledWatchListStore(checkpoint, journal, 1000));
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            results.add(pool.submit(() -> {
+                start.await();
+                for (int i = 1; i <= moviesPerThread; i++) {
+                    int movieId = thread * moviesPerThread + i;
+                    String username = "user" + (i % 8);
+                    assertTrue(watchListDB.addMovieToWatchlist(username, movieId));
+                    if (i % 2 == 0) {
+                        assertTrue(watchListDB.removeMovieFromWatchlist(username, movieId));
+                    }
+                    watchListDB.getWatchlistIds(username);
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> result : results) {
+            result.get();
+        }
+        pool.shutdown();
+
+        WatchListDatabase reloaded = new WatchListDatabase(new MovieDatabase(), new JournaledWatchListStore(checkpoint, journal, 1000));
+        for (int t = 0; t < threads; t++) {
+            for (int i = 1; i <= moviesPerThread; i++) {
+                int movieId = t * moviesPerThread + i;
+                String username = "user" + (i % 8);
+                assertEquals(i % 2 == 1, watchListDB.isInWatchlist(username, movieId));
+                assertEquals(i % 2 == 1, reloaded.isInWatchlist(username, movieId));
+            }
+        }
+    }
+
+    /**
+     * Tests the batch API of the WatchListDatabase.
+     * The returned changes hold the net effect per user, and a batch survives a reload from the journal.
+     */
+    @Test
+    public void testWatchListBatch() throws IOException {
+        Path directory = Files.createTempDirectory("watchlists");
+        Path checkpoint = directory.resolve("watchlistdb.txt");
+        Path journal = directory.resolve("watchlistdb.journal");
+        WatchListDatabase watchListDB = new WatchListDatabase(new MovieDatabase(), new JournaledWatchListStore(checkpoint, journal, 1000));
+
+        WatchListChange added = watchListDB.addAll("alice", 1, 2, 3, 2);
+        assertArrayEquals(new int[]{1, 2, 3}, added.added());
+        assertEquals(0, added.removed().length);
+        assertTrue(watchListDB.removeAll("alice", 4).isEmpty());
+
+        List<WatchListChange> changes = watchListDB.apply(new WatchListBatch()
+                .removeAll("alice", 1, 3)
+                .add("alice", 5)
+                .replace("bob", 7, 8)
+                .remove("bob", 8)
+                .add("carol", 9)
+                .remove("carol", 9));
+        assertEquals(2, changes.size());
+        for (WatchListChange change : changes) {
+            if (change.username().equals("alice")) {
+                assertArrayEquals(new int[]{5}, change.added());
+                assertArrayEquals(new int[]{1, 3}, change.removed());
+            } else {
+                assertEquals("bob", change.username());
+                assertArrayEquals(new int[]{7}, change.added());
+            }
+        }
+        assertArrayEquals(new int[]{2, 5}, watchListDB.getWatchlistIds("alice"));
+
+        WatchListChange replaced = watchListDB.replace("alice", 5, 6);
+        assertArrayEquals(new int[]{6}, replaced.added());
+        assertArrayEquals(new int[]{2}, replaced.removed());
+
+        WatchListDatabase reloaded = new WatchListDatabase(new MovieDatabase(), new JournaledWatchListStore(checkpoint, journal, 1000));
+        assertArrayEquals(new int[]{5, 6}, reloaded.getWatchlistIds("alice"));
+        assertArrayEquals(new int[]{7}, reloaded.getWatchlistIds("bob"));
+        assertEquals(0, reloaded.getWatchlistIds("carol").length);
+    }
+
+    /**
+     * Tests a batch whose watchlists cannot be saved.
+     * The failure reaches the caller and the watchlists stay as they were.
+     */
+    @Test
+    public void testWatchListBatchSaveFailure() throws IOException {
+        Path unwritable = Files.createTempDirectory("watchlists").resolve("missing").resolve("watchlistdb.txt");
+        WatchListDatabase watchListDB = new WatchListDatabase(new MovieDatabase(), new WatchListFileStore(unwritable));
+
+        try {
+            watchListDB.addAll("alice", 1, 2);
+            fail("The failed save was not reported");
+        } catch (UncheckedIOException e) {
+            assertEquals(0, watchListDB.getWatchlistIds("alice").length);
+        }
+    }
+
+    /**
+     * Tests single additions and removals whose watchlist cannot be saved.
+     * The failure reaches the caller and the watchlist stays as it was, with or without an earlier watchlist.
+     */
+    @Test
+    public void testWatchListSaveFailure() {
+        boolean[] failing = {true};
+        WatchListStore store = new WatchListStore() {
+            @Override
+            public Map<String, MovieIdSet> load() {
+                return new HashMap<>();
+            }
+
+            @Override
+            public void movieAdded(String username, int movieId, Map<String, MovieIdSet> watchlists)
+                    throws IOException {
+                check();
+            }
+
+            @Override
+            public void movieRemoved(String username, int movieId, Map<String, MovieIdSet> watchlists)
+                    throws IOException {
+                check();
+            }
+
+            @Override
+            public void saveAll(Map<String, MovieIdSet> watchlists) throws IOException {
+                check();
+            }
+
+            private void check() throws IOException {
+                if (failing[0]) {
+                    throw new IOException("disk full");
+                }
+            }
+        };
+        WatchListDatabase watchListDB = new WatchListDatabase(new MovieDatabase(), store);
+
+        try {
+            watchListDB.addMovieToWatchlist("alice", 1);
+            fail("The failed save was not reported");
+        } catch (UncheckedIOException e) {
+            assertEquals(0, watchListDB.getWatchlistIds("alice").length);
+        }
+        failing[0] = false;
+        assertTrue(watchListDB.addMovieToWatchlist("alice", 1));
+        failing[0] = true;
+        try {
+            watchListDB.addMovieToWatchlist("alice", 2);
+            fail("The failed save was not reported");
+        } catch (UncheckedIOException e) {
+            assertArrayEquals(new int[]{1}, watchListDB.getWatchlistIds("alice"));
+        }
+        try {
+            watchListDB.removeMovieFromWatchlist("alice", 1);
+            fail("The failed save was not reported");
+        } catch (UncheckedIOException e) {
+            assertArrayEquals(new int[]{1}, watchListDB.getWatchlistIds("alice"));
+        }
+    }
+
+    /**
+     * Tests the CredentialStore.
+     * Registered users are appended to the file, and changes made to the file from outside are picked up.
+     */
+    @Test
+    public void testCredentialStore() throws IOException {
+        Path file = Files.createTempDirectory("users").resolve("users.txt");
+        Files.writeString(file, "\"admin\":\"admin\"");
+        CredentialStore credentials = new CredentialStore(file);
+
+        assertTrue(credentials.login("admin", "admin"));
+        assertFalse(credentials.login("admin", "wrong"));
+        assertTrue(credentials.register("alice", "secret"));
+        assertFalse(credentials.register("alice", "other"));
+        assertTrue(credentials.login("alice", "secret"));
+        assertEquals(List.of("\"admin\":\"admin\"", "\"alice\":\"secret\""), Files.readAllLines(file));
+
+        Files.writeString(file, "\"bob\":\"pass:word\"\n");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() + 10_000));
+        assertTrue(credentials.login("bob", "pass:word"));
+        assertFalse(credentials.login("alice", "secret"));
+    }
+
+    /**
+     * Tests the MovieTableModel.
+     * The model reads its cells from the database and only swaps its view of movie ids on a search or sort.
+     */
+    @Test
+    public void testMovieTableModel() {
+        MovieDatabase movieDatabase = watchlistMovies();
+        MovieTableModel model = new MovieTableModel(movieDatabase);
+        List<String> events = new ArrayList<>();
+        model.addTableModelListener(e -> events.add(e.getFirstRow() + ":" + e.getLastRow()));
+
+        assertEquals(3, model.getRowCount());
+        assertEquals("Inception", model.getValueAt(0, 0));
+        assertEquals("Add", model.getValueAt(0, MovieTableModel.ADD_COLUMN));
+        assertTrue(model.isCellEditable(0, MovieTableModel.ADD_COLUMN));
+        assertFalse(model.isCellEditable(0, 0));
+
+        model.showMovies(movieDatabase.searchMovies("matrix"));
+        assertEquals(1, model.getRowCount());
+        assertEquals(16, model.getMovieAt(0).getId());
+        assertEquals(1, events.size());
+
+        movieDatabase.removeMovie("The Matrix");
+        assertNull(model.getMovieAt(0));
+        model.showAll();
+        assertArrayEquals(new int[]{9, 20}, model.getView());
+        assertEquals(2, events.size());
+
+        // Changes touch only their own row
+        Movie heat = new Movie(30, "Heat", "Michael Mann", 1995, 170);
+        movieDatabase.addMovie(heat);
+        model.applyChange(new MovieChange(MovieChange.Type.INSERT, heat), movie -> true);
+        model.applyChange(new MovieChange(MovieChange.Type.DELETE, movieDatabase.getMovieById(9).get()), movie -> true);
+        assertArrayEquals(new int[]{20, 30}, model.getView());
+        assertEquals(List.of("2:2", "0:0"), events.subList(2, events.size()));
+
+        // A batch insert is one change and notifies the table once
+        List<Movie> batch = List.of(new Movie(31, "Alien", "Ridley Scott", 1979, 117),
+                new Movie(32, "Blade Runner", "Ridley Scott", 1982, 117),
+                new Movie(33, "Ran", "Akira Kurosawa", 1985, 162));
+        movieDatabase.addAllMovies(batch);
+        model.applyChange(new MovieChange(MovieChange.Type.INSERT, batch), movie -> movie.getRunningTime() < 120);
+        assertArrayEquals(new int[]{20, 30, 31, 32}, model.getView());
+        assertEquals(List.of("2:2", "0:0", "2:3"), events.subList(2, events.size()));
+    }
+
+    /**
+     * Tests the precomputed sort orders of the MovieDatabase.
+     * After random additions and removals, every order must match sorting the movies directly, and sorting a subset
+     * must keep only its ids.
+     */
+    @Test
+    public void testMovieSortOrders() {
+        MovieDatabase movieDatabase = new MovieDatabase();
+        Random random = new Random(42);
+        for (int i = 0; i < 300; i++) {
+            movieDatabase.addMovie(new Movie("Movie " + random.nextInt(1000), "Director " + random.nextInt(20),
+                    1950 + random.nextInt(70), 80 + random.nextInt(100)));
+        }
+        // Builds the orders, so the following changes are applied incrementally
+        movieDatabase.prepareSortOrders();
+        for (int i = 0; i < 200; i++) {
+            String title = "Movie " + random.nextInt(1000);
+            if (random.nextBoolean()) {
+                movieDatabase.removeMovie(title);
+            } else {
+                movieDatabase.addMovie(new Movie(title, "Director " + random.nextInt(20), 1950 + random.nextInt(70), 90));
+            }
+        }
+
+        for (MovieSortKey key : MovieSortKey.values()) {
+            List<Movie> expected = new ArrayList<>(movieDatabase.getAllMovies());
+            expected.sort(key.comparator());
+            int[] ascending = movieDatabase.getSortedMovieIds(key, true);
+            int[] descending = movieDatabase.getSortedMovieIds(key, false);
+            assertEquals(expected.size(), ascending.length);
+            for (int i = 0; i < ascending.length; i++) {
+                assertEquals(expected.get(i).getId(), ascending[i]);
+                assertEquals(expected.get(i).getId(), descending[descending.length - 1 - i]);
+            }
+
+            int[] subset = {expected.get(5).getId(), expected.get(1).getId(), 99999, expected.get(3).getId()};
+            int[] sortedSubset = {expected.get(1).getId(), expected.get(3).getId(), expected.get(5).getId()};
+            assertArrayEquals(sortedSubset, movieDatabase.sortMovieIds(subset, key, true));
+        }
+    }
+
+    /**
+     * Tests the change events of the MovieDatabase and the WatchListDatabase.
+     * Every insert, update and delete must arrive in order.
+     */
+    @Test
+    public void testChangeEvents() throws Exception {
+        MovieDatabase movieDatabase = watchlistMovies();
+        BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+        Flow.Subscriber<Object> subscriber = new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+                received.add("subscribed");
+            }
+
+            @Override
+            public void onNext(Object item) {
+                received.add(item);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                received.add(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        };
+        movieDatabase.changes().subscribe(subscriber);
+        assertEquals("subscribed", received.poll(5, TimeUnit.SECONDS));
+
+        movieDatabase.addMovie(new Movie(30, "Heat", "Michael Mann", 1995, 170));
+        movieDatabase.updateMovie(new Movie(30, "Heat", "Michael Mann", 1995, 171));
+        movieDatabase.removeMovie("Heat");
+        MovieChange inserted = (MovieChange) received.poll(5, TimeUnit.SECONDS);
+        MovieChange updated = (MovieChange) received.poll(5, TimeUnit.SECONDS);
+        MovieChange deleted = (MovieChange) received.poll(5, TimeUnit.SECONDS);
+        assertEquals(MovieChange.Type.INSERT, inserted.type());
+        assertEquals(MovieChange.Type.UPDATE, updated.type());
+        assertEquals(171, updated.movie().getRunningTime());
+        assertEquals(MovieChange.Type.DELETE, deleted.type());
+        assertEquals(30, deleted.movieId());
+
+        Path directory = Files.createTempDirectory("watchlists");
+        WatchListDatabase watchListDB = new WatchListDatabase(movieDatabase,
+                new JournaledWatchListStore(directory.resolve("watchlistdb.txt"), directory.resolve("watchlistdb.journal"), 1000));
+        watchListDB.changes().subscribe(subscriber);
+        assertEquals("subscribed", received.poll(5, TimeUnit.SECONDS));
+        watchListDB.addMovieToWatchlist("alice", 9);
+        watchListDB.addAll("alice", 9, 20);
+        watchListDB.removeMovieFromWatchlist("alice", 9);
+        assertArrayEquals(new int[]{9}, ((WatchListChange) received.poll(5, TimeUnit.SECONDS)).added());
+        assertArrayEquals(new int[]{20}, ((WatchListChange) received.poll(5, TimeUnit.SECONDS)).added());
+        assertArrayEquals(new int[]{9}, ((WatchListChange) received.poll(5, TimeUnit.SECONDS)).removed());
+    }
+
+    /**
+     * Tests the snapshots of the MovieDatabase. A snapshot must not change when the database does, across chunk
+     * boundaries, and must stay readable while another thread imports movies.
+     */
+    @Test
+    public void testMovieDatabaseSnapshots() throws Exception {
+        MovieDatabase movieDatabase = new MovieDatabase();
+        List<Movie> movies = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            movies.add(new Movie("Movie " + i, "Director", 2000, 90));
+        }
+        movieDatabase.addAllMovies(movies);
+        MovieDatabaseSnapshot before = movieDatabase.snapshot();
+        assertEquals(2500, before.size());
+        assertEquals("Movie 1500", before.get(1500).getTitle());
+
+        for (int i = 0; i < 2500; i += 2) {
+            movieDatabase.removeMovie("Movie " + i);
+        }
+        Movie renamed = new Movie("Movie 1", "Other Director", 2001, 100);
+        renamed.setId(before.get(1).getId());
+        assertTrue(movieDatabase.updateMovie(renamed));
+        movieDatabase.addMovie(new Movie("Movie 2500", "Director", 2000, 90));
+
+        // The old snapshot is unchanged
+        assertEquals(2500, before.size());
+        assertEquals("Movie 0", before.get(0).getTitle());
+        assertEquals("Director", before.getMovieById(renamed.getId()).get().getDirector());
+        // The new one matches the database
+        MovieDatabaseSnapshot after = movieDatabase.snapshot();
+        assertTrue(after.version() > before.version());
+        assertEquals(1251, after.size());
+        assertEquals("Movie 1", after.get(0).getTitle());
+        assertEquals("Other Director", after.get(0).getDirector());
+        assertEquals("Movie 2499", after.get(1249).getTitle());
+        assertEquals("Movie 2500", after.get(1250).getTitle());
+        assertFalse(after.getMovieById(before.get(0).getId()).isPresent());
+        assertEquals(after.size(), movieDatabase.getAllMovieIds().length);
+
+        // Reads during an import see either the old or the new movies, never a part of them
+        List<Movie> imported = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            imported.add(new Movie("Imported " + i, "Director", 2000, 90));
+        }
+        ExecutorService importer = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> importing = importer.submit(() -> movieDatabase.addAllMovies(imported));
+            while (!importing.isDone()) {
+                MovieDatabaseSnapshot reading = movieDatabase.snapshot();
+                assertTrue(reading.size() == 1251 || reading.size() == 6251);
+                assertEquals(reading.size(), reading.getAllMovieIds().length);
+            }
+            assertEquals(Integer.valueOf(5000), importing.get());
+        } finally {
+            importer.shutdown();
+        }
+        assertEquals("Imported 4999", movieDatabase.getAllMovies().get(6250).getTitle());
+
+        // A huge id costs one slot like any other
+        Movie huge = new Movie(Integer.MAX_VALUE - 1, "Huge Id", "Director", 2000, 90);
+        movieDatabase.addMovie(huge);
+        assertSame(huge, movieDatabase.snapshot().getMovieById(Integer.MAX_VALUE - 1).get());
+    }
+
+    /**
+     * Tests the ColumnarMovieDatabase against the MovieDatabase with the same movies.
+     */
+    @Test
+    public void testColumnarMovieDatabase() {
+        MovieDatabase movieDatabase = new MovieDatabase();
+        ColumnarMovieDatabase columns = new ColumnarMovieDatabase();
+        String[] directors = {"Christopher Nolan", "christopher nolan ", "Agn\u00e8s Varda", null};
+        Random random = new Random(11);
+        for (int i = 0; i < 300; i++) {
+            String title = (i % 2 == 0 ? "Movie " : "\u00c9t\u00e9 ") + random.nextInt(200);
+            String director = directors[random.nextInt(directors.length)];
+            int year = 1990 + random.nextInt(20);
+            int minutes = 80 + random.nextInt(60);
+            assertEquals(movieDatabase.addMovie(new Movie(title, director, year, minutes)),
+                    columns.addMovie(new Movie(title, director, year, minutes)));
+        }
+        assertTrue(columns.removeMovie("movie 10") == movieDatabase.removeMovie("Movie 10"));
+        assertTrue(movieDatabase.addMovie(new Movie("Fixed Title", "Someone", 2000, 90)));
+        assertTrue(columns.addMovie(new Movie("Fixed Title", "Someone", 2000, 90)));
+        assertFalse(columns.addMovie(new Movie(" fixed TITLE ", "Someone else", 2001, 95)));
+
+        assertEquals(movieDatabase.size(), columns.size());
+        assertEquals(movieDatabase.getAllMovies().toString(), columns.getAllMovies().toString());
+        assertArrayEquals(movieDatabase.getAllMovieIds(), columns.getAllMovieIds());
+        assertEquals(movieDatabase.getMoviesByYearRange(1995, 1999).toString(),
+                columns.getMoviesByYearRange(1995, 1999).toString());
+        assertEquals(movieDatabase.getMoviesByRunningTimeRange(90, 100).toString(),
+                columns.getMoviesByRunningTimeRange(90, 100).toString());
+        assertEquals(movieDatabase.getMoviesByDirector("CHRISTOPHER NOLAN").toString(),
+                columns.getMoviesByDirector("CHRISTOPHER NOLAN").toString());
+        assertEquals(movieDatabase.searchMovies("varda").toString(), columns.searchMovies("varda").toString());
+        assertEquals(movieDatabase.searchMovies("\u00e9t\u00e9 1").toString(), columns.searchMovies("\u00e9t\u00e9 1").toString());
+        for (MovieSortKey key : MovieSortKey.values()) {
+            assertArrayEquals(movieDatabase.getSortedMovieIds(key, false),
+                    columns.sortMovieIds(columns.getAllMovieIds(), key, false));
+        }
+
+        IntSummaryStatistics expected = movieDatabase.getMoviesByYearRange(2000, 2005).stream()
+                .mapToInt(Movie::getRunningTime).summaryStatistics();
+        IntSummaryStatistics statistics = columns.runningTimeStatistics(2000, 2005);
+        assertEquals(expected.getCount(), statistics.getCount());
+        assertEquals(expected.getSum(), statistics.getSum());
+        assertEquals(expected.getCount(), columns.countMovies(2000, 2005));
+        assertEquals(movieDatabase.getAllMovies().stream()
+                        .filter(movie -> movie.getReleaseYear() >= 2000 && movie.getRunningTime() <= 100)
+                        .count(),
+                columns.findMovieIds(2000, 3000, 0, 100).length);
+    }
+
+    /**
+     * Tests the DirectorDictionary, the director posting lists that the MovieDatabase snapshots keep per dictionary
+     * code, and the interning of directors while loading the CSV file.
+     */
+    @Test
+    public void testDirectorDictionary() {
+        DirectorDictionary directors = new DirectorDictionary();
+        assertEquals(0, directors.encode("Frank Darabont"));
+        assertEquals(1, directors.encode("Christopher Nolan"));
+        assertEquals(0, directors.encode(new String("Frank Darabont")));
+        assertEquals("Christopher Nolan", directors.decode(1));
+        assertEquals(DirectorDictionary.NO_DIRECTOR, directors.encode(null));
+        assertEquals(DirectorDictionary.NO_DIRECTOR, directors.codeOf("Unknown"));
+        assertNull(directors.decode(DirectorDictionary.NO_DIRECTOR));
+        assertSame(directors.intern("Frank Darabont"), directors.intern(new String("Frank Darabont")));
+        assertEquals(2, directors.size());
+
+        MovieDatabase movieDatabase = new MovieDatabase();
+        movieDatabase.addMovie(new Movie("Inception", "Christopher Nolan", 2010, 148));
+        movieDatabase.addMovie(new Movie("Memento", " christopher nolan", 2000, 113));
+        movieDatabase.addMovie(new Movie("Heat", "Michael Mann", 1995, 170));
+        assertEquals(2, movieDatabase.getMoviesByDirector("CHRISTOPHER NOLAN").size());
+        movieDatabase.removeMovie("Inception");
+        movieDatabase.removeMovie("Memento");
+        assertTrue(movieDatabase.getMoviesByDirector("Christopher Nolan").isEmpty());
+        movieDatabase.addMovie(new Movie("Tenet", "Christopher Nolan", 2020, 150));
+        assertEquals("Tenet", movieDatabase.getMoviesByDirector("Christopher Nolan").get(0).getTitle());
+        assertTrue(movieDatabase.getMoviesByDirector("Nobody").isEmpty());
+        // A snapshot taken before a director was first seen has no posting list for the new code
+        MovieDatabaseSnapshot before = movieDatabase.snapshot();
+        movieDatabase.addMovie(new Movie("Thief", "Michael Mann", 1981, 123));
+        movieDatabase.addMovie(new Movie("Lady Bird", "Greta Gerwig", 2017, 94));
+        assertTrue(before.getMoviesByDirector("Greta Gerwig").isEmpty());
+        assertEquals(1, before.getMoviesByDirector("michael mann").size());
+        assertEquals(2, movieDatabase.getMoviesByDirector("michael mann").size());
+
+        // Movies of the same director share one String
+        List<Movie> movies = CSVLoader.loadMoviesFromCSV().getAllMovies();
+        for (int i = 0; i < movies.size(); i++) {
+            for (int j = i + 1; j < movies.size(); j++) {
+                String director = movies.get(i).getDirector();
+                if (director != null && director.equals(movies.get(j).getDirector())) {
+                    assertSame(director, movies.get(j).getDirector());
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests the MappedMovieDatabase against the MovieDatabase with the same movies, including duplicate titles and ids.
+     */
+    @Test
+    public void testMappedMovieDatabase() throws IOException {
+        List<Movie> movies = new ArrayList<>();
+        Random random = new Random(5);
+        for (int i = 0; i < 500; i++) {
+            String director = random.nextInt(10) == 0 ? null : "Director " + random.nextInt(30);
+            movies.add(new Movie(random.nextInt(600), "Movie " + random.nextInt(400), director,
+                    1980 + random.nextInt(40), 80 + random.nextInt(80)));
+        }
+        MovieDatabase movieDatabase = new MovieDatabase();
+        for (Movie movie : movies) {
+            movieDatabase.addMovie(new Movie(movie.getId(), movie.getTitle(), movie.getDirector(),
+                    movie.getReleaseYear(), movie.getRunningTime()));
+        }
+
+        Path file = Files.createTempFile("movies", ".movies");
+        try {
+            long[] stamp = {1234, 5678, 0xC0FFEE};
+            MappedMovieDatabase.write(file, movies, stamp);
+            assertArrayEquals(stamp, MappedMovieDatabase.readSourceStamp(file));
+            try (MappedMovieDatabase mapped = MappedMovieDatabase.open(file)) {
+                assertEquals(movieDatabase.size(), mapped.size());
+                int[] ids = mapped.getAllMovieIds();
+                assertEquals(movieDatabase.size(), ids.length);
+                for (int id : ids) {
+                    Movie movie = mapped.getMovieById(id).get();
+                    assertEquals(movieDatabase.getMovie(movie.getTitle()).get().toString(), movie.toString());
+                    assertEquals(id, mapped.getMovie(" " + movie.getTitle().toUpperCase() + " ").get().getId());
+                }
+                assertFalse(mapped.getMovie("Unknown").isPresent());
+                assertEquals(movieDatabase.getMoviesByYearRange(1990, 1999).toString(),
+                        mapped.getMoviesByYearRange(1990, 1999).toString());
+                assertEquals(movieDatabase.getMoviesByRunningTimeRange(100, 110).toString(),
+                        mapped.getMoviesByRunningTimeRange(100, 110).toString());
+                assertEquals(movieDatabase.getMoviesByDirector("DIRECTOR 7").toString(),
+                        mapped.getMoviesByDirector("DIRECTOR 7").toString());
+                assertEquals(movieDatabase.searchMovies("ie 12").toString(), mapped.searchMovies("ie 12").toString());
+                assertEquals(movieDatabase.searchMovies("tor 2").size(), mapped.searchMovies("tor 2").size());
+                // Duplicate ids were renumbered differently, so the sort is compared with the mapped movies
+                MovieCatalog catalog = mapped;
+                MovieDatabase sameIds = new MovieDatabase();
+                for (int id : ids) {
+                    sameIds.addMovie(catalog.getMovieById(id).get());
+                }
+                assertTrue(catalog.searchMovies(null).isEmpty());
+                int[] someIds = Arrays.copyOf(ids, 50);
+                for (MovieSortKey key : MovieSortKey.values()) {
+                    assertArrayEquals(sameIds.sortMovieIds(someIds, key, false),
+                            catalog.sortMovieIds(someIds, key, false));
+                }
+            }
+            MappedMovieDatabase.write(file, movies);
+            assertArrayEquals(new long[MappedMovieDatabase.SOURCE_STAMP_LONGS],
+                    MappedMovieDatabase.readSourceStamp(file));
+            Files.write(file, new byte[10]);
+            assertNull(MappedMovieDatabase.readSourceStamp(file));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Tests the pages of sorted, filtered queries, both from a bounded heap and from a built sort order, by page
+     * number and by cursor.
+     */
+    @Test
+    public void testMoviePages() {
+        MovieDatabase movieDatabase = new MovieDatabase();
+        Random random = new Random(9);
+        for (int i = 0; i < 400; i++) {
+            movieDatabase.addMovie(new Movie("Movie " + i, "Director " + random.nextInt(10), 1990 + random.nextInt(20),
+                    80 + random.nextInt(40)));
+        }
+        List<Movie> expected = new ArrayList<>(movieDatabase.getAllMovies());
+        expected.removeIf(movie -> movie.getReleaseYear() <= 2000);
+        expected.sort(MovieSortKey.RUNNING_TIME.comparator().reversed());
+
+        for (int pass = 0; pass < 2; pass++) {
+            // The first pass picks the pages with a heap, the second walks the sort order
+            if (pass == 1) {
+                movieDatabase.prepareSortOrders();
+            }
+            assertEquals(expected.subList(0, 50), movieDatabase.topMovies(movie -> movie.getReleaseYear() > 2000,
+                    MovieSortKey.RUNNING_TIME, false, 50));
+            MoviePage third = movieDatabase.getPage(movie -> movie.getReleaseYear() > 2000, MovieSortKey.RUNNING_TIME,
+                    false, 2, 30);
+            assertEquals(expected.subList(60, 90), third.movies());
+
+            List<Movie> all = new ArrayList<>();
+            String cursor = null;
+            do {
+                MoviePage page = movieDatabase.getPageAfter(movie -> movie.getReleaseYear() > 2000,
+                        MovieSortKey.RUNNING_TIME, false, cursor, 40);
+                all.addAll(page.movies());
+                cursor = page.nextCursor();
+            } while (cursor != null);
+            assertEquals(expected, all);
+        }
+
+        // A cursor continues after its movie even if that movie was deleted
+        MoviePage first = movieDatabase.getPageAfter(movie -> true, MovieSortKey.TITLE, true, null, 10);
+        movieDatabase.removeMovie(first.movies().get(9).getTitle());
+        MoviePage second = movieDatabase.getPageAfter(movie -> true, MovieSortKey.TITLE, true, first.nextCursor(), 10);
+        assertTrue(second.hasNextPage());
+        assertTrue(MovieSortKey.TITLE.comparator().compare(first.movies().get(9), second.movies().get(0)) < 0);
+    }
+
+    /**
+     * Tests that a cursor cannot be used with another order than that of its page.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testMoviePageCursorOfOtherOrder() {
+        MovieDatabase movieDatabase = new MovieDatabase();
+        for (int i = 0; i < 20; i++) {
+            movieDatabase.addMovie(new Movie("Movie " + i, "Director", 2000, 90 + i));
+        }
+        MoviePage first = movieDatabase.getPageAfter(movie -> true, MovieSortKey.TITLE, true, null, 10);
+        movieDatabase.getPageAfter(movie -> true, MovieSortKey.TITLE, false, first.nextCursor(), 10);
+    }
 }
@@ -0,0 +1,632 @@
+package entities;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IntSummaryStatistics;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+
+/**
+ * A movie catalog stored as columns instead of Movie objects, for large catalogs that are mostly scanned.
+ * Every movie is a row: release years, running times and ids are int arrays, directors are int codes of a
+ * {@link DirectorDictionary}, and all titles are packed into one UTF-8 byte array with an offset per row. A filter over
+ * years or running times is a loop over an int array, without boxing and without following a pointer per movie, and
+ * the catalog needs about 20 bytes per movie plus its title bytes instead of three objects.
+ * <p>
+ * It answers the {@link MovieCatalog} queries like {@link MovieDatabase}. Movie objects exist only at the boundary:
+ * the ones returned are new views of a row, changing them does not change the database. Rows are appended in insertion
+ * order; a removed row is only marked and skipped until removed rows make up half the columns, which are compacted
+ * then.
+ * All methods are synchronized.
+ */
+public class ColumnarMovieDatabase implements MovieCatalog {
+    private static final int INITIAL_CAPACITY = 1024;
+    // Compacting fewer removed rows than this is not worth copying the columns
+    private static final int COMPACT_THRESHOLD = 1024;
+    private static final int NO_ROW = -1;
+
+    // One entry per row
+    private int[] ids;
+    private int[] releaseYears;
+    private int[] runningTimes;
+    private int[] directorCodes;
+    private int[] titleHashes; // Hash of the title key, so lookups and rehashing decode no titles
+    // The title of a row is titleBytes[titleOffsets[row]] up to titleBytes[titleOffsets[row + 1]]
+    private byte[] titleBytes;
+    private int[] titleOffsets;
+    private int rowCount;
+    private final BitSet removedRows = new BitSet();
+    private int removedCount;
+
+    private final DirectorDictionary directors = new DirectorDictionary();
+    // Open-addressing table of row + 1 by title key hash, 0 marks an empty slot; removed rows stay until compaction
+    private int[] titleTable;
+    // Open-addressing table of row + 1 by movie id, like titleTable, so its size follows the rows and not the ids
+    private int[] idTable;
+    private int nextId = 1;
+
+    /**
+     * Constructs an empty ColumnarMovieDatabase.
+     */
+    public ColumnarMovieDatabase() {
+        allocate(INITIAL_CAPACITY, 32 * INITIAL_CAPACITY);
+        titleTable = new int[2 * INITIAL_CAPACITY];
+        idTable = new int[2 * INITIAL_CAPACITY];
+    }
+
+    private void allocate(int rows, int bytes) {
+        ids = new int[rows];
+        releaseYears = new int[rows];
+        runningTimes = new int[rows];
+        directorCodes = new int[rows];
+        titleHashes = new int[rows];
+        titleOffsets = new int[rows + 1];
+        titleBytes = new byte[bytes];
+    }
+
+    /**
+     * Adds a new movie to the database, if there is no other movie with the same title.
+     * A movie without an id, or with an id another movie already has, is assigned the next free id.
+     *
+     * @param movie The Movie object to be added. Only its values are stored.
+     * @return true if the movie was successfully added, false if a movie with the same title already exists.
+     * @throws IllegalArgumentException if the movie has no title.
+     */
+    public synchronized boolean addMovie(Movie movie) {
+        if (movie.getTitle() == null) {
+            throw new IllegalArgumentException("Movie title must not be null");
+        }
+        String key = MovieDatabase.titleKey(movie.getTitle());
+        int hash = key.hashCode();
+        if (findRow(key, hash) != NO_ROW) {
+            return false;
+        }
+        if (movie.getId() <= Movie.NO_ID || rowOf(movie.getId()) != NO_ROW) {
+            movie.setId(nextId);
+        }
+        nextId = Math.max(nextId, movie.getId() + 1);
+
+        byte[] title = movie.getTitle().getBytes(StandardCharsets.UTF_8);
+        appendRow(movie.getId(), title, 0, title.length, hash, movie.getReleaseYear(), movie.getRunningTime(),
+                directors.encode(movie.getDirector()));
+        return true;
+    }
+
+    /**
+     * Adds many movies to the database at once. Of several movies with the same title, the first one is kept.
+     *
+     * @param newMovies The movies to add, in insertion order.
+     * @return The number of movies that were added.
+     */
+    public synchronized int addAllMovies(Collection<Movie> newMovies) {
+        int added = 0;
+        for (Movie movie : newMovies) {
+            if (addMovie(movie)) {
+                added++;
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Removes a movie from the database based on its title.
+     *
+     * @param title The title of the movie to be removed.
+     * @return true if the movie was successfully removed, false if no movie with the given title was found.
+     */
+    public synchronized boolean removeMovie(String title) {
+        if (title == null) {
+            return false;
+        }
+        String key = MovieDatabase.titleKey(title);
+        int row = findRow(key, key.hashCode());
+        if (row == NO_ROW) {
+            return false;
+        }
+        removedRows.set(row);
+        removedCount++;
+        if (removedCount >= COMPACT_THRESHOLD && 2 * removedCount > rowCount) {
+            compact();
+        }
+        return true;
+    }
+
+    /**
+     * Retrieves a movie from the database based on its title.
+     *
+     * @param title The title of the movie to be retrieved.
+     * @return An Optional containing a view of the Movie if found, or an empty Optional.
+     */
+    @Override
+    public synchronized Optional<Movie> getMovie(String title) {
+        if (title == null) {
+            return Optional.empty();
+        }
+        String key = MovieDatabase.titleKey(title);
+        int row = findRow(key, key.hashCode());
+        return row == NO_ROW ? Optional.empty() : Optional.of(movieAt(row));
+    }
+
+    /**
+     * Retrieves a movie from the database based on its id.
+     *
+     * @param id The id of the movie to be retrieved.
+     * @return An Optional containing a view of the Movie if found, or an empty Optional.
+     */
+    @Override
+    public synchronized Optional<Movie> getMovieById(int id) {
+        int row = rowOf(id);
+        return row == NO_ROW ? Optional.empty() : Optional.of(movieAt(row));
+    }
+
+    /**
+     * Retrieves all movies released in the given year.
+     *
+     * @param year The release year.
+     * @return An unmodifiable List of the matching movies, in insertion order.
+     */
+    public synchronized List<Movie> getMoviesByYear(int year) {
+        return getMoviesByYearRange(year, year);
+    }
+
+    /**
+     * Retrieves all movies released between two years, both inclusive. Scans the year column only.
+     *
+     * @param fromYear The first release year of the range.
+     * @param toYear The last release year of the range.
+     * @return An unmodifiable List of the matching movies, ordered by release year.
+     */
+    @Override
+    public synchronized List<Movie> getMoviesByYearRange(int fromYear, int toYear) {
+        return moviesOrderedBy(releaseYears, fromYear, toYear);
+    }
+
+    /**
+     * Retrieves all movies whose running time lies between two values, both inclusive. Scans the running time column
+     * only.
+     *
+     * @param minMinutes The shortest running time of the range, in minutes.
+     * @param maxMinutes The longest running time of the range, in minutes.
+     * @return An unmodifiable List of the matching movies, ordered by running time.
+     */
+    @Override
+    public synchronized List<Movie> getMoviesByRunningTimeRange(int minMinutes, int maxMinutes) {
+        return moviesOrderedBy(runningTimes, minMinutes, maxMinutes);
+    }
+
+    /**
+     * Retrieves all movies by the given director. Director names are compared ignoring case and surrounding whitespace,
+     * once per distinct name; the rows only compare director codes.
+     *
+     * @param director The name of the director.
+     * @return An unmodifiable List of the director's movies, in insertion order.
+     */
+    @Override
+    public synchronized List<Movie> getMoviesByDirector(String director) {
+        String key = MovieDatabase.directorKey(director);
+        BitSet codes = new BitSet(directors.size());
+        for (int code = 0; code < directors.size(); code++) {
+            if (MovieDatabase.directorKey(directors.decode(code)).equals(key)) {
+                codes.set(code);
+            }
+        }
+        boolean withoutDirector = key.isEmpty();
+        List<Movie> result = new ArrayList<>();
+        for (int row = 0; row < rowCount; row++) {
+            int code = directorCodes[row];
+            if ((code == DirectorDictionary.NO_DIRECTOR ? withoutDirector : codes.get(code)) && !removedRows.get(row)) {
+                result.add(movieAt(row));
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Searches for movies whose title or director contains the given text, ignoring case.
+     * Each distinct director name is checked once, and titles are searched in their packed bytes without decoding
+     * them, unless the text has characters outside of ASCII.
+     *
+     * @param text The text to search for, may be null.
+     * @return A List of the matching movies, in insertion order; empty for null.
+     */
+    @Override
+    public synchronized List<Movie> searchMovies(String text) {
+        if (text == null) {
+            return new ArrayList<>();
+        }
+        String query = text.toLowerCase(Locale.ROOT);
+        BitSet matchingDirectors = new BitSet(directors.size());
+        for (int code = 0; code < directors.size(); code++) {
+            if (directors.decode(code).toLowerCase(Locale.ROOT).contains(query)) {
+                matchingDirectors.set(code);
+            }
+        }
+        byte[] asciiQuery = isAscii(query) ? query.getBytes(StandardCharsets.US_ASCII) : null;
+        List<Movie> result = new ArrayList<>();
+        for (int row = 0; row < rowCount; row++) {
+            if (removedRows.get(row)) {
+                continue;
+            }
+            int code = directorCodes[row];
+            boolean matches = code != DirectorDictionary.NO_DIRECTOR && matchingDirectors.get(code);
+            if (!matches) {
+                matches = asciiQuery != null
+                        ? containsAsciiIgnoreCase(titleOffsets[row], titleOffsets[row + 1], asciiQuery)
+                        : titleAt(row).toLowerCase(Locale.ROOT).contains(query);
+            }
+            if (matches) {
+                result.add(movieAt(row));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Finds the movies within a range of release years and a range of running times, all bounds inclusive.
+     * Both columns are scanned as int arrays, no Movie is created.
+     *
+     * @param fromYear The first release year.
+     * @param toYear The last release year.
+     * @param minMinutes The shortest running time, in minutes.
+     * @param maxMinutes The longest running time, in minutes.
+     * @return A new array of the ids of the matching movies, in insertion order.
+     */
+    public synchronized int[] findMovieIds(int fromYear, int toYear, int minMinutes, int maxMinutes) {
+        int[] found = new int[16];
+        int count = 0;
+        for (int row = 0; row < rowCount; row++) {
+            int year = releaseYears[row];
+            int minutes = runningTimes[row];
+            if (year >= fromYear && year <= toYear && minutes >= minMinutes && minutes <= maxMinutes
+                    && !removedRows.get(row)) {
+                if (count == found.length) {
+                    found = Arrays.copyOf(found, count * 2);
+                }
+                found[count++] = ids[row];
+            }
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    /**
+     * Counts the movies released between two years, both inclusive.
+     *
+     * @param fromYear The first release year.
+     * @param toYear The last release year.
+     * @return The number of matching movies.
+     */
+    public synchronized int countMovies(int fromYear, int toYear) {
+        int count = 0;
+        for (int row = 0; row < rowCount; row++) {
+            int year = releaseYears[row];
+            if (year >= fromYear && year <= toYear && !removedRows.get(row)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the count, sum, minimum, maximum and average running time of the movies released between two years,
+     * both inclusive.
+     *
+     * @param fromYear The first release year.
+     * @param toYear The last release year.
+     * @return The statistics of the running times, in minutes.
+     */
+    public synchronized IntSummaryStatistics runningTimeStatistics(int fromYear, int toYear) {
+        IntSummaryStatistics statistics = new IntSummaryStatistics();
+        for (int row = 0; row < rowCount; row++) {
+            int year = releaseYears[row];
+            if (year >= fromYear && year <= toYear && !removedRows.get(row)) {
+                statistics.accept(runningTimes[row]);
+            }
+        }
+        return statistics;
+    }
+
+    /**
+     * Sorts movie ids by one key, in the same order as {@link MovieDatabase#sortMovieIds(int[], MovieSortKey, boolean)}.
+     * Int keys and directors are sorted as primitive longs holding the value, or the rank of the director name, and
+     * the id.
+     *
+     * @param movieIds The ids to sort. Ids of movies that are not in the database and duplicates are left out.
+     * @param key The key to sort by.
+     * @param ascending true for ascending order, false for descending order.
+     * @return A new array of the sorted ids.
+     */
+    @Override
+    public synchronized int[] sortMovieIds(int[] movieIds, MovieSortKey key, boolean ascending) {
+        int[] rows = new int[movieIds.length];
+        BitSet seen = new BitSet(rowCount);
+        int count = 0;
+        for (int id : movieIds) {
+            int row = rowOf(id);
+            if (row != NO_ROW && !seen.get(row)) {
+                seen.set(row);
+                rows[count++] = row;
+            }
+        }
+
+        int[] sorted = new int[count];
+        if (key == MovieSortKey.TITLE) {
+            Integer[] order = new Integer[count];
+            String[] titles = new String[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+                titles[i] = titleAt(rows[i]);
+            }
+            Arrays.sort(order, Comparator.<Integer, String>comparing(i -> titles[i]).thenComparingInt(i -> ids[rows[i]]));
+            for (int i = 0; i < count; i++) {
+                sorted[i] = ids[rows[order[i]]];
+            }
+        } else {
+            int[] values = switch (key) {
+                case RELEASE_YEAR -> releaseYears;
+                case RUNNING_TIME -> runningTimes;
+                default -> directorRanks();
+            };
+            long[] packed = new long[count];
+            for (int i = 0; i < count; i++) {
+                int row = rows[i];
+                int value = key == MovieSortKey.DIRECTOR ? values[directorCodes[row] + 1] : values[row];
+                packed[i] = (long) value << 32 | ids[row];
+            }
+            Arrays.sort(packed);
+            for (int i = 0; i < count; i++) {
+                sorted[i] = (int) packed[i];
+            }
+        }
+        if (!ascending) {
+            for (int i = 0, j = count - 1; i < j; i++, j--) {
+                int swap = sorted[i];
+                sorted[i] = sorted[j];
+                sorted[j] = swap;
+            }
+        }
+        return sorted;
+    }
+
+    /**
+     * Returns the rank of every director name in ascending order, indexed by code + 1 so a missing director, which
+     * sorts first, has index 0.
+     */
+    private int[] directorRanks() {
+        Integer[] codes = new Integer[directors.size()];
+        for (int code = 0; code < codes.length; code++) {
+            codes[code] = code;
+        }
+        Arrays.sort(codes, Comparator.comparing(directors::decode));
+        int[] ranks = new int[codes.length + 1];
+        for (int rank = 0; rank < codes.length; rank++) {
+            ranks[codes[rank] + 1] = rank + 1;
+        }
+        return ranks;
+    }
+
+    /**
+     * Retrieves all movies in the database.
+     *
+     * @return A new List of views of all movies, in insertion order.
+     */
+    public synchronized List<Movie> getAllMovies() {
+        List<Movie> result = new ArrayList<>(size());
+        for (int row = removedRows.nextClearBit(0); row < rowCount; row = removedRows.nextClearBit(row + 1)) {
+            result.add(movieAt(row));
+        }
+        return result;
+    }
+
+    /**
+     * Retrieves the ids of all movies in the database.
+     *
+     * @return A new array of the ids of all movies, in insertion order.
+     */
+    @Override
+    public synchronized int[] getAllMovieIds() {
+        int[] result = new int[size()];
+        int count = 0;
+        for (int row = removedRows.nextClearBit(0); row < rowCount; row = removedRows.nextClearBit(row + 1)) {
+            result[count++] = ids[row];
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of movies in the database.
+     *
+     * @return The number of movies.
+     */
+    @Override
+    public synchronized int size() {
+        return rowCount - removedCount;
+    }
+
+    /**
+     * Collects the movies whose value in an int column lies in a range, ordered by that value and then by row.
+     */
+    private List<Movie> moviesOrderedBy(int[] column, int from, int to) {
+        long[] matches = new long[16];
+        int count = 0;
+        for (int row = 0; row < rowCount; row++) {
+            int value = column[row];
+            if (value >= from && value <= to && !removedRows.get(row)) {
+                if (count == matches.length) {
+                    matches = Arrays.copyOf(matches, count * 2);
+                }
+                matches[count++] = (long) value << 32 | row;
+            }
+        }
+        Arrays.sort(matches, 0, count);
+        List<Movie> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(movieAt((int) matches[i]));
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Creates a view of a row.
+     */
+    private Movie movieAt(int row) {
+        return new Movie(ids[row], titleAt(row), directors.decode(directorCodes[row]), releaseYears[row],
+                runningTimes[row]);
+    }
+
+    private String titleAt(int row) {
+        int from = titleOffsets[row];
+        return new String(titleBytes, from, titleOffsets[row + 1] - from, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Looks up the live row of a movie id, or NO_ROW.
+     */
+    private int rowOf(int id) {
+        int mask = idTable.length - 1;
+        for (int slot = spread(id * 0x9E3779B9) & mask; idTable[slot] != 0; slot = (slot + 1) & mask) {
+            int row = idTable[slot] - 1;
+            if (ids[row] == id && !removedRows.get(row)) {
+                return row;
+            }
+        }
+        return NO_ROW;
+    }
+
+    /**
+     * Looks up the live row of a title key, or NO_ROW.
+     */
+    private int findRow(String key, int hash) {
+        int mask = titleTable.length - 1;
+        for (int slot = spread(hash) & mask; titleTable[slot] != 0; slot = (slot + 1) & mask) {
+            int row = titleTable[slot] - 1;
+            if (titleHashes[row] == hash && !removedRows.get(row)
+                    && MovieDatabase.titleKey(titleAt(row)).equals(key)) {
+                return row;
+            }
+        }
+        return NO_ROW;
+    }
+
+    private void appendRow(int id, byte[] title, int titleFrom, int titleLength, int hash, int releaseYear,
+                           int runningTime, int directorCode) {
+        if (rowCount == ids.length) {
+            int capacity = rowCount * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            releaseYears = Arrays.copyOf(releaseYears, capacity);
+            runningTimes = Arrays.copyOf(runningTimes, capacity);
+            directorCodes = Arrays.copyOf(directorCodes, capacity);
+            titleHashes = Arrays.copyOf(titleHashes, capacity);
+            titleOffsets = Arrays.copyOf(titleOffsets, capacity + 1);
+        }
+        int titleStart = titleOffsets[rowCount];
+        if (titleStart + titleLength > titleBytes.length) {
+            titleBytes = Arrays.copyOf(titleBytes, Math.max(titleBytes.length * 2, titleStart + titleLength));
+        }
+        System.arraycopy(title, titleFrom, titleBytes, titleStart, titleLength);
+
+        int row = rowCount++;
+        ids[row] = id;
+        releaseYears[row] = releaseYear;
+        runningTimes[row] = runningTime;
+        directorCodes[row] = directorCode;
+        titleHashes[row] = hash;
+        titleOffsets[row + 1] = titleStart + titleLength;
+        if (2 * rowCount > titleTable.length) {
+            rebuildTables(titleTable.length * 2);
+        } else {
+            insertRow(row);
+        }
+    }
+
+    /**
+     * Enters a row in the title and id tables.
+     */
+    private void insertRow(int row) {
+        titleTable[freeSlot(titleTable, spread(titleHashes[row]))] = row + 1;
+        idTable[freeSlot(idTable, spread(ids[row] * 0x9E3779B9))] = row + 1;
+    }
+
+    private static int freeSlot(int[] table, int hash) {
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rebuildTables(int capacity) {
+        titleTable = new int[capacity];
+        idTable = new int[capacity];
+        for (int row = removedRows.nextClearBit(0); row < rowCount; row = removedRows.nextClearBit(row + 1)) {
+            insertRow(row);
+        }
+    }
+
+    /**
+     * Drops the removed rows from the columns and rebuilds the lookup tables.
+     */
+    private void compact() {
+        int[] oldIds = ids;
+        int[] oldYears = releaseYears;
+        int[] oldRunningTimes = runningTimes;
+        int[] oldCodes = directorCodes;
+        int[] oldHashes = titleHashes;
+        byte[] oldTitles = titleBytes;
+        int[] oldOffsets = titleOffsets;
+        int oldCount = rowCount;
+
+        int live = rowCount - removedCount;
+        allocate(Math.max(INITIAL_CAPACITY, live), Math.max(32, titleOffsets[rowCount]));
+        titleTable = new int[Integer.highestOneBit(Math.max(INITIAL_CAPACITY, live)) * 4];
+        idTable = new int[titleTable.length];
+        BitSet removed = (BitSet) removedRows.clone();
+        removedRows.clear();
+        removedCount = 0;
+        rowCount = 0;
+        for (int row = removed.nextClearBit(0); row < oldCount; row = removed.nextClearBit(row + 1)) {
+            appendRow(oldIds[row], oldTitles, oldOffsets[row], oldOffsets[row + 1] - oldOffsets[row], oldHashes[row],
+                    oldYears[row], oldRunningTimes[row], oldCodes[row]);
+        }
+    }
+
+    /**
+     * Case-insensitive substring check of a lower-case ASCII query in packed title bytes. Bytes of other characters
+     * are never ASCII in UTF-8, so they cannot produce false matches.
+     */
+    private boolean containsAsciiIgnoreCase(int from, int to, byte[] query) {
+        outer:
+        for (int start = from; start + query.length <= to; start++) {
+            for (int i = 0; i < query.length; i++) {
+                byte b = titleBytes[start + i];
+                if (b >= 'A' && b <= 'Z') {
+                    b += 'a' - 'A';
+                }
+                if (b != query[i]) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean isAscii(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,171 @@
+package entities;
+
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the usernames and passwords of a users file in memory, so a login is a single map lookup.
+ * The file format is 'username:password' with both parts in quotes and each user on a new line.
+ * <p>
+ * Before every lookup the modification time and size of the file are compared to those seen at the last read, and
+ * the file is read again only if it was changed, for example by hand or by another instance of the app. A new user is
+ * appended to the file instead of rewriting it.
+ */
+public class CredentialStore {
+    private final Path file;
+
+    // Replaced as a whole on reload, so a lookup never sees a half-read file
+    private volatile Map<String, String> users = new ConcurrentHashMap<>();
+    // Guarded by this
+    private FileTime loadedModified;
+    private long loadedSize = -1;
+    private boolean endsWithNewline = true;
+
+    /**
+     * Constructs a CredentialStore for a users file. The file is read on first use.
+     *
+     * @param file The users file. A missing file is treated as having no users and is created on registration.
+     */
+    public CredentialStore(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Checks a username and password.
+     *
+     * @param username The username.
+     * @param password The password.
+     * @return true if the user exists and the password matches.
+     */
+    public boolean login(String username, String password) {
+        reloadIfChanged();
+        return password != null && password.equals(users.get(username));
+    }
+
+    /**
+     * Returns whether a user exists.
+     *
+     * @param username The username.
+     * @return true if the user exists.
+     */
+    public boolean exists(String username) {
+        reloadIfChanged();
+        return users.containsKey(username);
+    }
+
+    /**
+     * Registers a new user and appends it to the users file.
+     *
+     * @param username The username of the new user.
+     * @param password The password of the new user.
+     * @return true if the user was registered, false if the username already exists.
+     * @throws UncheckedIOException if the user cannot be written to the file. The user is not registered then.
+     */
+    public synchronized boolean register(String username, String password) {
+        reloadIfChanged();
+        if (users.containsKey(username)) {
+            return false;
+        }
+        String line = (endsWithNewline ? "" : System.lineSeparator())
+                + "\"" + username + "\":\"" + password + "\"" + System.lineSeparator();
+        try (FileOutputStream out = new FileOutputStream(file.toFile(), true)) {
+            out.write(line.getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not register " + username, e);
+        }
+        users.put(username, password);
+        endsWithNewline = true;
+        // Our own append must not trigger a reload
+        remember(attributesOf());
+        return true;
+    }
+
+    /**
+     * Reads the users file again if its modification time or size changed since it was last read.
+     */
+    private void reloadIfChanged() {
+        BasicFileAttributes attributes = attributesOf();
+        synchronized (this) {
+            if (isLoaded(attributes)) {
+                return;
+            }
+            Map<String, String> loaded = new ConcurrentHashMap<>();
+            boolean newline = true;
+            if (attributes != null) {
+                try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        parseLine(line, loaded);
+                    }
+                    newline = endsWithNewline(file);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    System.out.println("Problem with loading the users!");
+                    return;
+                }
+            }
+            users = loaded;
+            endsWithNewline = newline;
+            remember(attributes);
+        }
+    }
+
+    private boolean isLoaded(BasicFileAttributes attributes) {
+        if (attributes == null) {
+            return loadedSize == 0 && loadedModified == null;
+        }
+        return attributes.size() == loadedSize && attributes.lastModifiedTime().equals(loadedModified);
+    }
+
+    private void remember(BasicFileAttributes attributes) {
+        loadedSize = attributes == null ? 0 : attributes.size();
+        loadedModified = attributes == null ? null : attributes.lastModifiedTime();
+    }
+
+    /**
+     * Returns the attributes of the users file, or null if it does not exist.
+     */
+    private BasicFileAttributes attributesOf() {
+        try {
+            return Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read the attributes of " + file, e);
+        }
+    }
+
+    private static void parseLine(String line, Map<String, String> users) {
+        String[] parts = line.split(":", 2);
+        if (parts.length < 2) {
+            return;
+        }
+        String username = parts[0].replaceAll("\"", ""); // Remove quotes
+        String password = parts[1].replaceAll("\"", ""); // Remove quotes
+        users.put(username, password);
+    }
+
+    private static boolean endsWithNewline(Path file) throws IOException {
+        try (SeekableByteChannel channel = Files.newByteChannel(file)) {
+            if (channel.size() == 0) {
+                return true;
+            }
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.position(channel.size() - 1).read(last);
+            return last.get(0) == '\n';
+        }
+    }
+}
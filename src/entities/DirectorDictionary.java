@@ -0,0 +1,108 @@
+package entities;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Encodes director names as small int codes, so columns and indexes of many movies store an int per movie instead of
+ * a String and compare directors with ==. Codes are handed out from 0 in the order the names are first seen and never
+ * change; the reverse lookup is an array indexed by code.
+ * <p>
+ * The dictionary also interns names: the few hundred directors of a catalog appear in thousands of rows, and loaders
+ * that keep {@link #intern(String)} instead of the parsed String hold each name once. It is safe to use from several
+ * threads, for example by the parallel CSV loader. Only adding a new name takes a lock; looking up, decoding and
+ * interning a known name read the concurrent map and the array of names without one, so parallel loaders do not
+ * queue up on the dictionary.
+ */
+public class DirectorDictionary {
+    /**
+     * The code of a missing director, and of a name the dictionary does not know.
+     */
+    public static final int NO_DIRECTOR = -1;
+
+    private final Map<String, Integer> codes = new ConcurrentHashMap<>();
+    // Written while holding this; a name is stored before its code is put into the map, so whoever finds the code
+    // finds the name, and a full array is replaced by a larger copy
+    private volatile String[] names = new String[16];
+    private volatile int size;
+
+    /**
+     * Returns the code of a director name, assigning the next free code to a name seen for the first time.
+     *
+     * @param name The director name, may be null.
+     * @return The code, or {@link #NO_DIRECTOR} for null.
+     */
+    public int encode(String name) {
+        if (name == null) {
+            return NO_DIRECTOR;
+        }
+        Integer code = codes.get(name);
+        return code != null ? code : add(name);
+    }
+
+    private synchronized int add(String name) {
+        Integer known = codes.get(name);
+        if (known != null) {
+            return known;
+        }
+        int code = size;
+        String[] current = names;
+        if (code == current.length) {
+            current = Arrays.copyOf(current, code * 2);
+            names = current;
+        }
+        current[code] = name;
+        codes.put(name, code);
+        size = code + 1;
+        return code;
+    }
+
+    /**
+     * Returns the code of a director name without assigning one.
+     *
+     * @param name The director name, may be null.
+     * @return The code, or {@link #NO_DIRECTOR} if the name is null or not in the dictionary.
+     */
+    public int codeOf(String name) {
+        if (name == null) {
+            return NO_DIRECTOR;
+        }
+        Integer code = codes.get(name);
+        return code == null ? NO_DIRECTOR : code;
+    }
+
+    /**
+     * Returns the director name of a code.
+     *
+     * @param code A code returned by {@link #encode(String)}.
+     * @return The director name, or null for {@link #NO_DIRECTOR}.
+     */
+    public String decode(int code) {
+        return code == NO_DIRECTOR ? null : names[code];
+    }
+
+    /**
+     * Returns the one instance of a director name that the dictionary keeps, adding the name if it is new.
+     *
+     * @param name The director name, may be null.
+     * @return An equal String shared by all callers, or null for null.
+     */
+    public String intern(String name) {
+        if (name == null) {
+            return null;
+        }
+        Integer known = codes.get(name);
+        int code = known != null ? known : add(name);
+        return names[code];
+    }
+
+    /**
+     * Returns the number of distinct director names. The codes are 0 to size() - 1.
+     *
+     * @return The number of names.
+     */
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,285 @@
+package entities;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stores watchlists in a binary hash file, so a single user's watchlist is read and written without touching the
+ * others. Nothing is loaded up front: {@link #load()} returns no watchlists and {@link #loadUser(String)} reads one.
+ * <p>
+ * The file starts with a header holding a magic number, the format version and the number of buckets, followed by
+ * the bucket table: one offset per bucket pointing to the first record of its chain, 0 for an empty bucket. Each
+ * record holds the offset of the next record in the chain, its capacity in ids, the username as an int byte length
+ * and the UTF-8 bytes, the number of ids and the ids, padded to the capacity. A watchlist that still fits its record
+ * is overwritten in place; one that outgrew it is written to a new record of twice the capacity at the end of the
+ * file, which is then linked into the chain in place of the old one. A lookup hashes the username to a bucket and
+ * follows a short chain, so its cost does not grow with the number of users as long as the bucket count fits.
+ * <p>
+ * If the hash file does not exist yet, it is built once from a watchlist file in the format of
+ * {@link WatchListFileStore}.
+ */
+public class IndexedWatchListStore implements WatchListStore {
+    /**
+     * The default number of buckets of a new hash file.
+     */
+    public static final int DEFAULT_BUCKET_COUNT = 1 << 16;
+
+    private static final int MAGIC = 0x4D574C49; // "MWLI"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 4 + 4;
+    // next offset, capacity and username length
+    private static final int RECORD_HEADER_BYTES = 8 + 4 + 4;
+    private static final int MIN_CAPACITY = 4;
+
+    private final FileChannel channel;
+    private final int bucketCount;
+
+    /**
+     * Opens the hash file next to a watchlist file, for example watchlistdb.idx next to watchlistdb.txt, and builds it
+     * from the watchlist file if it does not exist yet.
+     *
+     * @param watchlistFile The watchlist file.
+     * @throws IOException if the hash file cannot be opened or built.
+     */
+    public IndexedWatchListStore(Path watchlistFile) throws IOException {
+        this(indexPath(watchlistFile), watchlistFile, DEFAULT_BUCKET_COUNT);
+    }
+
+    /**
+     * Opens a hash file and builds it first if it does not exist yet.
+     *
+     * @param indexFile The hash file.
+     * @param importFile The watchlist file to build a new hash file from. A missing file yields an empty hash file.
+     * @param bucketCount The number of buckets of a new hash file.
+     * @throws IOException if the hash file cannot be opened or built, or is not a watchlist hash file.
+     */
+    public IndexedWatchListStore(Path indexFile, Path importFile, int bucketCount) throws IOException {
+        if (bucketCount < 1) {
+            throw new IllegalArgumentException("Bucket count must be positive");
+        }
+        if (!Files.exists(indexFile)) {
+            build(indexFile, importFile, bucketCount);
+        }
+        channel = FileChannel.open(indexFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = read(0, HEADER_BYTES);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException(indexFile + " is not a watchlist hash file of version " + VERSION);
+            }
+            this.bucketCount = header.getInt();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    static Path indexPath(Path watchlistFile) {
+        String name = watchlistFile.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return watchlistFile.resolveSibling((dot > 0 ? name.substring(0, dot) : name) + ".idx");
+    }
+
+    /**
+     * Builds a hash file from a watchlist file. The file is written to a temporary file first and then moved into
+     * place, so an interrupted build is simply repeated.
+     */
+    private static void build(Path indexFile, Path importFile, int bucketCount) throws IOException {
+        Path tempFile = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(VERSION).putInt(bucketCount).flip();
+        try (IndexedWatchListStore store = new IndexedWatchListStore(tempFile, header, bucketCount)) {
+            Map<String, MovieIdSet> watchlists = WatchListFileStore.read(importFile);
+            for (Map.Entry<String, MovieIdSet> entry : watchlists.entrySet()) {
+                store.write(entry.getKey(), entry.getValue());
+            }
+            store.channel.force(true);
+        }
+        Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Creates an empty hash file with the given header.
+     */
+    private IndexedWatchListStore(Path file, ByteBuffer header, int bucketCount) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.bucketCount = bucketCount;
+        writeFully(header, 0);
+        // Extending the file with one byte past the table leaves all bucket offsets 0
+        writeFully(ByteBuffer.allocate(1), HEADER_BYTES + 8L * bucketCount - 1);
+    }
+
+    /**
+     * Returns no watchlists, they are read one by one with {@link #loadUser(String)}.
+     *
+     * @return An empty map.
+     */
+    @Override
+    public Map<String, MovieIdSet> load() {
+        return new HashMap<>();
+    }
+
+    @Override
+    public synchronized MovieIdSet loadUser(String username) throws IOException {
+        byte[] name = username.getBytes(StandardCharsets.UTF_8);
+        long record = find(name)[1];
+        if (record == 0) {
+            return null;
+        }
+        ByteBuffer count = read(record + RECORD_HEADER_BYTES + name.length, 4);
+        int size = count.getInt();
+        ByteBuffer ids = read(record + RECORD_HEADER_BYTES + name.length + 4, 4 * size);
+        MovieIdSet watchlist = new MovieIdSet();
+        for (int i = 0; i < size; i++) {
+            watchlist.add(ids.getInt());
+        }
+        return watchlist;
+    }
+
+    @Override
+    public synchronized void movieAdded(String username, int movieId, Map<String, MovieIdSet> watchlists) throws IOException {
+        write(username, watchlists.get(username));
+        channel.force(false);
+    }
+
+    @Override
+    public synchronized void movieRemoved(String username, int movieId, Map<String, MovieIdSet> watchlists) throws IOException {
+        write(username, watchlists.get(username));
+        channel.force(false);
+    }
+
+    /**
+     * Writes the records of the given users and syncs the file once.
+     */
+    @Override
+    public synchronized void saveUsers(Map<String, MovieIdSet> changed, Map<String, MovieIdSet> watchlists) throws IOException {
+        for (Map.Entry<String, MovieIdSet> entry : changed.entrySet()) {
+            write(entry.getKey(), entry.getValue());
+        }
+        channel.force(false);
+    }
+
+    /**
+     * Writes the records of all given users. Since watchlists are loaded lazily, these are the users that were read
+     * or changed; all other records stay as they are.
+     */
+    @Override
+    public void saveAll(Map<String, MovieIdSet> watchlists) throws IOException {
+        saveUsers(watchlists, watchlists);
+    }
+
+    /**
+     * Closes the hash file.
+     *
+     * @throws IOException if closing the file fails.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Finds the record of a user.
+     *
+     * @param name The UTF-8 bytes of the username.
+     * @return The position of the pointer to the record, and the position of the record or 0 if the user has none.
+     */
+    private long[] find(byte[] name) throws IOException {
+        long pointer = HEADER_BYTES + 8L * Math.floorMod(Arrays.hashCode(name), bucketCount);
+        long record = read(pointer, 8).getLong();
+        while (record != 0) {
+            ByteBuffer header = read(record, RECORD_HEADER_BYTES);
+            long next = header.getLong();
+            header.getInt();
+            if (header.getInt() == name.length && Arrays.equals(read(record + RECORD_HEADER_BYTES, name.length).array(), name)) {
+                return new long[]{pointer, record};
+            }
+            pointer = record;
+            record = next;
+        }
+        return new long[]{pointer, 0};
+    }
+
+    /**
+     * Writes a user's watchlist, in place if it fits the user's record and to a new, larger record otherwise.
+     */
+    private void write(String username, MovieIdSet watchlist) throws IOException {
+        int[] ids = watchlist == null ? new int[0] : watchlist.toArray();
+        byte[] name = username.getBytes(StandardCharsets.UTF_8);
+        long[] location = find(name);
+        long pointer = location[0];
+        long record = location[1];
+
+        if (record != 0) {
+            ByteBuffer header = read(record, RECORD_HEADER_BYTES);
+            long next = header.getLong();
+            int capacity = header.getInt();
+            if (ids.length <= capacity) {
+                ByteBuffer content = ByteBuffer.allocate(4 + 4 * ids.length);
+                content.putInt(ids.length);
+                for (int id : ids) {
+                    content.putInt(id);
+                }
+                writeFully(content.flip(), record + RECORD_HEADER_BYTES + name.length);
+                return;
+            }
+            // Outgrown: the new record takes the old one's place in the chain
+            link(pointer, append(name, ids, Math.max(capacity * 2, ids.length), next));
+            return;
+        }
+        // New user: the new record is linked in at the end of the chain
+        link(pointer, append(name, ids, Math.max(MIN_CAPACITY, ids.length), 0));
+    }
+
+    /**
+     * Appends a record at the end of the file.
+     *
+     * @return The position of the new record.
+     */
+    private long append(byte[] name, int[] ids, int capacity, long next) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + name.length + 4 + 4 * capacity);
+        record.putLong(next).putInt(capacity).putInt(name.length).put(name).putInt(ids.length);
+        for (int id : ids) {
+            record.putInt(id);
+        }
+        record.rewind();
+        long position = channel.size();
+        writeFully(record, position);
+        return position;
+    }
+
+    /**
+     * Points a bucket or the next-field of a record to a record.
+     * The record is written before it is linked, so a crash never leaves a pointer to an incomplete record.
+     */
+    private void link(long pointer, long record) throws IOException {
+        ByteBuffer offset = ByteBuffer.allocate(8);
+        offset.putLong(record).flip();
+        writeFully(offset, pointer);
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Watchlist hash file is truncated at " + (position + buffer.position()));
+            }
+        }
+        return buffer.flip();
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+}
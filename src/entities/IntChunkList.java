@@ -0,0 +1,390 @@
+package entities;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * A list of ints kept in chunks of at most {@link #CHUNK_SIZE}, used for the posting lists, buckets and sort orders
+ * of a {@link MovieDatabaseSnapshot}. A list is changed through an {@link #edit()} copy, which shares all chunks with
+ * the original and copies a chunk only the first time it changes it, so a change of a long list costs one chunk and
+ * the small arrays pointing to the chunks. Once {@link #freeze() frozen}, a list never changes and can be read by any
+ * number of threads.
+ */
+final class IntChunkList {
+    private static final int CHUNK_BITS = 9;
+    /**
+     * The largest number of ints in a chunk.
+     */
+    static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int[] NO_INTS = new int[0];
+
+    static final IntChunkList EMPTY = new IntChunkList(new int[0][], new int[]{0}, 0).freeze();
+
+    // The chunks, each holding starts[i + 1] - starts[i] ints at its front; arrays may have room for more
+    private int[][] chunks;
+    // starts[i] is the index of the first int of chunks[i], starts[chunkCount] is the size
+    private int[] starts;
+    private int chunkCount;
+    // The chunks this copy may change in place; null once frozen
+    private boolean[] owned;
+
+    private IntChunkList(int[][] chunks, int[] starts, int chunkCount) {
+        this.chunks = chunks;
+        this.starts = starts;
+        this.chunkCount = chunkCount;
+        this.owned = new boolean[chunks.length];
+    }
+
+    /**
+     * Creates a frozen list of the given ints.
+     *
+     * @param values The ints, in list order.
+     * @param count The number of ints of values to take.
+     * @return The list.
+     */
+    static IntChunkList of(int[] values, int count) {
+        int chunkCount = (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        int[][] chunks = new int[chunkCount][];
+        int[] starts = new int[chunkCount + 1];
+        for (int i = 0; i < chunkCount; i++) {
+            starts[i] = i * CHUNK_SIZE;
+            chunks[i] = Arrays.copyOfRange(values, starts[i], Math.min(count, starts[i] + CHUNK_SIZE));
+        }
+        starts[chunkCount] = count;
+        return new IntChunkList(chunks, starts, chunkCount).freeze();
+    }
+
+    /**
+     * Returns a changeable copy of this list, which shares all chunks with it.
+     *
+     * @return The copy.
+     */
+    IntChunkList edit() {
+        int capacity = Math.max(4, chunkCount + 1);
+        IntChunkList copy = new IntChunkList(Arrays.copyOf(chunks, capacity), Arrays.copyOf(starts, capacity + 1),
+                chunkCount);
+        copy.owned = new boolean[capacity];
+        return copy;
+    }
+
+    /**
+     * Makes this list immutable, so it can be handed to other threads.
+     *
+     * @return This list.
+     */
+    IntChunkList freeze() {
+        owned = null;
+        return this;
+    }
+
+    boolean isFrozen() {
+        return owned == null;
+    }
+
+    int size() {
+        return starts[chunkCount];
+    }
+
+    int get(int index) {
+        int chunk = chunkOf(index);
+        return chunks[chunk][index - starts[chunk]];
+    }
+
+    /**
+     * Copies the ints to an array.
+     *
+     * @return A new array with the ints in list order.
+     */
+    int[] toArray() {
+        int[] values = size() == 0 ? NO_INTS : new int[size()];
+        for (int i = 0; i < chunkCount; i++) {
+            System.arraycopy(chunks[i], 0, values, starts[i], starts[i + 1] - starts[i]);
+        }
+        return values;
+    }
+
+    /**
+     * Binary-searches an ascending list for a value.
+     *
+     * @return The index of the value, or (-(insertion point) - 1) if it is not in the list.
+     */
+    int binarySearch(int value) {
+        return search(element -> Integer.compare(element, value));
+    }
+
+    /**
+     * Binary-searches a list that is sorted by some order.
+     *
+     * @param comparison Compares an element with the value searched for, returning a negative number, zero or a
+     *                   positive number if the element comes before, is, or comes after it.
+     * @return The index of the value, or (-(insertion point) - 1) if it is not in the list.
+     */
+    int search(IntUnaryOperator comparison) {
+        // The first chunk whose last element does not come before the value
+        int low = 0;
+        int high = chunkCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (comparison.applyAsInt(chunks[middle][starts[middle + 1] - starts[middle] - 1]) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        if (low == chunkCount) {
+            return -(size() + 1);
+        }
+        int[] chunk = chunks[low];
+        int first = 0;
+        int last = starts[low + 1] - starts[low] - 1;
+        while (first <= last) {
+            int middle = (first + last) >>> 1;
+            int result = comparison.applyAsInt(chunk[middle]);
+            if (result < 0) {
+                first = middle + 1;
+            } else if (result > 0) {
+                last = middle - 1;
+            } else {
+                return starts[low] + middle;
+            }
+        }
+        return -(starts[low] + first + 1);
+    }
+
+    /**
+     * Calls an action for every int, in list order.
+     */
+    void forEach(IntConsumer action) {
+        for (int i = 0; i < chunkCount; i++) {
+            int[] chunk = chunks[i];
+            for (int offset = 0, length = starts[i + 1] - starts[i]; offset < length; offset++) {
+                action.accept(chunk[offset]);
+            }
+        }
+    }
+
+    /**
+     * Returns a cursor at the start of an ascending list, for probing it with growing values.
+     */
+    Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Walks an ascending list forward, for intersecting it with other lists. Probing growing values walks each chunk
+     * at most once and searches inside a chunk by doubling the step from the last position, so a probe costs the
+     * logarithm of the distance moved.
+     */
+    final class Cursor {
+        private int chunk;
+        private int offset;
+
+        private Cursor() {
+        }
+
+        /**
+         * Moves to the first int that is not smaller than a value, which must not be smaller than the last value
+         * probed.
+         *
+         * @return true if the list holds the value.
+         */
+        boolean skipTo(int value) {
+            while (chunk < chunkCount && chunks[chunk][starts[chunk + 1] - starts[chunk] - 1] < value) {
+                chunk++;
+                offset = 0;
+            }
+            if (chunk == chunkCount) {
+                return false;
+            }
+            int[] values = chunks[chunk];
+            int length = starts[chunk + 1] - starts[chunk];
+            int low = offset;
+            int high = offset;
+            for (int step = 1; high < length && values[high] < value; step <<= 1) {
+                low = high + 1;
+                high = offset + step;
+            }
+            int position = Arrays.binarySearch(values, low, Math.min(high + 1, length), value);
+            offset = position >= 0 ? position : -position - 1;
+            return position >= 0;
+        }
+    }
+
+    /**
+     * Appends an int at the end.
+     */
+    void add(int value) {
+        insert(size(), value);
+    }
+
+    /**
+     * Adds a value to an ascending list at its place, which for growing values is the end.
+     *
+     * @return false if the list already holds the value.
+     */
+    boolean addSorted(int value) {
+        int index = size() == 0 || get(size() - 1) < value ? -size() - 1 : binarySearch(value);
+        if (index >= 0) {
+            return false;
+        }
+        insert(-index - 1, value);
+        return true;
+    }
+
+    /**
+     * Removes a value from an ascending list.
+     *
+     * @return false if the list does not hold the value.
+     */
+    boolean removeSorted(int value) {
+        int index = binarySearch(value);
+        if (index < 0) {
+            return false;
+        }
+        remove(index);
+        return true;
+    }
+
+    /**
+     * Inserts an int at an index, moving the ints from there on back by one.
+     */
+    void insert(int index, int value) {
+        checkNotFrozen();
+        int chunk = chunkCount == 0 ? -1 : index == size() ? chunkCount - 1 : chunkOf(index);
+        if (chunk < 0 || starts[chunk + 1] - starts[chunk] == CHUNK_SIZE) {
+            if (chunk < 0 || index == size()) {
+                // Start a new chunk at the end
+                insertChunk(chunkCount, new int[Math.min(CHUNK_SIZE, Math.max(4, size()))], index);
+                chunk = chunkCount - 1;
+            } else {
+                split(chunk);
+                if (index >= starts[chunk + 1]) {
+                    chunk++;
+                }
+            }
+        }
+        int length = starts[chunk + 1] - starts[chunk];
+        int[] target = writable(chunk, length + 1);
+        int offset = index - starts[chunk];
+        System.arraycopy(target, offset, target, offset + 1, length - offset);
+        target[offset] = value;
+        for (int i = chunk + 1; i <= chunkCount; i++) {
+            starts[i]++;
+        }
+    }
+
+    /**
+     * Removes the int at an index.
+     */
+    void remove(int index) {
+        checkNotFrozen();
+        int chunk = chunkOf(index);
+        int length = starts[chunk + 1] - starts[chunk];
+        if (length == 1) {
+            System.arraycopy(chunks, chunk + 1, chunks, chunk, chunkCount - chunk - 1);
+            System.arraycopy(owned, chunk + 1, owned, chunk, chunkCount - chunk - 1);
+            System.arraycopy(starts, chunk + 1, starts, chunk, chunkCount - chunk);
+            chunkCount--;
+            for (int i = chunk; i <= chunkCount; i++) {
+                starts[i]--;
+            }
+            return;
+        }
+        int[] target = writable(chunk, length);
+        int offset = index - starts[chunk];
+        System.arraycopy(target, offset + 1, target, offset, length - offset - 1);
+        for (int i = chunk + 1; i <= chunkCount; i++) {
+            starts[i]--;
+        }
+        // Removals leave chunks partly empty; once there are twice as many as needed they are packed again
+        if (chunkCount > 2 * ((size() + CHUNK_SIZE - 1) / CHUNK_SIZE) + 1) {
+            pack();
+        }
+    }
+
+    /**
+     * Returns the chunk holding an index.
+     */
+    private int chunkOf(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of range for size " + size());
+        }
+        int low = 0;
+        int high = chunkCount - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (starts[middle] <= index) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    private void checkNotFrozen() {
+        if (owned == null) {
+            throw new UnsupportedOperationException("The list is frozen, change an edit() copy instead");
+        }
+    }
+
+    /**
+     * Returns a chunk that this copy may change and that can hold the given number of ints.
+     */
+    private int[] writable(int chunk, int length) {
+        int[] array = chunks[chunk];
+        if (!owned[chunk] || array.length < length) {
+            int capacity = owned[chunk]
+                    ? Math.min(CHUNK_SIZE, Math.max(length, array.length * 2))
+                    : Math.max(length, Math.min(CHUNK_SIZE, array.length + array.length / 2 + 1));
+            array = Arrays.copyOf(array, capacity);
+            chunks[chunk] = array;
+            owned[chunk] = true;
+        }
+        return array;
+    }
+
+    /**
+     * Splits a full chunk into two halves.
+     */
+    private void split(int chunk) {
+        int[] full = chunks[chunk];
+        int half = CHUNK_SIZE / 2;
+        insertChunk(chunk + 1, Arrays.copyOfRange(full, half, CHUNK_SIZE), starts[chunk] + half);
+        chunks[chunk] = Arrays.copyOf(full, CHUNK_SIZE);
+        owned[chunk] = true;
+    }
+
+    /**
+     * Inserts a chunk starting at the given index into the directory, taking over the ints from there up to the start
+     * of the next chunk.
+     */
+    private void insertChunk(int position, int[] chunk, int start) {
+        if (chunkCount + 1 >= chunks.length) {
+            int capacity = chunks.length * 2 + 2;
+            chunks = Arrays.copyOf(chunks, capacity);
+            owned = Arrays.copyOf(owned, capacity);
+            starts = Arrays.copyOf(starts, capacity + 1);
+        }
+        System.arraycopy(chunks, position, chunks, position + 1, chunkCount - position);
+        System.arraycopy(owned, position, owned, position + 1, chunkCount - position);
+        System.arraycopy(starts, position, starts, position + 1, chunkCount - position + 1);
+        chunks[position] = chunk;
+        owned[position] = true;
+        starts[position] = start;
+        chunkCount++;
+    }
+
+    /**
+     * Moves all ints into full chunks.
+     */
+    private void pack() {
+        IntChunkList packed = of(toArray(), size());
+        chunks = Arrays.copyOf(packed.chunks, packed.chunkCount + 1);
+        starts = Arrays.copyOf(packed.starts, packed.chunkCount + 2);
+        chunkCount = packed.chunkCount;
+        owned = new boolean[chunks.length];
+        Arrays.fill(owned, true);
+    }
+}
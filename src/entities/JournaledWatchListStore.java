@@ -0,0 +1,183 @@
+package entities;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Stores watchlists as a checkpoint in the format of {@link WatchListFileStore} plus an append-only journal of the
+ * changes made since. Every change appends one record to the journal, so its cost depends on the size of the change
+ * rather than on the number of users:
+ * <pre>
+ * +username==>movieId   the movie was added to the user's watchlist
+ * -username==>movieId   the movie was removed from the user's watchlist
+ * =username==>movieId1,,movieId2   the user's whole watchlist, written for batches of changes
+ * </pre>
+ * Loading replays the journal over the checkpoint. After a configurable number of records a new checkpoint is written
+ * and the journal is cleared. The checkpoint is moved into place before the journal is deleted, and replaying a record
+ * twice has no effect, so a crash in between loses nothing.
+ */
+public class JournaledWatchListStore implements WatchListStore {
+    /**
+     * The default number of journal records after which a checkpoint is taken.
+     */
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 10_000;
+
+    private static final char ADD = '+';
+    private static final char REMOVE = '-';
+    private static final char REPLACE = '=';
+    private static final String SEPARATOR = "==>";
+
+    private final Path checkpointFile;
+    private final Path journalFile;
+    private final int checkpointInterval;
+    private FileOutputStream journalOut;
+    private Writer journal;
+    private int journalRecords;
+
+    /**
+     * Constructs a JournaledWatchListStore that keeps its journal next to the checkpoint, with the default interval.
+     *
+     * @param checkpointFile The checkpoint file, for example watchlistdb.txt.
+     */
+    public JournaledWatchListStore(Path checkpointFile) {
+        this(checkpointFile, checkpointFile.resolveSibling(journalName(checkpointFile)), DEFAULT_CHECKPOINT_INTERVAL);
+    }
+
+    /**
+     * Constructs a JournaledWatchListStore.
+     *
+     * @param checkpointFile The checkpoint file.
+     * @param journalFile The journal file.
+     * @param checkpointInterval The number of journal records after which a checkpoint is taken.
+     */
+    public JournaledWatchListStore(Path checkpointFile, Path journalFile, int checkpointInterval) {
+        if (checkpointInterval < 1) {
+            throw new IllegalArgumentException("Checkpoint interval must be positive");
+        }
+        this.checkpointFile = checkpointFile;
+        this.journalFile = journalFile;
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    private static String journalName(Path checkpointFile) {
+        String name = checkpointFile.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return (dot > 0 ? name.substring(0, dot) : name) + ".journal";
+    }
+
+    @Override
+    public synchronized Map<String, MovieIdSet> load() throws IOException {
+        Map<String, MovieIdSet> watchlists = WatchListFileStore.read(checkpointFile);
+        journalRecords = 0;
+        if (!Files.exists(journalFile)) {
+            return watchlists;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(journalFile, StandardCharsets.UTF_8)) {
+            String record;
+            while ((record = reader.readLine()) != null) {
+                int separator = record.indexOf(SEPARATOR);
+                if (record.isEmpty() || separator < 1) {
+                    continue;
+                }
+                journalRecords++;
+                String username = record.substring(1, separator);
+                MovieIdSet ids = WatchListFileStore.parseIds(record.substring(separator + SEPARATOR.length()), journalFile);
+                if (record.charAt(0) == ADD && ids.size() == 1) {
+                    watchlists.computeIfAbsent(username, k -> new MovieIdSet()).add(ids.toArray()[0]);
+                } else if (record.charAt(0) == REMOVE && ids.size() == 1 && watchlists.containsKey(username)) {
+                    watchlists.get(username).remove(ids.toArray()[0]);
+                } else if (record.charAt(0) == REPLACE) {
+                    watchlists.put(username, ids);
+                }
+            }
+        }
+        return watchlists;
+    }
+
+    @Override
+    public synchronized void movieAdded(String username, int movieId, Map<String, MovieIdSet> watchlists) throws IOException {
+        append(ADD, username, movieId, watchlists);
+    }
+
+    @Override
+    public synchronized void movieRemoved(String username, int movieId, Map<String, MovieIdSet> watchlists) throws IOException {
+        append(REMOVE, username, movieId, watchlists);
+    }
+
+    @Override
+    public synchronized void saveAll(Map<String, MovieIdSet> watchlists) throws IOException {
+        checkpoint(watchlists);
+    }
+
+    /**
+     * Appends one record per changed user and syncs the journal once for the whole batch.
+     */
+    @Override
+    public synchronized void saveUsers(Map<String, MovieIdSet> changed, Map<String, MovieIdSet> watchlists) throws IOException {
+        openJournal();
+        for (Map.Entry<String, MovieIdSet> entry : changed.entrySet()) {
+            journal.write(REPLACE + entry.getKey() + SEPARATOR + WatchListFileStore.formatIds(entry.getValue()) + '\n');
+        }
+        journal.flush();
+        journalOut.getFD().sync();
+        journalRecords += changed.size();
+        if (journalRecords >= checkpointInterval) {
+            checkpoint(watchlists);
+        }
+    }
+
+    /**
+     * Appends one record to the journal and takes a checkpoint once the journal holds enough records.
+     */
+    private void append(char operation, String username, int movieId, Map<String, MovieIdSet> watchlists) throws IOException {
+        openJournal();
+        journal.write(operation + username + SEPARATOR + movieId + '\n');
+        journal.flush();
+        if (++journalRecords >= checkpointInterval) {
+            checkpoint(watchlists);
+        }
+    }
+
+    private void openJournal() throws IOException {
+        if (journal == null) {
+            journalOut = new FileOutputStream(journalFile.toFile(), true);
+            journal = new BufferedWriter(new OutputStreamWriter(journalOut, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Closes the journal. It is opened again by the next change.
+     *
+     * @throws IOException if closing the journal fails.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+            journalOut = null;
+        }
+    }
+
+    /**
+     * Writes all watchlists to the checkpoint file and clears the journal.
+     */
+    private void checkpoint(Map<String, MovieIdSet> watchlists) throws IOException {
+        WatchListFileStore.write(checkpointFile, watchlists);
+        if (journal != null) {
+            journal.close();
+            journal = null;
+            journalOut = null;
+        }
+        Files.deleteIfExists(journalFile);
+        journalRecords = 0;
+    }
+}
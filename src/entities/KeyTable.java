@@ -0,0 +1,170 @@
+package entities;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash table from normalized keys, such as title or director keys, to values, used by the
+ * {@link MovieDatabaseSnapshot}. The slots are kept in chunks of at most {@link #CHUNK_SIZE}. A table is changed
+ * through an {@link #edit()} copy, which shares all chunks with the original and copies a chunk of slots the first
+ * time it changes it, so a change costs one chunk however many keys there are. Once {@link #freeze() frozen}, a table
+ * never changes and can be read by any number of threads.
+ *
+ * @param <V> The type of the values.
+ */
+final class KeyTable<V> {
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int INITIAL_SLOTS = 16;
+
+    // The key of each slot, null for a free slot
+    private String[][] keys;
+    private Object[][] values;
+    private int size;
+    // The chunks of slots this copy may change in place; null once frozen
+    private boolean[] copied;
+
+    private KeyTable(String[][] keys, Object[][] values, int size) {
+        this.keys = keys;
+        this.values = values;
+        this.size = size;
+    }
+
+    /**
+     * Creates an empty, frozen table.
+     */
+    static <V> KeyTable<V> empty() {
+        return new KeyTable<>(new String[1][INITIAL_SLOTS], new Object[1][INITIAL_SLOTS], 0);
+    }
+
+    /**
+     * Returns a changeable copy of this table, which shares all chunks of slots with it.
+     */
+    KeyTable<V> edit() {
+        KeyTable<V> copy = new KeyTable<>(keys.clone(), values.clone(), size);
+        copy.copied = new boolean[keys.length];
+        return copy;
+    }
+
+    /**
+     * Makes this table immutable, so it can be handed to other threads.
+     */
+    KeyTable<V> freeze() {
+        copied = null;
+        return this;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the value of a key, or null if the table does not have the key.
+     */
+    @SuppressWarnings("unchecked")
+    V get(String key) {
+        int slot = slotOf(key);
+        return slot < 0 ? null : (V) values[slot >>> CHUNK_BITS][slot & CHUNK_MASK];
+    }
+
+    /**
+     * Sets the value of a key, adding the key if the table does not have it.
+     */
+    void put(String key, V value) {
+        int mask = slotCount() - 1;
+        int slot = hash(key) & mask;
+        while (keyAt(slot) != null && !keyAt(slot).equals(key)) {
+            slot = (slot + 1) & mask;
+        }
+        if (keyAt(slot) == null) {
+            size++;
+        }
+        set(slot, key, value);
+        if (size * 2 > slotCount()) {
+            rehash(slotCount() * 2);
+        }
+    }
+
+    /**
+     * Removes a key, moving later entries of its probe sequence back so no lookup misses them.
+     */
+    void remove(String key) {
+        int free = slotOf(key);
+        if (free < 0) {
+            return;
+        }
+        int mask = slotCount() - 1;
+        for (int next = (free + 1) & mask; keyAt(next) != null; next = (next + 1) & mask) {
+            int home = hash(keyAt(next)) & mask;
+            // Move the entry back unless its home lies cyclically between the free slot and its current slot
+            boolean between = free <= next ? free < home && home <= next : free < home || home <= next;
+            if (!between) {
+                set(free, keyAt(next), values[next >>> CHUNK_BITS][next & CHUNK_MASK]);
+                free = next;
+            }
+        }
+        set(free, null, null);
+        size--;
+    }
+
+    private int slotOf(String key) {
+        int mask = slotCount() - 1;
+        for (int slot = hash(key) & mask; keyAt(slot) != null; slot = (slot + 1) & mask) {
+            if (keyAt(slot).equals(key)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private String keyAt(int slot) {
+        return keys[slot >>> CHUNK_BITS][slot & CHUNK_MASK];
+    }
+
+    private int slotCount() {
+        return keys.length == 1 ? keys[0].length : keys.length << CHUNK_BITS;
+    }
+
+    private void set(int slot, String key, Object value) {
+        if (copied == null) {
+            throw new UnsupportedOperationException("The table is frozen, change an edit() copy instead");
+        }
+        int index = slot >>> CHUNK_BITS;
+        if (!copied[index]) {
+            keys[index] = keys[index].clone();
+            values[index] = values[index].clone();
+            copied[index] = true;
+        }
+        keys[index][slot & CHUNK_MASK] = key;
+        values[index][slot & CHUNK_MASK] = value;
+    }
+
+    private void rehash(int slotCount) {
+        String[][] oldKeys = keys;
+        Object[][] oldValues = values;
+        int chunkLength = Math.min(slotCount, CHUNK_SIZE);
+        keys = new String[slotCount / chunkLength][chunkLength];
+        values = new Object[keys.length][chunkLength];
+        copied = new boolean[keys.length];
+        Arrays.fill(copied, true);
+        int mask = slotCount - 1;
+        for (int index = 0; index < oldKeys.length; index++) {
+            for (int offset = 0; offset < oldKeys[index].length; offset++) {
+                String key = oldKeys[index][offset];
+                if (key != null) {
+                    int slot = hash(key) & mask;
+                    while (keyAt(slot) != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot >>> CHUNK_BITS][slot & CHUNK_MASK] = key;
+                    values[slot >>> CHUNK_BITS][slot & CHUNK_MASK] = oldValues[index][offset];
+                }
+            }
+        }
+    }
+
+    private static int hash(String key) {
+        int hash = key.hashCode() * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,659 @@
+package entities;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.function.Predicate;
+
+/**
+ * A read-only movie catalog that stays in a memory-mapped file instead of on the heap, for catalogs larger than the
+ * heap. The operating system pages the file in and out as it is read, so the heap used does not grow with the catalog:
+ * only the file offsets of the distinct director names are kept in memory, and Movie objects are decoded from the file
+ * when a query returns them. It answers the {@link MovieCatalog} queries like {@link MovieDatabase}; the movies
+ * returned are new views, changing them does not change the catalog.
+ * <p>
+ * The file is written once by {@link #write(Path, Iterable, long[])} and holds, after a header that also keeps the
+ * stamp of the source the movies were read from:
+ * <ul>
+ *     <li>a string area of UTF-8 strings, each preceded by its int byte length, with every director name stored once,</li>
+ *     <li>a fixed-width record of {@value #RECORD_BYTES} bytes per movie holding its id, release year, running time,
+ *     the hash of its title key and the offsets of its title and director in the string area,</li>
+ *     <li>an open-addressing table from id to record and one from title key to record,</li>
+ *     <li>the offsets of the distinct director names.</li>
+ * </ul>
+ * All methods may be called from several threads at once.
+ */
+public class MappedMovieDatabase implements MovieCatalog, Closeable {
+    private static final int MAGIC = 0x4D4F4442; // "MODB"
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 96;
+    // The source stamp follows the fixed header fields
+    private static final int SOURCE_STAMP = 64;
+    /**
+     * The number of longs of a source stamp.
+     */
+    public static final int SOURCE_STAMP_LONGS = 3;
+
+    // Field offsets within a record
+    private static final int ID = 0;
+    private static final int RELEASE_YEAR = 4;
+    private static final int RUNNING_TIME = 8;
+    private static final int TITLE_HASH = 12;
+    private static final int TITLE = 16;
+    private static final int DIRECTOR = 24;
+    private static final int RECORD_BYTES = 32;
+
+    // A table slot holds a key (the id or the title hash) and the record number + 1, 0 marks an empty slot
+    private static final int SLOT_BYTES = 8;
+    private static final long NO_STRING = -1;
+    private static final int NO_RECORD = -1;
+
+    private final FileChannel channel;
+    private final MappedSegments file;
+    private final int recordCount;
+    private final int size;
+    private final int tableSlots;
+    private final long recordsOffset;
+    private final long idTableOffset;
+    private final long titleTableOffset;
+    // The offsets of the distinct director names in the string area
+    private final long[] directorOffsets;
+
+    private MappedMovieDatabase(FileChannel channel, MappedSegments file, ByteBuffer header) {
+        this.channel = channel;
+        this.file = file;
+        recordCount = header.getInt(8);
+        size = header.getInt(12);
+        tableSlots = header.getInt(16);
+        int directorCount = header.getInt(20);
+        recordsOffset = header.getLong(24);
+        idTableOffset = header.getLong(32);
+        titleTableOffset = header.getLong(40);
+        long directorsOffset = header.getLong(48);
+        directorOffsets = new long[directorCount];
+        for (int i = 0; i < directorCount; i++) {
+            directorOffsets[i] = file.getLong(directorsOffset + (long) i * Long.BYTES);
+        }
+    }
+
+    /**
+     * Opens a catalog file written by {@link #write(Path, Iterable, long[])}.
+     *
+     * @param path The catalog file.
+     * @return The catalog, which must be closed after use.
+     * @throws IOException if the file cannot be read or is not a valid catalog file.
+     */
+    public static MappedMovieDatabase open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = readHeader(channel, path);
+            MappedSegments file = new MappedSegments(channel, FileChannel.MapMode.READ_ONLY, channel.size());
+            return new MappedMovieDatabase(channel, file, header);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the source stamp a catalog file was written with, so a caller can tell whether the file was built from
+     * the current version of its source without opening it.
+     *
+     * @param path The catalog file.
+     * @return A new array of the {@value #SOURCE_STAMP_LONGS} longs of the stamp, zeros if the file was written
+     * without one, or null if the file is missing or is not a valid catalog file of this version.
+     */
+    public static long[] readSourceStamp(Path path) {
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = readHeader(channel, path);
+            long[] stamp = new long[SOURCE_STAMP_LONGS];
+            header.position(SOURCE_STAMP).asLongBuffer().get(stamp);
+            return stamp;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads and checks the header of a catalog file.
+     */
+    private static ByteBuffer readHeader(FileChannel channel, Path path) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+            // Read the whole header
+        }
+        if (header.hasRemaining() || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            throw new IOException(path + " is not a movie catalog of version " + VERSION);
+        }
+        if (header.getLong(56) != channel.size()) {
+            throw new IOException("Movie catalog " + path + " is truncated or corrupt");
+        }
+        return header;
+    }
+
+    /**
+     * Writes a catalog file without a source stamp, like {@link #write(Path, Iterable, long[])}.
+     *
+     * @param path The catalog file.
+     * @param movies The movies, in insertion order.
+     * @throws IOException if the file cannot be written.
+     * @throws IllegalArgumentException if a movie has no title.
+     */
+    public static void write(Path path, Iterable<Movie> movies) throws IOException {
+        write(path, movies, new long[SOURCE_STAMP_LONGS]);
+    }
+
+    /**
+     * Writes a catalog file. The movies are streamed to the disk, so they do not have to fit into the heap at once.
+     * Of several movies with the same title the first one is kept, and a movie without an id, or with an id an earlier
+     * movie already has, is given an id above all others, like in {@link MovieDatabase}; the Movie objects themselves
+     * are not changed. The file is written to a temporary file first and then moved into place.
+     *
+     * @param path The catalog file.
+     * @param movies The movies, in insertion order.
+     * @param sourceStamp The {@value #SOURCE_STAMP_LONGS} longs identifying the version of the file the movies were
+     *                    read from, for example its size, modification time and checksum, returned by
+     *                    {@link #readSourceStamp(Path)}.
+     * @throws IOException if the file cannot be written.
+     * @throws IllegalArgumentException if a movie has no title or the stamp does not have
+     *                                  {@value #SOURCE_STAMP_LONGS} longs.
+     */
+    public static void write(Path path, Iterable<Movie> movies, long[] sourceStamp) throws IOException {
+        if (sourceStamp.length != SOURCE_STAMP_LONGS) {
+            throw new IllegalArgumentException("A source stamp has " + SOURCE_STAMP_LONGS + " longs, not "
+                    + sourceStamp.length);
+        }
+        Path tempFile = path.resolveSibling(path.getFileName() + ".tmp");
+        Path recordsFile = path.resolveSibling(path.getFileName() + ".records.tmp");
+        try {
+            // The strings go to the catalog file right away, the records to a second file appended after them
+            DirectorDictionary directors = new DirectorDictionary();
+            long[] directorOffsets = new long[16];
+            int directorCount = 0;
+            int recordCount = 0;
+            int maxId = Movie.NO_ID;
+            long position = HEADER_BYTES;
+            try (DataOutputStream strings = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile), 1 << 16));
+                 DataOutputStream records = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(recordsFile), 1 << 16))) {
+                strings.write(new byte[HEADER_BYTES]);
+                for (Movie movie : movies) {
+                    if (movie.getTitle() == null) {
+                        throw new IllegalArgumentException("Movie title must not be null");
+                    }
+                    long titleOffset = position;
+                    position += writeString(strings, movie.getTitle());
+                    long directorOffset = NO_STRING;
+                    if (movie.getDirector() != null) {
+                        int code = directors.encode(movie.getDirector());
+                        if (code == directorCount) {
+                            // A new director, written once for all its movies
+                            if (code == directorOffsets.length) {
+                                directorOffsets = Arrays.copyOf(directorOffsets, code * 2);
+                            }
+                            directorOffsets[directorCount++] = position;
+                            position += writeString(strings, movie.getDirector());
+                        }
+                        directorOffset = directorOffsets[code];
+                    }
+                    records.writeInt(movie.getId());
+                    records.writeInt(movie.getReleaseYear());
+                    records.writeInt(movie.getRunningTime());
+                    records.writeInt(MovieDatabase.titleKey(movie.getTitle()).hashCode());
+                    records.writeLong(titleOffset);
+                    records.writeLong(directorOffset);
+                    recordCount++;
+                    maxId = Math.max(maxId, movie.getId());
+                }
+                // Keeps the records and tables aligned, so their fields never cross the end of a mapped segment
+                for (; position % Long.BYTES != 0; position++) {
+                    strings.write(0);
+                }
+            }
+
+            int slots = Math.max(16, Integer.highestOneBit(Math.max(1, recordCount)) * 4);
+            long recordsOffset = position;
+            long idTableOffset = recordsOffset + (long) recordCount * RECORD_BYTES;
+            long titleTableOffset = idTableOffset + (long) slots * SLOT_BYTES;
+            long directorsOffset = titleTableOffset + (long) slots * SLOT_BYTES;
+            long fileSize = directorsOffset + (long) directorCount * Long.BYTES;
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                 FileChannel recordsChannel = FileChannel.open(recordsFile, StandardOpenOption.READ)) {
+                channel.position(recordsOffset);
+                for (long copied = 0; copied < recordsChannel.size(); ) {
+                    copied += recordsChannel.transferTo(copied, recordsChannel.size() - copied, channel);
+                }
+                // The tables start out as zeros, which are empty slots
+                writeFully(channel, ByteBuffer.allocate(1), fileSize - 1);
+                ByteBuffer offsets = ByteBuffer.allocate(directorCount * Long.BYTES);
+                offsets.asLongBuffer().put(directorOffsets, 0, directorCount);
+                writeFully(channel, offsets, directorsOffset);
+
+                MappedSegments file = new MappedSegments(channel, FileChannel.MapMode.READ_WRITE, fileSize);
+                int size = buildTables(file, recordCount, slots, recordsOffset, idTableOffset, titleTableOffset, maxId);
+                file.force();
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                header.putInt(MAGIC).putInt(VERSION).putInt(recordCount).putInt(size).putInt(slots).putInt(directorCount)
+                        .putLong(recordsOffset).putLong(idTableOffset).putLong(titleTableOffset).putLong(directorsOffset)
+                        .putLong(fileSize);
+                header.asLongBuffer().put(sourceStamp);
+                header.position(HEADER_BYTES).flip();
+                writeFully(channel, header, 0);
+                channel.force(true);
+            }
+            Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(recordsFile);
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Fills the id and title tables of a new catalog file, dropping records with a title an earlier record has and
+     * giving records without a free id a new one.
+     *
+     * @return The number of records kept.
+     */
+    private static int buildTables(MappedSegments file, int recordCount, int slots, long recordsOffset,
+                                   long idTableOffset, long titleTableOffset, int maxId) {
+        int size = 0;
+        int nextId = maxId + 1;
+        for (int record = 0; record < recordCount; record++) {
+            long at = recordsOffset + (long) record * RECORD_BYTES;
+            int hash = file.getInt(at + TITLE_HASH);
+            String key = MovieDatabase.titleKey(readString(file, file.getLong(at + TITLE)));
+            long titleSlot = titleTableOffset + (long) findTitleSlot(file, titleTableOffset, slots, recordsOffset, key, hash) * SLOT_BYTES;
+            if (file.getInt(titleSlot + 4) != 0) {
+                // The title is taken, the first movie with it is kept
+                file.putInt(at + ID, Movie.NO_ID);
+                continue;
+            }
+            file.putInt(titleSlot, hash);
+            file.putInt(titleSlot + 4, record + 1);
+
+            int id = file.getInt(at + ID);
+            long idSlot = idTableOffset + (long) findIdSlot(file, idTableOffset, slots, id) * SLOT_BYTES;
+            if (id <= Movie.NO_ID || file.getInt(idSlot + 4) != 0) {
+                id = nextId++;
+                file.putInt(at + ID, id);
+                idSlot = idTableOffset + (long) findIdSlot(file, idTableOffset, slots, id) * SLOT_BYTES;
+            }
+            file.putInt(idSlot, id);
+            file.putInt(idSlot + 4, record + 1);
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of movies in the catalog.
+     *
+     * @return The number of movies.
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Retrieves a movie from the catalog based on its id.
+     *
+     * @param id The id of the movie to be retrieved.
+     * @return An Optional containing a view of the Movie if found, or an empty Optional.
+     */
+    @Override
+    public Optional<Movie> getMovieById(int id) {
+        if (id <= Movie.NO_ID) {
+            return Optional.empty();
+        }
+        long slot = idTableOffset + (long) findIdSlot(file, idTableOffset, tableSlots, id) * SLOT_BYTES;
+        int record = file.getInt(slot + 4) - 1;
+        return record == NO_RECORD ? Optional.empty() : Optional.of(movieAt(record));
+    }
+
+    /**
+     * Retrieves a movie from the catalog based on its title, ignoring case and surrounding whitespace.
+     *
+     * @param title The title of the movie to be retrieved.
+     * @return An Optional containing a view of the Movie if found, or an empty Optional.
+     */
+    @Override
+    public Optional<Movie> getMovie(String title) {
+        if (title == null) {
+            return Optional.empty();
+        }
+        String key = MovieDatabase.titleKey(title);
+        long slot = titleTableOffset
+                + (long) findTitleSlot(file, titleTableOffset, tableSlots, recordsOffset, key, key.hashCode()) * SLOT_BYTES;
+        int record = file.getInt(slot + 4) - 1;
+        return record == NO_RECORD ? Optional.empty() : Optional.of(movieAt(record));
+    }
+
+    /**
+     * Retrieves the ids of all movies in the catalog.
+     *
+     * @return A new array of the ids of all movies, in insertion order.
+     */
+    @Override
+    public int[] getAllMovieIds() {
+        int[] ids = new int[size];
+        int count = 0;
+        for (int record = 0; record < recordCount; record++) {
+            int id = file.getInt(recordAt(record) + ID);
+            if (id != Movie.NO_ID) {
+                ids[count++] = id;
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Finds the movies within a range of release years and a range of running times, all bounds inclusive.
+     * Only the fixed-width records are read, no Movie is created.
+     *
+     * @param fromYear The first release year.
+     * @param toYear The last release year.
+     * @param minMinutes The shortest running time, in minutes.
+     * @param maxMinutes The longest running time, in minutes.
+     * @return A new array of the ids of the matching movies, in insertion order.
+     */
+    public int[] findMovieIds(int fromYear, int toYear, int minMinutes, int maxMinutes) {
+        int[] found = new int[16];
+        int count = 0;
+        for (int record = 0; record < recordCount; record++) {
+            long at = recordAt(record);
+            int id = file.getInt(at + ID);
+            int year = file.getInt(at + RELEASE_YEAR);
+            int minutes = file.getInt(at + RUNNING_TIME);
+            if (id != Movie.NO_ID && year >= fromYear && year <= toYear && minutes >= minMinutes && minutes <= maxMinutes) {
+                if (count == found.length) {
+                    found = Arrays.copyOf(found, count * 2);
+                }
+                found[count++] = id;
+            }
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    /**
+     * Retrieves all movies released between two years, both inclusive.
+     *
+     * @param fromYear The first release year of the range.
+     * @param toYear The last release year of the range.
+     * @return An unmodifiable List of the matching movies, ordered by release year.
+     */
+    @Override
+    public List<Movie> getMoviesByYearRange(int fromYear, int toYear) {
+        return moviesOrderedBy(RELEASE_YEAR, fromYear, toYear);
+    }
+
+    /**
+     * Retrieves all movies whose running time lies between two values, both inclusive.
+     *
+     * @param minMinutes The shortest running time of the range, in minutes.
+     * @param maxMinutes The longest running time of the range, in minutes.
+     * @return An unmodifiable List of the matching movies, ordered by running time.
+     */
+    @Override
+    public List<Movie> getMoviesByRunningTimeRange(int minMinutes, int maxMinutes) {
+        return moviesOrderedBy(RUNNING_TIME, minMinutes, maxMinutes);
+    }
+
+    /**
+     * Retrieves all movies by the given director, comparing names ignoring case and surrounding whitespace.
+     * Each director name is stored once, so the records are matched by comparing the offset of their director.
+     *
+     * @param director The name of the director.
+     * @return An unmodifiable List of the director's movies, in insertion order.
+     */
+    @Override
+    public List<Movie> getMoviesByDirector(String director) {
+        String key = MovieDatabase.directorKey(director);
+        long[] matching = matchingDirectors(name -> MovieDatabase.directorKey(name).equals(key));
+        boolean withoutDirector = key.isEmpty();
+        List<Movie> result = new ArrayList<>();
+        for (int record = 0; record < recordCount; record++) {
+            long at = recordAt(record);
+            long offset = file.getLong(at + DIRECTOR);
+            if ((offset == NO_STRING ? withoutDirector : Arrays.binarySearch(matching, offset) >= 0)
+                    && file.getInt(at + ID) != Movie.NO_ID) {
+                result.add(movieAt(record));
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Searches for movies whose title or director contains the given text, ignoring case.
+     * Each director name is checked once; titles are compared on their bytes without decoding them, unless the text
+     * has characters outside of ASCII.
+     *
+     * @param text The text to search for, may be null.
+     * @return A List of the matching movies, in insertion order; empty for null.
+     */
+    @Override
+    public List<Movie> searchMovies(String text) {
+        if (text == null) {
+            return new ArrayList<>();
+        }
+        String query = text.toLowerCase(Locale.ROOT);
+        long[] matching = matchingDirectors(name -> name.toLowerCase(Locale.ROOT).contains(query));
+        byte[] asciiQuery = query.chars().allMatch(c -> c < 0x80) ? query.getBytes(StandardCharsets.US_ASCII) : null;
+        byte[] title = new byte[256];
+        List<Movie> result = new ArrayList<>();
+        for (int record = 0; record < recordCount; record++) {
+            long at = recordAt(record);
+            if (file.getInt(at + ID) == Movie.NO_ID) {
+                continue;
+            }
+            boolean matches = Arrays.binarySearch(matching, file.getLong(at + DIRECTOR)) >= 0;
+            if (!matches) {
+                long titleOffset = file.getLong(at + TITLE);
+                if (asciiQuery == null) {
+                    matches = readString(file, titleOffset).toLowerCase(Locale.ROOT).contains(query);
+                } else {
+                    int length = file.getInt(titleOffset);
+                    if (length > title.length) {
+                        title = new byte[Math.max(length, title.length * 2)];
+                    }
+                    file.getBytes(titleOffset + Integer.BYTES, title, length);
+                    matches = containsAsciiIgnoreCase(title, length, asciiQuery);
+                }
+            }
+            if (matches) {
+                result.add(movieAt(record));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Sorts movie ids by one key, in the same order as
+     * {@link MovieDatabase#sortMovieIds(int[], MovieSortKey, boolean)}. The catalog keeps no sort orders, so the
+     * movies of the ids are decoded and compared.
+     *
+     * @param movieIds The ids to sort. Ids of movies that are not in the catalog and duplicates are left out.
+     * @param key The key to sort by.
+     * @param ascending true for ascending order, false for descending order.
+     * @return A new array of the sorted ids.
+     */
+    @Override
+    public int[] sortMovieIds(int[] movieIds, MovieSortKey key, boolean ascending) {
+        MovieIdSet seen = new MovieIdSet();
+        List<Movie> movies = new ArrayList<>(movieIds.length);
+        for (int id : movieIds) {
+            if (id > Movie.NO_ID && seen.add(id)) {
+                getMovieById(id).ifPresent(movies::add);
+            }
+        }
+        movies.sort(ascending ? key.comparator() : key.comparator().reversed());
+        int[] sorted = new int[movies.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = movies.get(i).getId();
+        }
+        return sorted;
+    }
+
+    /**
+     * Releases the file. The catalog must not be used afterwards.
+     *
+     * @throws IOException if the file cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Returns the sorted offsets of the director names that pass a test.
+     */
+    private long[] matchingDirectors(Predicate<String> test) {
+        long[] matching = new long[directorOffsets.length];
+        int count = 0;
+        for (long offset : directorOffsets) {
+            if (test.test(readString(file, offset))) {
+                matching[count++] = offset;
+            }
+        }
+        // The names were written in order, so their offsets are ascending
+        return Arrays.copyOf(matching, count);
+    }
+
+    /**
+     * Collects the movies whose value in an int field lies in a range, ordered by that value and then by record.
+     */
+    private List<Movie> moviesOrderedBy(int field, int from, int to) {
+        long[] matches = new long[16];
+        int count = 0;
+        for (int record = 0; record < recordCount; record++) {
+            long at = recordAt(record);
+            int value = file.getInt(at + field);
+            if (value >= from && value <= to && file.getInt(at + ID) != Movie.NO_ID) {
+                if (count == matches.length) {
+                    matches = Arrays.copyOf(matches, count * 2);
+                }
+                matches[count++] = (long) value << 32 | record;
+            }
+        }
+        Arrays.sort(matches, 0, count);
+        List<Movie> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(movieAt((int) matches[i]));
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    private long recordAt(int record) {
+        return recordsOffset + (long) record * RECORD_BYTES;
+    }
+
+    /**
+     * Decodes a record into a new Movie.
+     */
+    private Movie movieAt(int record) {
+        long at = recordAt(record);
+        long directorOffset = file.getLong(at + DIRECTOR);
+        return new Movie(file.getInt(at + ID), readString(file, file.getLong(at + TITLE)),
+                directorOffset == NO_STRING ? null : readString(file, directorOffset),
+                file.getInt(at + RELEASE_YEAR), file.getInt(at + RUNNING_TIME));
+    }
+
+    /**
+     * Returns the slot of the title table holding a title key, or the empty slot where it would go.
+     */
+    private static int findTitleSlot(MappedSegments file, long tableOffset, int slots, long recordsOffset, String key, int hash) {
+        int mask = slots - 1;
+        for (int slot = spread(hash) & mask; ; slot = (slot + 1) & mask) {
+            long at = tableOffset + (long) slot * SLOT_BYTES;
+            int record = file.getInt(at + 4) - 1;
+            if (record == NO_RECORD) {
+                return slot;
+            }
+            if (file.getInt(at) == hash) {
+                long titleOffset = file.getLong(recordsOffset + (long) record * RECORD_BYTES + TITLE);
+                if (MovieDatabase.titleKey(readString(file, titleOffset)).equals(key)) {
+                    return slot;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the slot of the id table holding an id, or the empty slot where it would go.
+     */
+    private static int findIdSlot(MappedSegments file, long tableOffset, int slots, int id) {
+        int mask = slots - 1;
+        for (int slot = spread(id * 0x9E3779B9) & mask; ; slot = (slot + 1) & mask) {
+            long at = tableOffset + (long) slot * SLOT_BYTES;
+            if (file.getInt(at + 4) == 0 || file.getInt(at) == id) {
+                return slot;
+            }
+        }
+    }
+
+    private static String readString(MappedSegments file, long offset) {
+        byte[] bytes = new byte[file.getInt(offset)];
+        file.getBytes(offset + Integer.BYTES, bytes, bytes.length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a string as its int byte length and its UTF-8 bytes.
+     *
+     * @return The number of bytes written.
+     */
+    private static int writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        return Integer.BYTES + bytes.length;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Case-insensitive substring check of a lower-case ASCII query in UTF-8 bytes. Bytes of other characters are
+     * never ASCII in UTF-8, so they cannot produce false matches.
+     */
+    private static boolean containsAsciiIgnoreCase(byte[] text, int length, byte[] query) {
+        outer:
+        for (int start = 0; start + query.length <= length; start++) {
+            for (int i = 0; i < query.length; i++) {
+                byte b = text[start + i];
+                if (b >= 'A' && b <= 'Z') {
+                    b += 'a' - 'A';
+                }
+                if (b != query[i]) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,107 @@
+package entities;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A file mapped into memory in segments of 1 GB, so files larger than 2 GB can be addressed with long positions.
+ * Values are read and written with absolute positions only, so several threads may read at the same time.
+ * Values that cross the end of a segment are assembled byte by byte, in big-endian order like the segments.
+ * Shared by the {@link MappedMovieDatabase} files and the parallel CSV loader, which maps the CSV file this way.
+ */
+public final class MappedSegments {
+    private static final int SEGMENT_BITS = 30;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+
+    private final MappedByteBuffer[] segments;
+
+    /**
+     * Maps the first bytes of a file.
+     *
+     * @param channel The open file.
+     * @param mode READ_ONLY or READ_WRITE.
+     * @param size The number of bytes to map.
+     * @throws IOException if the file cannot be mapped.
+     */
+    public MappedSegments(FileChannel channel, FileChannel.MapMode mode, long size) throws IOException {
+        segments = new MappedByteBuffer[(int) ((size + SEGMENT_MASK) >>> SEGMENT_BITS)];
+        for (int i = 0; i < segments.length; i++) {
+            long start = (long) i << SEGMENT_BITS;
+            segments[i] = channel.map(mode, start, Math.min(size - start, 1L << SEGMENT_BITS));
+        }
+    }
+
+    /**
+     * Returns the byte at a position.
+     */
+    public byte get(long position) {
+        return segments[(int) (position >>> SEGMENT_BITS)].get((int) (position & SEGMENT_MASK));
+    }
+
+    /**
+     * Returns the big-endian int at a position.
+     */
+    public int getInt(long position) {
+        MappedByteBuffer segment = segments[(int) (position >>> SEGMENT_BITS)];
+        int offset = (int) (position & SEGMENT_MASK);
+        if (offset + Integer.BYTES <= segment.limit()) {
+            return segment.getInt(offset);
+        }
+        int value = 0;
+        for (int i = 0; i < Integer.BYTES; i++) {
+            value = value << 8 | get(position + i) & 0xFF;
+        }
+        return value;
+    }
+
+    /**
+     * Returns the big-endian long at a position.
+     */
+    public long getLong(long position) {
+        MappedByteBuffer segment = segments[(int) (position >>> SEGMENT_BITS)];
+        int offset = (int) (position & SEGMENT_MASK);
+        if (offset + Long.BYTES <= segment.limit()) {
+            return segment.getLong(offset);
+        }
+        return (long) getInt(position) << 32 | getInt(position + Integer.BYTES) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Copies bytes starting at a position to the front of an array.
+     */
+    public void getBytes(long position, byte[] target, int length) {
+        for (int copied = 0; copied < length; ) {
+            MappedByteBuffer segment = segments[(int) ((position + copied) >>> SEGMENT_BITS)];
+            int offset = (int) ((position + copied) & SEGMENT_MASK);
+            int count = Math.min(length - copied, segment.limit() - offset);
+            segment.get(offset, target, copied, count);
+            copied += count;
+        }
+    }
+
+    /**
+     * Writes a big-endian int at a position of a READ_WRITE mapping.
+     */
+    public void putInt(long position, int value) {
+        MappedByteBuffer segment = segments[(int) (position >>> SEGMENT_BITS)];
+        int offset = (int) (position & SEGMENT_MASK);
+        if (offset + Integer.BYTES <= segment.limit()) {
+            segment.putInt(offset, value);
+            return;
+        }
+        for (int i = 0; i < Integer.BYTES; i++) {
+            segments[(int) ((position + i) >>> SEGMENT_BITS)]
+                    .put((int) ((position + i) & SEGMENT_MASK), (byte) (value >>> 8 * (Integer.BYTES - 1 - i)));
+        }
+    }
+
+    /**
+     * Writes all changed pages of a READ_WRITE mapping to the disk.
+     */
+    public void force() {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+}
@@ -1,11 +1,17 @@
 package entities;
 
 /**
- * Represents a movie with details such as title, director, release year, and running time.
+ * Represents a movie with details such as its id, title, director, release year, and running time.
  * This class provides methods to access and modify movie properties.
  */
 
 public class Movie {
+    /**
+     * The id of a movie that has not been assigned one yet. Assigned ids are positive.
+     */
+    public static final int NO_ID = 0;
+
+    private int id;
     private String title;
     private String director;
     private int releaseYear;
@@ -21,13 +27,44 @@ public class Movie {
      */
 
     public Movie(String title, String director, int releaseYear, int runningTime) {
+        this(NO_ID, title, director, releaseYear, runningTime);
+    }
 
+    /**
+     * Constructs a new Movie object with a known id.
+     *
+     * @param id The stable id of the movie, or {@link #NO_ID} to let the {@link MovieDatabase} assign one.
+     * @param title The title of the movie.
+     * @param director The name of the movie's director.
+     * @param releaseYear The year in which the movie was released.
+     * @param runningTime The running time of the movie in minutes.
+     */
+    public Movie(int id, String title, String director, int releaseYear, int runningTime) {
+        this.id = id;
         this.title = title;
         this.director = director;
         this.releaseYear = releaseYear;
         this.runningTime = runningTime;
     }
 
+    /**
+     * Returns the id of the movie.
+     *
+     * @return The movie id, or {@link #NO_ID} if it has none yet.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Sets the id of the movie.
+     *
+     * @param id The id to set for the movie.
+     */
+    public void setId(int id) {
+        this.id = id;
+    }
+
     /**
      * Returns the title of the movie.
      *
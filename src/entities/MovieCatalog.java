@@ -0,0 +1,88 @@
+package entities;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * The queries every movie catalog answers, whether it keeps Movie objects on the heap ({@link MovieDatabase} and its
+ * {@link MovieDatabaseSnapshot}s), columns ({@link ColumnarMovieDatabase}) or a memory-mapped file
+ * ({@link MappedMovieDatabase}). Code that only reads movies can take a MovieCatalog and work with all of them.
+ * Titles and director names are compared ignoring case and surrounding whitespace, and movies with equal values are
+ * returned in insertion order.
+ */
+public interface MovieCatalog {
+
+    /**
+     * Returns the number of movies in the catalog.
+     *
+     * @return The number of movies.
+     */
+    int size();
+
+    /**
+     * Retrieves a movie based on its title.
+     *
+     * @param title The title of the movie, may be null.
+     * @return An Optional containing the Movie if the catalog has it, or an empty Optional.
+     */
+    Optional<Movie> getMovie(String title);
+
+    /**
+     * Retrieves a movie based on its id.
+     *
+     * @param id The id of the movie.
+     * @return An Optional containing the Movie if the catalog has it, or an empty Optional.
+     */
+    Optional<Movie> getMovieById(int id);
+
+    /**
+     * Retrieves the ids of all movies.
+     *
+     * @return A new array of the ids of all movies, in insertion order.
+     */
+    int[] getAllMovieIds();
+
+    /**
+     * Retrieves all movies released between two years, both inclusive.
+     *
+     * @param fromYear The first release year of the range.
+     * @param toYear The last release year of the range.
+     * @return An unmodifiable List of the matching movies, ordered by release year.
+     */
+    List<Movie> getMoviesByYearRange(int fromYear, int toYear);
+
+    /**
+     * Retrieves all movies whose running time lies between two values, both inclusive.
+     *
+     * @param minMinutes The shortest running time of the range, in minutes.
+     * @param maxMinutes The longest running time of the range, in minutes.
+     * @return An unmodifiable List of the matching movies, ordered by running time.
+     */
+    List<Movie> getMoviesByRunningTimeRange(int minMinutes, int maxMinutes);
+
+    /**
+     * Retrieves all movies by the given director.
+     *
+     * @param director The name of the director.
+     * @return An unmodifiable List of the director's movies, in insertion order.
+     */
+    List<Movie> getMoviesByDirector(String director);
+
+    /**
+     * Searches for movies whose title or director contains the given text, ignoring case.
+     *
+     * @param text The text to search for, may be null.
+     * @return A List of the matching movies, in insertion order; all movies for the empty text and none for null.
+     */
+    List<Movie> searchMovies(String text);
+
+    /**
+     * Sorts movie ids by one key. Movies with equal values are ordered by id.
+     *
+     * @param movieIds The ids to sort. Ids of movies that are not in the catalog and duplicates are left out.
+     * @param key The key to sort by.
+     * @param ascending true for ascending order, false for descending order.
+     * @return A new array of the sorted ids.
+     */
+    int[] sortMovieIds(int[] movieIds, MovieSortKey key, boolean ascending);
+}
@@ -0,0 +1,61 @@
+package entities;
+
+import java.util.List;
+
+/**
+ * A change of a MovieDatabase, as published to the subscribers of {@link MovieDatabase#changes()}.
+ * Movies added in one batch are published as a single INSERT holding all of them, so a view can apply the whole batch
+ * at once; every other change concerns one movie.
+ *
+ * @param type What happened to the movies.
+ * @param movies The movies that were inserted, the movie that was deleted, or the new state of an updated movie. An
+ *               updated movie keeps its id.
+ */
+public record MovieChange(Type type, List<Movie> movies) {
+    /**
+     * The kinds of changes.
+     */
+    public enum Type {
+        INSERT, UPDATE, DELETE
+    }
+
+    /**
+     * Constructs a MovieChange.
+     *
+     * @throws IllegalArgumentException if there are no movies, or several for an UPDATE or DELETE.
+     */
+    public MovieChange {
+        movies = List.copyOf(movies);
+        if (movies.isEmpty() || movies.size() > 1 && type != Type.INSERT) {
+            throw new IllegalArgumentException("A " + type + " needs exactly one movie, got " + movies.size());
+        }
+    }
+
+    /**
+     * Constructs a MovieChange of a single movie.
+     *
+     * @param type What happened to the movie.
+     * @param movie The changed movie.
+     */
+    public MovieChange(Type type, Movie movie) {
+        this(type, List.of(movie));
+    }
+
+    /**
+     * Returns the changed movie, the first one of a batch insert.
+     *
+     * @return The movie.
+     */
+    public Movie movie() {
+        return movies.get(0);
+    }
+
+    /**
+     * Returns the id of the changed movie, the first one of a batch insert.
+     *
+     * @return The movie id.
+     */
+    public int movieId() {
+        return movie().getId();
+    }
+}
@@ -1,36 +1,178 @@
 package entities;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
 
 /**
  * Represents a database for storing and managing a collection of Movie objects.
  * Provides methods for adding, removing, and retrieving movies.
+ * Movies are indexed by a normalized form of their title, so lookups, additions and removals run in constant time
+ * while the insertion order is preserved.
+ * Secondary indexes on release year, running time and director are kept up to date on every change,
+ * so range and director queries only touch the matching movies. Directors are indexed by their code in a
+ * {@link DirectorDictionary}: a director query is one dictionary lookup followed by the code's posting list.
+ * A trigram index over titles and directors answers substring searches without scanning the whole catalog.
+ * Every movie also has a stable integer id, which other databases use to refer to movies without holding their titles.
+ * For every {@link MovieSortKey} the ids of all movies are kept sorted, so a sorted view of the whole catalog or of a
+ * search result is a walk over a precomputed order instead of a sort. Pages of a sorted, filtered query are read from
+ * such an order as well, or, while the order is not built, picked with a heap bounded by the page end, so a screenful
+ * of the best matches never sorts the whole catalog.
+ * <p>
+ * All movies and indexes are kept in an immutable {@link MovieDatabaseSnapshot}, and every change publishes a new one
+ * that shares all unchanged parts with the previous one. Every query reads the current snapshot without a lock, so
+ * reads never wait for a writer, for example while a background import adds thousands of movies. Writers are
+ * synchronized with each other only. Changes are published as {@link MovieChange} events after the writer has
+ * released the lock, so views can apply them instead of reloading. The Movie objects handed out must not be changed
+ * while they are in the database.
  */
-public class MovieDatabase {
-    private List<Movie> movies;
+public class MovieDatabase implements MovieCatalog {
+    // Batches of more movies than this are added by sorting the orders again instead of inserting into them
+    private static final int SORT_ORDER_INSERT_LIMIT = 256;
+
+    // Guarded by this; the ids of other movies are kept
+    private int nextId = 1;
+    private final SubmissionPublisher<MovieChange> changes = new SubmissionPublisher<>();
+    // Changes queued by writers in the order of their snapshots, handed to the publisher outside the lock
+    private final Queue<MovieChange> pendingChanges = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean publishing = new AtomicBoolean();
+    // Replaced by writers while holding the lock, read without it
+    private final AtomicReference<MovieDatabaseSnapshot> snapshot =
+            new AtomicReference<>(MovieDatabaseSnapshot.empty());
 
     /**
      * Constructs an empty MovieDatabase.
      */
     public MovieDatabase() {
-        movies = new ArrayList<>();
+    }
+
+    /**
+     * Returns the key under which a title is indexed.
+     * Titles are compared ignoring surrounding whitespace and letter case, so "The Matrix" and " the matrix"
+     * refer to the same movie.
+     *
+     * @param title The title to normalize.
+     * @return The normalized title key.
+     */
+    public static String titleKey(String title) {
+        return title.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Returns the key under which a director is indexed, ignoring surrounding whitespace and letter case.
+     *
+     * @param director The director name to normalize, may be null.
+     * @return The normalized director key.
+     */
+    static String directorKey(String director) {
+        return director == null ? "" : director.trim().toLowerCase(Locale.ROOT);
     }
 
     /**
      * Adds a new movie to the database.
      * A movie is added only if there is no other movie with the same title already in the database.
+     * A movie without an id, or with an id another movie already has, is assigned the next free id.
      *
      * @param movie The Movie object to be added.
      * @return true if the movie was successfully added, false if a movie with the same title already exists.
+     * @throws IllegalArgumentException if the movie has no title.
      */
     public boolean addMovie(Movie movie) {
-        if (movies.stream().noneMatch(m -> m.getTitle().equals(movie.getTitle()))) {
-            movies.add(movie);
-            return true;
+        synchronized (this) {
+            MovieDatabaseSnapshot.Editor editor = snapshot.get().edit();
+            if (!insert(editor, movie)) {
+                return false;
+            }
+            publish(editor, new MovieChange(MovieChange.Type.INSERT, movie));
         }
-        return false;
+        deliverChanges();
+        return true;
+    }
+
+    /**
+     * Adds a movie to the next snapshot, assigning it an id if needed.
+     */
+    private boolean insert(MovieDatabaseSnapshot.Editor editor, Movie movie) {
+        if (movie.getTitle() == null) {
+            throw new IllegalArgumentException("Movie title must not be null");
+        }
+        if (editor.movieByTitle(titleKey(movie.getTitle())) != null) {
+            return false;
+        }
+        if (movie.getId() <= Movie.NO_ID || editor.movieById(movie.getId()) != null) {
+            movie.setId(nextId);
+        }
+        nextId = Math.max(nextId, movie.getId() + 1);
+        editor.add(movie);
+        return true;
+    }
+
+    /**
+     * Replaces a movie with a new version of it, for example with a corrected running time.
+     * The new version takes the place of the movie with the same id. It keeps its position in the insertion order
+     * unless its title changed, in which case it moves to the end.
+     *
+     * @param movie The new version of the movie, a new object with the id of the movie to replace. The movie in the
+     *              database itself must not be changed.
+     * @return true if the movie was replaced, false if no movie has its id or another movie already has its title.
+     * @throws IllegalArgumentException if the movie has no title.
+     */
+    public boolean updateMovie(Movie movie) {
+        if (movie.getTitle() == null) {
+            throw new IllegalArgumentException("Movie title must not be null");
+        }
+        synchronized (this) {
+            MovieDatabaseSnapshot.Editor editor = snapshot.get().edit();
+            Movie previous = editor.movieById(movie.getId());
+            Movie sameTitle = editor.movieByTitle(titleKey(movie.getTitle()));
+            if (previous == null || sameTitle != null && sameTitle != previous) {
+                return false;
+            }
+            editor.replace(previous, movie);
+            publish(editor, new MovieChange(MovieChange.Type.UPDATE, movie));
+        }
+        deliverChanges();
+        return true;
+    }
+
+    /**
+     * Adds many movies to the database at once, for example the result of loading a file.
+     * Duplicates are resolved in a single pass: of several movies with the same title, the first one is kept,
+     * just as if the movies were added one by one in the given order.
+     * A single snapshot is published for the whole batch, followed by a single change event holding all added movies.
+     *
+     * @param newMovies The movies to add, in insertion order.
+     * @return The number of movies that were added.
+     */
+    public int addAllMovies(Collection<Movie> newMovies) {
+        List<Movie> added = new ArrayList<>();
+        synchronized (this) {
+            MovieDatabaseSnapshot.Editor editor = snapshot.get().edit();
+            if (newMovies.size() > SORT_ORDER_INSERT_LIMIT) {
+                // Sorting everything again on next use is cheaper than inserting this many movies one by one
+                editor.dropSortOrders();
+            }
+            for (Movie movie : newMovies) {
+                if (insert(editor, movie)) {
+                    added.add(movie);
+                }
+            }
+            if (added.isEmpty()) {
+                return 0;
+            }
+            publish(editor, new MovieChange(MovieChange.Type.INSERT, added));
+        }
+        deliverChanges();
+        return added.size();
     }
 
     /**
@@ -40,7 +182,69 @@ public class MovieDatabase {
      * @return true if the movie was successfully removed, false if no movie with the given title was found.
      */
     public boolean removeMovie(String title) {
-        return movies.removeIf(m -> m.getTitle().equals(title));
+        if (title == null) {
+            return false;
+        }
+        synchronized (this) {
+            MovieDatabaseSnapshot.Editor editor = snapshot.get().edit();
+            Movie removed = editor.movieByTitle(titleKey(title));
+            if (removed == null) {
+                return false;
+            }
+            editor.remove(removed);
+            publish(editor, new MovieChange(MovieChange.Type.DELETE, removed));
+        }
+        deliverChanges();
+        return true;
+    }
+
+    /**
+     * Publishes the next snapshot and queues its change. The caller holds the lock, so changes are queued in the order
+     * of their snapshots.
+     */
+    private void publish(MovieDatabaseSnapshot.Editor editor, MovieChange change) {
+        snapshot.set(editor.build());
+        pendingChanges.add(change);
+    }
+
+    /**
+     * Hands the queued changes to the publisher, after the caller released the lock. Only one writer at a time does
+     * so, in queue order; a writer that finds another one busy leaves its change to it.
+     */
+    private void deliverChanges() {
+        while (!pendingChanges.isEmpty() && publishing.compareAndSet(false, true)) {
+            try {
+                MovieChange change;
+                while ((change = pendingChanges.poll()) != null) {
+                    changes.submit(change);
+                }
+            } finally {
+                publishing.set(false);
+            }
+        }
+    }
+
+    /**
+     * Returns the stream of changes of the database. Every insert, update and delete is published to the subscribers
+     * in the order in which the changes were made, on a background thread, after the snapshot containing it.
+     * Subscribers that update a user interface hand the changes on to its thread; none may wait for the database
+     * while receiving a change. A subscriber that falls far behind delays the delivery of further changes, but
+     * neither the reads nor the writes of the database.
+     *
+     * @return The publisher of the changes.
+     */
+    public Flow.Publisher<MovieChange> changes() {
+        return changes;
+    }
+
+    /**
+     * Returns the current version of the movies. Never waits for a writer. The snapshot stays the same while the
+     * database changes, so a query that reads it more than once sees consistent data.
+     *
+     * @return The current snapshot.
+     */
+    public MovieDatabaseSnapshot snapshot() {
+        return snapshot.get();
     }
 
     /**
@@ -49,17 +253,194 @@ public class MovieDatabase {
      * @param title The title of the movie to be retrieved.
      * @return An Optional containing the Movie if found, or an empty Optional if no movie with the given title exists.
      */
+    @Override
     public Optional<Movie> getMovie(String title) {
-        return movies.stream().filter(m -> m.getTitle().equals(title)).findFirst();
+        return snapshot.get().getMovie(title);
+    }
+
+    /**
+     * Retrieves a movie from the database based on its id.
+     *
+     * @param id The id of the movie to be retrieved.
+     * @return An Optional containing the Movie if found, or an empty Optional if no movie has the given id.
+     */
+    @Override
+    public Optional<Movie> getMovieById(int id) {
+        return snapshot.get().getMovieById(id);
+    }
+
+    /**
+     * Retrieves all movies released in the given year.
+     *
+     * @param year The release year.
+     * @return An unmodifiable List of the matching movies, in insertion order.
+     */
+    public List<Movie> getMoviesByYear(int year) {
+        return getMoviesByYearRange(year, year);
+    }
+
+    /**
+     * Retrieves all movies released between two years, both inclusive, e.g. the movies from 1990 to 1999.
+     * Only the matching index buckets are visited.
+     *
+     * @param fromYear The first release year of the range.
+     * @param toYear The last release year of the range.
+     * @return An unmodifiable List of the matching movies, ordered by release year.
+     */
+    @Override
+    public List<Movie> getMoviesByYearRange(int fromYear, int toYear) {
+        return snapshot.get().getMoviesByYearRange(fromYear, toYear);
+    }
+
+    /**
+     * Retrieves all movies whose running time lies between two values, both inclusive,
+     * e.g. the movies running between 90 and 120 minutes. Only the matching index buckets are visited.
+     *
+     * @param minMinutes The shortest running time of the range, in minutes.
+     * @param maxMinutes The longest running time of the range, in minutes.
+     * @return An unmodifiable List of the matching movies, ordered by running time.
+     */
+    @Override
+    public List<Movie> getMoviesByRunningTimeRange(int minMinutes, int maxMinutes) {
+        return snapshot.get().getMoviesByRunningTimeRange(minMinutes, maxMinutes);
+    }
+
+    /**
+     * Retrieves all movies by the given director. Director names are compared ignoring case and surrounding whitespace.
+     *
+     * @param director The name of the director.
+     * @return An unmodifiable List of the director's movies, in insertion order.
+     */
+    @Override
+    public List<Movie> getMoviesByDirector(String director) {
+        return snapshot.get().getMoviesByDirector(director);
     }
 
     /**
-     * Retrieves a list of all movies in the database.
+     * Searches for movies whose title or director contains the given text, ignoring case.
+     * Every query is answered from the trigram index, which also indexes single characters and pairs of characters.
      *
-     * @return A List of all the Movie objects in the database.
+     * @param text The text to search for, may be null.
+     * @return A List of the matching movies, in insertion order; empty for null.
+     */
+    @Override
+    public List<Movie> searchMovies(String text) {
+        return snapshot.get().searchMovies(text);
+    }
+
+    /**
+     * Retrieves a list of all movies in the database, without copying it.
+     *
+     * @return The current snapshot, an unmodifiable List of all the Movie objects in the database in insertion order
+     * that does not change when the database does.
      */
     public List<Movie> getAllMovies() {
-        return new ArrayList<>(movies);
+        return snapshot.get();
+    }
+
+    /**
+     * Retrieves the ids of all movies in the database, without copying the movies themselves.
+     *
+     * @return A new array of the ids of all movies, in insertion order.
+     */
+    @Override
+    public int[] getAllMovieIds() {
+        return snapshot.get().getAllMovieIds();
+    }
+
+    /**
+     * Returns the ids of all movies sorted by one key.
+     * The order is sorted on first use and kept up to date by the writers afterwards, so later calls only copy it.
+     *
+     * @param key The key to sort by.
+     * @param ascending true for ascending order, false for descending order.
+     * @return A new array of the ids of all movies.
+     */
+    public int[] getSortedMovieIds(MovieSortKey key, boolean ascending) {
+        return snapshot.get().getSortedMovieIds(key, ascending);
+    }
+
+    /**
+     * Sorts movie ids by one key, for example the ids of a search result, by filtering the precomputed order of all
+     * movies instead of comparing the movies.
+     *
+     * @param movieIds The ids to sort. Ids of movies that are not in the database and duplicates are left out.
+     * @param key The key to sort by.
+     * @param ascending true for ascending order, false for descending order.
+     * @return A new array of the sorted ids.
+     */
+    @Override
+    public int[] sortMovieIds(int[] movieIds, MovieSortKey key, boolean ascending) {
+        return snapshot.get().sortMovieIds(movieIds, key, ascending);
+    }
+
+    /**
+     * Builds the sort orders of all keys now instead of on first use, for example on a background thread before the
+     * database is handed to the user interface, so not even the first sort has to wait.
+     */
+    public synchronized void prepareSortOrders() {
+        // Holding the lock, so no writer derives the next snapshot from this one before its orders are built
+        snapshot.get().prepareSortOrders();
+    }
+
+    /**
+     * Returns the first movies of a sorted, filtered query, e.g. the 50 longest movies released after 2000:
+     * {@code topMovies(movie -> movie.getReleaseYear() > 2000, MovieSortKey.RUNNING_TIME, false, 50)}.
+     *
+     * @param filter Which movies to include, called on the calling thread without holding any lock.
+     * @param key The key to sort by.
+     * @param ascending true for ascending order, false for descending order.
+     * @param limit The largest number of movies to return.
+     * @return A new List of at most limit movies.
+     */
+    public List<Movie> topMovies(Predicate<Movie> filter, MovieSortKey key, boolean ascending, int limit) {
+        return snapshot.get().getPage(filter, key, ascending, 0, limit).movies();
+    }
+
+    /**
+     * Returns one page of a sorted, filtered query. Movies with equal key values are ordered by id, so pages never
+     * overlap. If the order of the key is built, it is walked from its start and stops once the page is full;
+     * otherwise every movie is tested and only the first (pageNumber + 1) * pageSize matches are kept in a bounded heap.
+     *
+     * @param filter Which movies to include, called on the calling thread without holding any lock.
+     * @param key The key to sort by.
+     * @param ascending true for ascending order, false for descending order.
+     * @param pageNumber The number of the page, the first page is 0.
+     * @param pageSize The number of movies per page.
+     * @return The page, with the cursor of the next page.
+     * @throws IllegalArgumentException if the page number is negative or the page size is not positive.
+     */
+    public MoviePage getPage(Predicate<Movie> filter, MovieSortKey key, boolean ascending, int pageNumber,
+                             int pageSize) {
+        return snapshot.get().getPage(filter, key, ascending, pageNumber, pageSize);
+    }
+
+    /**
+     * Returns the page that follows the page a cursor came from. Unlike page numbers, cursors do not skip or repeat
+     * movies when movies are added or deleted between two pages.
+     *
+     * @param filter Which movies to include, which should be the filter of the page the cursor came from.
+     * @param key The key to sort by, which must be that of the page the cursor came from.
+     * @param ascending The sort direction, which must be that of the page the cursor came from.
+     * @param cursor The {@link MoviePage#nextCursor()} of the previous page, or null for the first page.
+     * @param pageSize The number of movies per page.
+     * @return The page, with the cursor of the next page.
+     * @throws IllegalArgumentException if the cursor is malformed or comes from another order, or the page size is not
+     * positive.
+     */
+    public MoviePage getPageAfter(Predicate<Movie> filter, MovieSortKey key, boolean ascending, String cursor,
+                                  int pageSize) {
+        return snapshot.get().getPageAfter(filter, key, ascending, cursor, pageSize);
+    }
+
+    /**
+     * Returns the number of movies in the database.
+     *
+     * @return The number of movies.
+     */
+    @Override
+    public int size() {
+        return snapshot.get().size();
     }
 
     /**
@@ -72,4 +453,4 @@ public class MovieDatabase {
     public String toString() {
         return String.valueOf(getAllMovies());
     }
-}
\ No newline at end of file
+}
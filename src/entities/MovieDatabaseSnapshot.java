@@ -0,0 +1,854 @@
+package entities;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Predicate;
+
+/**
+ * An immutable version of the movies of a MovieDatabase, in insertion order, together with all its indexes.
+ * A snapshot never changes once it is published, so a reader can answer a whole query from it without locks and
+ * without copying, while writers publish newer versions. A new version shares all unchanged parts with the previous
+ * one: the movies are kept in chunks of at most {@link #CHUNK_SIZE}, and a change copies only the chunks it touches
+ * and the small arrays pointing to the chunks. The indexes are chunked the same way, so a single insert, update or
+ * delete costs a few thousand references however large the catalog is, and a batch of inserts copies each touched
+ * chunk once.
+ * <p>
+ * Movies are looked up by id in an open-addressing hash table whose slots are chunked the same way, so its size
+ * follows the number of movies rather than the largest id. Every movie also has a sequence number that grows with the
+ * insertion order; the release year, running time, director and text indexes hold sequence numbers, so their posting
+ * lists stay sorted by insertion order when movies are appended. Deletes leave sequence numbers unused, and once they
+ * outnumber the movies a writer indexes the movies again from scratch. Directors are indexed by the code of their
+ * normalized name in the {@link DirectorDictionary} that all snapshots of a database share; codes are never handed
+ * back, so a snapshot simply has no posting list for codes added after it. The sort orders of the {@link MovieSortKey}s
+ * are built by the first query that needs them and are then kept up to date by the writers.
+ */
+public final class MovieDatabaseSnapshot extends AbstractList<Movie> implements MovieCatalog, RandomAccess {
+    // log2 of CHUNK_SIZE, so a slot is split into its chunk and its offset with a shift and a mask
+    private static final int CHUNK_BITS = 10;
+    /**
+     * The largest number of movies in a chunk.
+     */
+    public static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    /**
+     * Creates the first snapshot of a new database, with a director dictionary of its own.
+     */
+    static MovieDatabaseSnapshot empty() {
+        return new MovieDatabaseSnapshot(new Editor(new DirectorDictionary()));
+    }
+
+    private final long version;
+    // The movies in insertion order; chunks may be shorter than CHUNK_SIZE and may hold unused slots at their end
+    private final Movie[][] chunks;
+    // chunkStarts[i] is the position of the first movie of chunks[i], the last entry is the number of movies
+    private final int[] chunkStarts;
+    // The movies by id, with the chunk of the insertion order and the sequence number of each
+    private final IdTable ids;
+    // Sequence number -> movie, null where a movie was removed or renamed
+    private final Movie[][] moviesBySeq;
+    private final int nextSeq;
+    // Normalized title -> movie
+    private final KeyTable<Movie> titles;
+    // Secondary indexes of sequence numbers
+    private final RangeIndex years;
+    private final RangeIndex runningTimes;
+    // Normalized director name -> code, and the sequence numbers of each code, chunked by code
+    private final DirectorDictionary directorCodes;
+    private final IntChunkList[][] directors;
+    private final TrigramIndex text;
+    // Built on first use, indexed by MovieSortKey.ordinal(); a reader that builds one stores it for later readers
+    private final AtomicReferenceArray<SortOrder> sortOrders;
+
+    private MovieDatabaseSnapshot(Editor editor) {
+        version = editor.version;
+        chunks = Arrays.copyOf(editor.chunks, editor.chunkCount);
+        chunkStarts = Arrays.copyOf(editor.chunkStarts, editor.chunkCount + 1);
+        ids = editor.ids.freeze();
+        moviesBySeq = editor.moviesBySeq;
+        nextSeq = editor.nextSeq;
+        titles = editor.titles.freeze();
+        years = editor.years.freeze();
+        runningTimes = editor.runningTimes.freeze();
+        for (IntChunkList bucket : editor.editedDirectors) {
+            bucket.freeze();
+        }
+        directorCodes = editor.directorCodes;
+        directors = editor.directors;
+        text = editor.text.freeze();
+        sortOrders = new AtomicReferenceArray<>(MovieSortKey.values().length);
+        for (int i = 0; i < editor.sortOrders.length; i++) {
+            if (editor.sortOrders[i] != null) {
+                sortOrders.set(i, editor.sortOrders[i].freeze());
+            }
+        }
+    }
+
+    /**
+     * Returns the version of this snapshot. Every change of the database publishes a snapshot with a higher version.
+     *
+     * @return The version, 0 for the empty database.
+     */
+    public long version() {
+        return version;
+    }
+
+    /**
+     * Returns the number of movies in this snapshot.
+     *
+     * @return The number of movies.
+     */
+    @Override
+    public int size() {
+        return chunkStarts[chunks.length];
+    }
+
+    /**
+     * Returns the movie at a position of the insertion order.
+     *
+     * @param position The position, from 0 to size() - 1.
+     * @return The movie.
+     * @throws IndexOutOfBoundsException if the position is out of range.
+     */
+    @Override
+    public Movie get(int position) {
+        if (position < 0 || position >= size()) {
+            throw new IndexOutOfBoundsException("Position " + position + " out of range for size " + size());
+        }
+        // The last chunk starting at or before the position; empty chunks before it start at the same position
+        int low = 0;
+        int high = chunks.length - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (chunkStarts[middle] <= position) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return chunks[low][position - chunkStarts[low]];
+    }
+
+    /**
+     * Retrieves a movie based on its title, ignoring case and surrounding whitespace.
+     *
+     * @param title The title of the movie, may be null.
+     * @return An Optional containing the Movie if this snapshot has it, or an empty Optional.
+     */
+    @Override
+    public Optional<Movie> getMovie(String title) {
+        return title == null ? Optional.empty() : Optional.ofNullable(titles.get(MovieDatabase.titleKey(title)));
+    }
+
+    /**
+     * Retrieves a movie based on its id.
+     *
+     * @param id The id of the movie.
+     * @return An Optional containing the Movie if this snapshot has it, or an empty Optional.
+     */
+    @Override
+    public Optional<Movie> getMovieById(int id) {
+        return Optional.ofNullable(movieById(id));
+    }
+
+    /**
+     * Returns the movie with an id, or null if this snapshot has none.
+     */
+    Movie movieById(int id) {
+        int slot = ids.slotOf(id);
+        return slot < 0 ? null : ids.movieAt(slot);
+    }
+
+    private Movie movieBySeq(int seq) {
+        return moviesBySeq[seq >>> CHUNK_BITS][seq & CHUNK_MASK];
+    }
+
+    /**
+     * Returns the ids of all movies.
+     *
+     * @return A new array of the ids of all movies, in insertion order.
+     */
+    @Override
+    public int[] getAllMovieIds() {
+        int[] ids = new int[size()];
+        for (int chunk = 0; chunk < chunks.length; chunk++) {
+            for (int position = chunkStarts[chunk]; position < chunkStarts[chunk + 1]; position++) {
+                ids[position] = chunks[chunk][position - chunkStarts[chunk]].getId();
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Retrieves all movies released between two years, both inclusive.
+     *
+     * @param fromYear The first release year of the range.
+     * @param toYear The last release year of the range.
+     * @return An unmodifiable List of the matching movies, ordered by release year and then by insertion order.
+     */
+    @Override
+    public List<Movie> getMoviesByYearRange(int fromYear, int toYear) {
+        return collect(years.range(fromYear, toYear));
+    }
+
+    /**
+     * Retrieves all movies whose running time lies between two values, both inclusive.
+     *
+     * @param minMinutes The shortest running time of the range, in minutes.
+     * @param maxMinutes The longest running time of the range, in minutes.
+     * @return An unmodifiable List of the matching movies, ordered by running time and then by insertion order.
+     */
+    @Override
+    public List<Movie> getMoviesByRunningTimeRange(int minMinutes, int maxMinutes) {
+        return collect(runningTimes.range(minMinutes, maxMinutes));
+    }
+
+    /**
+     * Retrieves all movies by the given director, ignoring case and surrounding whitespace.
+     *
+     * @param director The name of the director.
+     * @return An unmodifiable List of the director's movies, in insertion order.
+     */
+    @Override
+    public List<Movie> getMoviesByDirector(String director) {
+        int code = directorCodes.codeOf(MovieDatabase.directorKey(director));
+        // A code added after this snapshot was built has no posting list in it
+        IntChunkList bucket = code == DirectorDictionary.NO_DIRECTOR || code >>> CHUNK_BITS >= directors.length
+                || directors[code >>> CHUNK_BITS] == null ? null : directors[code >>> CHUNK_BITS][code & CHUNK_MASK];
+        return bucket == null ? List.of() : collect(bucket);
+    }
+
+    /**
+     * Searches for movies whose title or director contains the given text, ignoring case.
+     *
+     * @param text The text to search for, may be null.
+     * @return A List of the matching movies, in insertion order; all movies for the empty text and none for null.
+     */
+    @Override
+    public List<Movie> searchMovies(String text) {
+        if (text == null) {
+            return new ArrayList<>();
+        }
+        return text.isEmpty() ? new ArrayList<>(this) : this.text.search(text, this::movieBySeq);
+    }
+
+    private List<Movie> collect(IntChunkList... buckets) {
+        List<Movie> result = new ArrayList<>();
+        for (IntChunkList bucket : buckets) {
+            bucket.forEach(seq -> result.add(movieBySeq(seq)));
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Returns the ids of all movies sorted by one key, sorting them first if no query of this snapshot did yet.
+     *
+     * @param key The key to sort by.
+     * @param ascending true for ascending order, false for descending order.
+     * @return A new array of the ids of all movies.
+     */
+    public int[] getSortedMovieIds(MovieSortKey key, boolean ascending) {
+        return sortOrder(key).toArray(ascending);
+    }
+
+    /**
+     * Sorts movie ids by one key by filtering the order of all movies instead of comparing the movies.
+     *
+     * @param movieIds The ids to sort. Ids of movies that are not in the snapshot and duplicates are left out.
+     * @param key The key to sort by.
+     * @param ascending true for ascending order, false for descending order.
+     * @return A new array of the sorted ids.
+     */
+    @Override
+    public int[] sortMovieIds(int[] movieIds, MovieSortKey key, boolean ascending) {
+        MovieIdSet wanted = new MovieIdSet();
+        for (int id : movieIds) {
+            if (id > Movie.NO_ID) {
+                wanted.add(id);
+            }
+        }
+        return sortOrder(key).filter(wanted, ascending);
+    }
+
+    /**
+     * Builds the sort orders of all keys that are not built yet.
+     */
+    void prepareSortOrders() {
+        for (MovieSortKey key : MovieSortKey.values()) {
+            sortOrder(key);
+        }
+    }
+
+    private SortOrder sortOrder(MovieSortKey key) {
+        SortOrder order = sortOrders.get(key.ordinal());
+        if (order == null) {
+            // Readers racing to build the same order keep whichever was stored first
+            sortOrders.compareAndSet(key.ordinal(), null, SortOrder.build(key, this));
+            order = sortOrders.get(key.ordinal());
+        }
+        return order;
+    }
+
+    /**
+     * Returns one page of a sorted, filtered query, as described by
+     * {@link MovieDatabase#getPage(Predicate, MovieSortKey, boolean, int, int)}.
+     *
+     * @param filter Which movies to include.
+     * @param key The key to sort by.
+     * @param ascending true for ascending order, false for descending order.
+     * @param pageNumber The number of the page, the first page is 0.
+     * @param pageSize The number of movies per page.
+     * @return The page, with the cursor of the next page.
+     * @throws IllegalArgumentException if the page number is negative or the page size is not positive.
+     */
+    public MoviePage getPage(Predicate<Movie> filter, MovieSortKey key, boolean ascending, int pageNumber,
+                             int pageSize) {
+        if (pageNumber < 0 || pageSize <= 0) {
+            throw new IllegalArgumentException("Invalid page " + pageNumber + " of size " + pageSize);
+        }
+        return page(filter, key, ascending, null, (long) pageNumber * pageSize, pageSize);
+    }
+
+    /**
+     * Returns the page that follows the page a cursor came from, as described by
+     * {@link MovieDatabase#getPageAfter(Predicate, MovieSortKey, boolean, String, int)}.
+     *
+     * @param filter Which movies to include, which should be the filter of the page the cursor came from.
+     * @param key The key to sort by, which must be that of the page the cursor came from.
+     * @param ascending The sort direction, which must be that of the page the cursor came from.
+     * @param cursor The {@link MoviePage#nextCursor()} of the previous page, or null for the first page.
+     * @param pageSize The number of movies per page.
+     * @return The page, with the cursor of the next page.
+     * @throws IllegalArgumentException if the cursor is malformed or comes from another order, or the page size is not
+     * positive.
+     */
+    public MoviePage getPageAfter(Predicate<Movie> filter, MovieSortKey key, boolean ascending, String cursor,
+                                  int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Invalid page size " + pageSize);
+        }
+        Movie after = cursor == null ? null : MoviePage.decodeCursor(cursor, key, ascending);
+        return page(filter, key, ascending, after, 0, pageSize);
+    }
+
+    /**
+     * Collects the matches of a query that come after a movie, skipping the first matches.
+     */
+    private MoviePage page(Predicate<Movie> filter, MovieSortKey key, boolean ascending, Movie after, long skip,
+                           int pageSize) {
+        List<Movie> page = new ArrayList<>();
+        boolean more = false;
+        SortOrder order = sortOrders.get(key.ordinal());
+        if (order != null) {
+            // Walk the precomputed order, which ends as soon as the page is full
+            int step = ascending ? 1 : -1;
+            int position = ascending
+                    ? (after == null ? 0 : order.positionAfter(after, this::movieById))
+                    : (after == null ? order.size() - 1 : order.positionBefore(after, this::movieById));
+            for (; position >= 0 && position < order.size(); position += step) {
+                Movie movie = movieById(order.idAt(position));
+                if (!filter.test(movie)) {
+                    continue;
+                }
+                if (skip > 0) {
+                    skip--;
+                    continue;
+                }
+                if (page.size() == pageSize) {
+                    more = true;
+                    break;
+                }
+                page.add(movie);
+            }
+        } else {
+            // Keep the first skip + pageSize + 1 matches; the extra one tells whether another page follows
+            Comparator<Movie> comparator = ascending ? key.comparator() : key.comparator().reversed();
+            int kept = (int) Math.min(skip + pageSize + 1, size() + 1L);
+            PriorityQueue<Movie> best = new PriorityQueue<>(kept, comparator.reversed());
+            for (Movie movie : this) {
+                if ((after != null && comparator.compare(movie, after) <= 0) || !filter.test(movie)) {
+                    continue;
+                }
+                if (best.size() < kept) {
+                    best.add(movie);
+                } else if (comparator.compare(movie, best.peek()) < 0) {
+                    best.poll();
+                    best.add(movie);
+                }
+            }
+            Movie[] sorted = best.toArray(new Movie[0]);
+            Arrays.sort(sorted, comparator);
+            for (long i = skip; i < sorted.length && page.size() < pageSize; i++) {
+                page.add(sorted[(int) i]);
+            }
+            more = sorted.length > skip + pageSize;
+        }
+        String nextCursor = more ? MoviePage.cursorAfter(key, ascending, page.get(page.size() - 1)) : null;
+        return new MoviePage(Collections.unmodifiableList(page), nextCursor);
+    }
+
+    /**
+     * Returns an editor to build the next version on.
+     */
+    Editor edit() {
+        return new Editor(this);
+    }
+
+    /**
+     * Builds the next version of a snapshot. An editor shares all parts with the snapshot it was made from and copies
+     * a chunk the first time it changes it, so the snapshot stays unchanged. It is used by one writer at a time.
+     */
+    static final class Editor {
+        private long version;
+        private Movie[][] chunks;
+        private int[] chunkStarts;
+        private int chunkCount;
+        // The chunks of the insertion order this editor may change in place
+        private boolean[] ownedChunks;
+        private IdTable ids;
+        private Movie[][] moviesBySeq;
+        private boolean[] ownedSeqChunks;
+        private int nextSeq;
+        private KeyTable<Movie> titles;
+        private RangeIndex years;
+        private RangeIndex runningTimes;
+        private final DirectorDictionary directorCodes;
+        private IntChunkList[][] directors;
+        private boolean[] ownedDirectorChunks;
+        private final List<IntChunkList> editedDirectors = new ArrayList<>();
+        private TrigramIndex text;
+        // The orders kept up to date, null for the ones that are not built
+        private final SortOrder[] sortOrders = new SortOrder[MovieSortKey.values().length];
+
+        /**
+         * Constructs the editor of the empty snapshot.
+         */
+        private Editor(DirectorDictionary directorCodes) {
+            chunks = new Movie[4][];
+            chunkStarts = new int[5];
+            ownedChunks = new boolean[4];
+            ids = IdTable.EMPTY.edit();
+            moviesBySeq = new Movie[0][];
+            ownedSeqChunks = new boolean[0];
+            titles = KeyTable.<Movie>empty().edit();
+            years = RangeIndex.EMPTY.edit();
+            runningTimes = RangeIndex.EMPTY.edit();
+            this.directorCodes = directorCodes;
+            directors = new IntChunkList[0][];
+            ownedDirectorChunks = new boolean[0];
+            text = TrigramIndex.EMPTY.edit();
+        }
+
+        private Editor(MovieDatabaseSnapshot base) {
+            version = base.version + 1;
+            chunkCount = base.chunks.length;
+            chunks = Arrays.copyOf(base.chunks, chunkCount + 4);
+            chunkStarts = Arrays.copyOf(base.chunkStarts, chunkCount + 5);
+            ownedChunks = new boolean[chunks.length];
+            ids = base.ids.edit();
+            moviesBySeq = base.moviesBySeq.clone();
+            ownedSeqChunks = new boolean[moviesBySeq.length];
+            nextSeq = base.nextSeq;
+            titles = base.titles.edit();
+            years = base.years.edit();
+            runningTimes = base.runningTimes.edit();
+            directorCodes = base.directorCodes;
+            directors = base.directors.clone();
+            ownedDirectorChunks = new boolean[directors.length];
+            text = base.text.edit();
+            for (MovieSortKey key : MovieSortKey.values()) {
+                SortOrder order = base.sortOrders.get(key.ordinal());
+                sortOrders[key.ordinal()] = order == null ? null : order.edit(key);
+            }
+        }
+
+        /**
+         * Returns the movie with a normalized title, or null if there is none.
+         */
+        Movie movieByTitle(String titleKey) {
+            return titles.get(titleKey);
+        }
+
+        /**
+         * Returns the movie with an id, or null if there is none.
+         */
+        Movie movieById(int id) {
+            int slot = ids.slotOf(id);
+            return slot < 0 ? null : ids.movieAt(slot);
+        }
+
+        /**
+         * Stops keeping the sort orders up to date, for example before adding many movies at once, which is cheaper to
+         * sort again than to insert one by one. They are built again when they are next needed.
+         */
+        void dropSortOrders() {
+            Arrays.fill(sortOrders, null);
+        }
+
+        /**
+         * Appends a movie to the insertion order and adds it to all indexes. Its title and id must be new.
+         */
+        void add(Movie movie) {
+            int seq = nextSeq++;
+            ids.put(movie, append(movie), seq);
+            setMovieBySeq(seq, movie);
+            titles.put(MovieDatabase.titleKey(movie.getTitle()), movie);
+            index(movie, seq);
+            text.add(movie, seq);
+        }
+
+        /**
+         * Removes a movie from the insertion order and all indexes.
+         */
+        void remove(Movie movie) {
+            int slot = ids.slotOf(movie.getId());
+            int chunk = ids.chunkAt(slot);
+            int seq = ids.seqAt(slot);
+            // The sort orders look up the movie by id while searching for it
+            unindex(movie, seq);
+            removeFromChunk(chunk, movie);
+            ids.remove(movie.getId());
+            setMovieBySeq(seq, null);
+            titles.remove(MovieDatabase.titleKey(movie.getTitle()));
+            text.remove(movie, seq);
+        }
+
+        /**
+         * Replaces a movie with a new version with the same id. It keeps its place in the insertion order and all
+         * indexes unless its title changed, in which case it moves to the end.
+         */
+        void replace(Movie previous, Movie movie) {
+            String key = MovieDatabase.titleKey(movie.getTitle());
+            if (!MovieDatabase.titleKey(previous.getTitle()).equals(key)) {
+                remove(previous);
+                add(movie);
+                return;
+            }
+            int slot = ids.slotOf(previous.getId());
+            int chunk = ids.chunkAt(slot);
+            int seq = ids.seqAt(slot);
+            unindex(previous, seq);
+            writableChunk(chunk)[offsetIn(chunk, previous)] = movie;
+            ids.put(movie, chunk, seq);
+            setMovieBySeq(seq, movie);
+            titles.put(key, movie);
+            index(movie, seq);
+            text.remove(previous, seq);
+            text.add(movie, seq);
+        }
+
+        /**
+         * Adds a movie that is already in the id table to the secondary indexes and sort orders.
+         */
+        private void index(Movie movie, int seq) {
+            years.add(movie.getReleaseYear(), seq);
+            runningTimes.add(movie.getRunningTime(), seq);
+            writableDirector(directorCodes.encode(MovieDatabase.directorKey(movie.getDirector()))).addSorted(seq);
+            for (SortOrder order : sortOrders) {
+                if (order != null) {
+                    order.add(movie, this::movieById);
+                }
+            }
+        }
+
+        /**
+         * Removes a movie that is still in the id table from the secondary indexes and sort orders.
+         */
+        private void unindex(Movie movie, int seq) {
+            for (SortOrder order : sortOrders) {
+                if (order != null) {
+                    order.remove(movie, this::movieById);
+                }
+            }
+            years.remove(movie.getReleaseYear(), seq);
+            runningTimes.remove(movie.getRunningTime(), seq);
+            // Codes are never handed back, an emptied posting list stays for the director's next movie
+            writableDirector(directorCodes.codeOf(MovieDatabase.directorKey(movie.getDirector()))).removeSorted(seq);
+        }
+
+        /**
+         * Returns the posting list of a director code that this editor may change, copying its chunk of posting
+         * lists and the list itself the first time.
+         */
+        private IntChunkList writableDirector(int code) {
+            int chunk = code >>> CHUNK_BITS;
+            if (chunk >= directors.length) {
+                directors = Arrays.copyOf(directors, chunk + 1);
+                ownedDirectorChunks = Arrays.copyOf(ownedDirectorChunks, chunk + 1);
+            }
+            if (directors[chunk] == null) {
+                directors[chunk] = new IntChunkList[CHUNK_SIZE];
+                ownedDirectorChunks[chunk] = true;
+            } else if (!ownedDirectorChunks[chunk]) {
+                directors[chunk] = directors[chunk].clone();
+                ownedDirectorChunks[chunk] = true;
+            }
+            IntChunkList bucket = directors[chunk][code & CHUNK_MASK];
+            if (bucket == null || bucket.isFrozen()) {
+                bucket = (bucket == null ? IntChunkList.EMPTY : bucket).edit();
+                directors[chunk][code & CHUNK_MASK] = bucket;
+                editedDirectors.add(bucket);
+            }
+            return bucket;
+        }
+
+        /**
+         * Appends a movie to the last chunk of the insertion order, starting a new chunk once it is full.
+         *
+         * @return The chunk holding the movie.
+         */
+        private int append(Movie movie) {
+            int last = chunkCount - 1;
+            if (last < 0 || chunkStarts[chunkCount] - chunkStarts[last] == CHUNK_SIZE) {
+                if (chunkCount == chunks.length) {
+                    chunks = Arrays.copyOf(chunks, chunkCount * 2);
+                    chunkStarts = Arrays.copyOf(chunkStarts, chunkCount * 2 + 1);
+                    ownedChunks = Arrays.copyOf(ownedChunks, chunkCount * 2);
+                }
+                last = chunkCount++;
+                chunks[last] = new Movie[Math.min(CHUNK_SIZE, Math.max(16, chunkStarts[last]))];
+                chunkStarts[chunkCount] = chunkStarts[last];
+                ownedChunks[last] = true;
+            }
+            int length = chunkStarts[chunkCount] - chunkStarts[last];
+            Movie[] chunk = chunks[last];
+            if (!ownedChunks[last] || chunk.length == length) {
+                chunk = Arrays.copyOf(chunk, Math.min(CHUNK_SIZE, Math.max(16, length * 2)));
+                chunks[last] = chunk;
+                ownedChunks[last] = true;
+            }
+            chunk[length] = movie;
+            chunkStarts[chunkCount]++;
+            return last;
+        }
+
+        /**
+         * Removes a movie from a chunk of the insertion order. An emptied chunk stays, so the chunks of the other
+         * movies do not change.
+         */
+        private void removeFromChunk(int chunk, Movie movie) {
+            Movie[] movies = writableChunk(chunk);
+            int offset = offsetIn(chunk, movie);
+            int length = chunkStarts[chunk + 1] - chunkStarts[chunk];
+            System.arraycopy(movies, offset + 1, movies, offset, length - offset - 1);
+            movies[length - 1] = null;
+            for (int i = chunk + 1; i <= chunkCount; i++) {
+                chunkStarts[i]--;
+            }
+        }
+
+        private Movie[] writableChunk(int chunk) {
+            if (!ownedChunks[chunk]) {
+                chunks[chunk] = chunks[chunk].clone();
+                ownedChunks[chunk] = true;
+            }
+            return chunks[chunk];
+        }
+
+        private int offsetIn(int chunk, Movie movie) {
+            for (int offset = 0; offset < chunkStarts[chunk + 1] - chunkStarts[chunk]; offset++) {
+                if (chunks[chunk][offset] == movie) {
+                    return offset;
+                }
+            }
+            throw new IllegalStateException("Movie " + movie.getId() + " is missing from its chunk");
+        }
+
+        private void setMovieBySeq(int seq, Movie movie) {
+            int chunk = seq >>> CHUNK_BITS;
+            if (chunk == moviesBySeq.length) {
+                moviesBySeq = Arrays.copyOf(moviesBySeq, chunk + 1);
+                moviesBySeq[chunk] = new Movie[CHUNK_SIZE];
+                ownedSeqChunks = Arrays.copyOf(ownedSeqChunks, chunk + 1);
+                ownedSeqChunks[chunk] = true;
+            } else if (!ownedSeqChunks[chunk]) {
+                moviesBySeq[chunk] = moviesBySeq[chunk].clone();
+                ownedSeqChunks[chunk] = true;
+            }
+            moviesBySeq[chunk][seq & CHUNK_MASK] = movie;
+        }
+
+        /**
+         * Publishes the edited version. Once unused sequence numbers or half-empty chunks outnumber the movies, the
+         * movies are indexed again under new sequence numbers; the sort orders, which hold ids, are kept.
+         *
+         * @return The new snapshot.
+         */
+        MovieDatabaseSnapshot build() {
+            MovieDatabaseSnapshot built = new MovieDatabaseSnapshot(this);
+            int size = built.size();
+            boolean sparse = nextSeq - size > size + CHUNK_SIZE
+                    || chunkCount > 2 * ((size + CHUNK_SIZE - 1) / CHUNK_SIZE) + 1;
+            if (!sparse) {
+                return built;
+            }
+            Editor packed = new Editor(directorCodes);
+            packed.version = version;
+            for (Movie movie : built) {
+                packed.add(movie);
+            }
+            for (MovieSortKey key : MovieSortKey.values()) {
+                packed.sortOrders[key.ordinal()] = built.sortOrders.get(key.ordinal());
+            }
+            return new MovieDatabaseSnapshot(packed);
+        }
+    }
+
+    /**
+     * An open-addressing hash table from movie id to the movie, the chunk of the insertion order holding it and its
+     * sequence number. The slots are kept in chunks of at most CHUNK_SIZE, like the movies. A published table is
+     * never changed: a new version is built on an {@link #edit()} copy, which copies a chunk of slots the first time
+     * it changes it.
+     */
+    private static final class IdTable {
+        static final IdTable EMPTY = new IdTable(new Movie[1][16], new int[1][16], new int[1][16], 0);
+
+        // The movie of each slot, null for a free slot
+        private Movie[][] movies;
+        // The chunk of the insertion order holding the movie of each slot
+        private int[][] chunks;
+        private int[][] seqs;
+        private int size;
+        // The chunks of slots this copy may change in place; null for a published table
+        private boolean[] copied;
+
+        private IdTable(Movie[][] movies, int[][] chunks, int[][] seqs, int size) {
+            this.movies = movies;
+            this.chunks = chunks;
+            this.seqs = seqs;
+            this.size = size;
+        }
+
+        /**
+         * Returns a copy to build the next version on, which shares all chunks of slots with this table.
+         */
+        IdTable edit() {
+            IdTable copy = new IdTable(movies.clone(), chunks.clone(), seqs.clone(), size);
+            copy.copied = new boolean[movies.length];
+            return copy;
+        }
+
+        IdTable freeze() {
+            copied = null;
+            return this;
+        }
+
+        /**
+         * Returns the slot holding an id, or -1 if the table does not have it.
+         */
+        int slotOf(int id) {
+            if (id <= Movie.NO_ID) {
+                return -1;
+            }
+            int mask = slotCount() - 1;
+            for (int slot = hash(id) & mask; movieAt(slot) != null; slot = (slot + 1) & mask) {
+                if (movieAt(slot).getId() == id) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+
+        Movie movieAt(int slot) {
+            return movies[slot >>> CHUNK_BITS][slot & CHUNK_MASK];
+        }
+
+        int chunkAt(int slot) {
+            return chunks[slot >>> CHUNK_BITS][slot & CHUNK_MASK];
+        }
+
+        int seqAt(int slot) {
+            return seqs[slot >>> CHUNK_BITS][slot & CHUNK_MASK];
+        }
+
+        /**
+         * Adds a movie, or replaces the movie with the same id.
+         */
+        void put(Movie movie, int chunk, int seq) {
+            int mask = slotCount() - 1;
+            int slot = hash(movie.getId()) & mask;
+            while (movieAt(slot) != null && movieAt(slot).getId() != movie.getId()) {
+                slot = (slot + 1) & mask;
+            }
+            if (movieAt(slot) == null) {
+                size++;
+            }
+            set(slot, movie, chunk, seq);
+            if (size * 2 > slotCount()) {
+                rehash(slotCount() * 2);
+            }
+        }
+
+        /**
+         * Removes an id, moving later entries of its probe sequence back so no lookup misses them.
+         */
+        void remove(int id) {
+            int free = slotOf(id);
+            if (free < 0) {
+                return;
+            }
+            int mask = slotCount() - 1;
+            for (int next = (free + 1) & mask; movieAt(next) != null; next = (next + 1) & mask) {
+                int home = hash(movieAt(next).getId()) & mask;
+                // Move the entry back unless its home lies cyclically between the free slot and its current slot
+                boolean between = free <= next ? free < home && home <= next : free < home || home <= next;
+                if (!between) {
+                    set(free, movieAt(next), chunkAt(next), seqAt(next));
+                    free = next;
+                }
+            }
+            set(free, null, 0, 0);
+            size--;
+        }
+
+        private int slotCount() {
+            return movies.length == 1 ? movies[0].length : movies.length << CHUNK_BITS;
+        }
+
+        private void set(int slot, Movie movie, int chunk, int seq) {
+            int index = slot >>> CHUNK_BITS;
+            if (!copied[index]) {
+                movies[index] = movies[index].clone();
+                chunks[index] = chunks[index].clone();
+                seqs[index] = seqs[index].clone();
+                copied[index] = true;
+            }
+            movies[index][slot & CHUNK_MASK] = movie;
+            chunks[index][slot & CHUNK_MASK] = chunk;
+            seqs[index][slot & CHUNK_MASK] = seq;
+        }
+
+        private void rehash(int slotCount) {
+            Movie[][] oldMovies = movies;
+            int[][] oldChunks = chunks;
+            int[][] oldSeqs = seqs;
+            int chunkLength = Math.min(slotCount, CHUNK_SIZE);
+            movies = new Movie[slotCount / chunkLength][chunkLength];
+            chunks = new int[movies.length][chunkLength];
+            seqs = new int[movies.length][chunkLength];
+            copied = new boolean[movies.length];
+            Arrays.fill(copied, true);
+            size = 0;
+            for (int index = 0; index < oldMovies.length; index++) {
+                for (int offset = 0; offset < oldMovies[index].length; offset++) {
+                    if (oldMovies[index][offset] != null) {
+                        put(oldMovies[index][offset], oldChunks[index][offset], oldSeqs[index][offset]);
+                    }
+                }
+            }
+        }
+
+        private static int hash(int id) {
+            int hash = id * 0x9E3779B9;
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
@@ -0,0 +1,363 @@
+package entities;
+
+import java.util.Arrays;
+
+/**
+ * A compact set of movie ids that keeps the order in which the ids were added.
+ * The ids are stored in primitive arrays in insertion order. Sets of more than a few ids also keep an
+ * open-addressing hash table from id to position, so lookups, additions and removals run in constant time.
+ * A removal only clears the id's position, the arrays are compacted once half of them is cleared.
+ * <p>
+ * Ids and hash slots are kept in chunks of at most {@link #CHUNK_SIZE} ints. A copy shares all chunks with the
+ * original, and whichever of the two changes first copies only the chunks it touches, so copying a large set and
+ * changing one id costs a few hundred ints rather than the whole set. A set can be frozen, after which it never
+ * changes and can be read by any number of threads.
+ */
+public final class MovieIdSet {
+    // Sets up to this size are searched linearly, which is faster and smaller than hashing
+    private static final int LINEAR_LIMIT = 8;
+    private static final int CHUNK_BITS = 6;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int[][] NO_CHUNKS = new int[0][];
+    private static final boolean[] NO_OWNERSHIP = new boolean[0];
+
+    // Ids in insertion order, Movie.NO_ID where an id was removed; a single chunk smaller than CHUNK_SIZE while small
+    private int[][] ids = NO_CHUNKS;
+    private int capacity;
+    private int end;
+    private int size;
+    // Position + 1 of each id, 0 for a free slot; null while the set is small
+    private int[][] slots;
+    private int slotCount;
+    // Chunks this set may change in place; the others are shared with copies and are copied before a change
+    private boolean[] ownsIds = NO_OWNERSHIP;
+    private boolean[] ownsSlots;
+    private boolean frozen;
+
+    /**
+     * Constructs an empty MovieIdSet.
+     */
+    public MovieIdSet() {
+    }
+
+    /**
+     * Constructs a MovieIdSet holding the given ids in order, skipping duplicates.
+     *
+     * @param ids The ids to add.
+     * @return The new set.
+     */
+    public static MovieIdSet of(int... ids) {
+        MovieIdSet set = new MovieIdSet();
+        for (int id : ids) {
+            set.add(id);
+        }
+        return set;
+    }
+
+    /**
+     * Returns an independent copy of this set. The copy can be changed even if this set is frozen.
+     * Both sets share their chunks until one of them changes, so copying takes time in the number of chunks only.
+     *
+     * @return The copy.
+     */
+    public MovieIdSet copy() {
+        MovieIdSet copy = new MovieIdSet();
+        copy.ids = ids.clone();
+        copy.capacity = capacity;
+        copy.end = end;
+        copy.size = size;
+        copy.ownsIds = new boolean[ids.length];
+        if (slots != null) {
+            copy.slots = slots.clone();
+            copy.slotCount = slotCount;
+            copy.ownsSlots = new boolean[slots.length];
+        }
+        if (!frozen) {
+            // The chunks are shared now, so this set has to copy them before changing them as well
+            Arrays.fill(ownsIds, false);
+            if (slots != null) {
+                Arrays.fill(ownsSlots, false);
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Makes this set immutable, so it can be handed to other threads. Changes have to be made to a {@link #copy()}.
+     *
+     * @return This set.
+     */
+    MovieIdSet freeze() {
+        frozen = true;
+        return this;
+    }
+
+    /**
+     * Adds an id at the end of the set.
+     *
+     * @param id The id to add, must be positive.
+     * @return true if the id was added, false if it was already in the set.
+     * @throws IllegalArgumentException if the id is not positive.
+     * @throws UnsupportedOperationException if the set is frozen.
+     */
+    public boolean add(int id) {
+        if (id <= Movie.NO_ID) {
+            throw new IllegalArgumentException("Movie ids must be positive: " + id);
+        }
+        checkNotFrozen();
+        if (indexOf(id) >= 0) {
+            return false;
+        }
+        if (end == capacity) {
+            if (size < end / 2) {
+                compact();
+            } else {
+                grow();
+            }
+        }
+        setId(end, id);
+        if (slots != null) {
+            insertSlot(id, end);
+        }
+        end++;
+        size++;
+        if (slots == null ? size > LINEAR_LIMIT : capacity * 2 > slotCount) {
+            rebuildSlots();
+        }
+        return true;
+    }
+
+    /**
+     * Removes an id from the set.
+     *
+     * @param id The id to remove.
+     * @return true if the id was in the set.
+     * @throws UnsupportedOperationException if the set is frozen.
+     */
+    public boolean remove(int id) {
+        checkNotFrozen();
+        int position = indexOf(id);
+        if (position < 0) {
+            return false;
+        }
+        if (slots != null) {
+            removeSlot(id);
+        }
+        setId(position, Movie.NO_ID);
+        size--;
+        if (position == end - 1) {
+            end--;
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether the set holds an id.
+     *
+     * @param id The id to look up.
+     * @return true if the id is in the set.
+     */
+    public boolean contains(int id) {
+        return indexOf(id) >= 0;
+    }
+
+    /**
+     * Returns the number of ids in the set.
+     *
+     * @return The size of the set.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns whether the set is empty.
+     *
+     * @return true if the set holds no ids.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the ids of the set in insertion order.
+     *
+     * @return A new array with the ids.
+     */
+    public int[] toArray() {
+        int[] result = new int[size];
+        int count = 0;
+        for (int i = 0; i < end; i++) {
+            int id = idAt(i);
+            if (id != Movie.NO_ID) {
+                result[count++] = id;
+            }
+        }
+        return result;
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new UnsupportedOperationException("The set is frozen, change a copy instead");
+        }
+    }
+
+    private int idAt(int position) {
+        return ids[position >>> CHUNK_BITS][position & CHUNK_MASK];
+    }
+
+    private void setId(int position, int id) {
+        int chunk = position >>> CHUNK_BITS;
+        if (!ownsIds[chunk]) {
+            ids[chunk] = ids[chunk].clone();
+            ownsIds[chunk] = true;
+        }
+        ids[chunk][position & CHUNK_MASK] = id;
+    }
+
+    private int slotAt(int slot) {
+        return slots[slot >>> CHUNK_BITS][slot & CHUNK_MASK];
+    }
+
+    private void setSlot(int slot, int value) {
+        int chunk = slot >>> CHUNK_BITS;
+        if (!ownsSlots[chunk]) {
+            slots[chunk] = slots[chunk].clone();
+            ownsSlots[chunk] = true;
+        }
+        slots[chunk][slot & CHUNK_MASK] = value;
+    }
+
+    /**
+     * Makes room for more ids: a small set doubles its only chunk, a large one adds a chunk.
+     */
+    private void grow() {
+        if (capacity < CHUNK_SIZE) {
+            int[] chunk = Arrays.copyOf(ids.length == 0 ? new int[0] : ids[0], Math.max(4, capacity * 2));
+            ids = new int[][]{chunk};
+            ownsIds = new boolean[]{true};
+            capacity = chunk.length;
+        } else {
+            ids = Arrays.copyOf(ids, ids.length + 1);
+            ids[ids.length - 1] = new int[CHUNK_SIZE];
+            ownsIds = Arrays.copyOf(ownsIds, ids.length);
+            ownsIds[ids.length - 1] = true;
+            capacity += CHUNK_SIZE;
+        }
+    }
+
+    /**
+     * Returns the position of an id in the ids array.
+     */
+    private int indexOf(int id) {
+        if (id <= Movie.NO_ID) {
+            return -1;
+        }
+        if (slots == null) {
+            for (int i = 0; i < end; i++) {
+                if (idAt(i) == id) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        int mask = slotCount - 1;
+        for (int slot = hash(id) & mask; slotAt(slot) != 0; slot = (slot + 1) & mask) {
+            if (idAt(slotAt(slot) - 1) == id) {
+                return slotAt(slot) - 1;
+            }
+        }
+        return -1;
+    }
+
+    private void insertSlot(int id, int position) {
+        int mask = slotCount - 1;
+        int slot = hash(id) & mask;
+        while (slotAt(slot) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        setSlot(slot, position + 1);
+    }
+
+    /**
+     * Removes the slot of an id, moving later entries of its probe sequence back so no lookup misses them.
+     */
+    private void removeSlot(int id) {
+        int mask = slotCount - 1;
+        int slot = hash(id) & mask;
+        while (idAt(slotAt(slot) - 1) != id) {
+            slot = (slot + 1) & mask;
+        }
+        int free = slot;
+        for (int next = (free + 1) & mask; slotAt(next) != 0; next = (next + 1) & mask) {
+            int home = hash(idAt(slotAt(next) - 1)) & mask;
+            // Move the entry back unless its home lies cyclically between the free slot and its current slot
+            boolean between = free <= next ? free < home && home <= next : free < home || home <= next;
+            if (!between) {
+                setSlot(free, slotAt(next));
+                free = next;
+            }
+        }
+        setSlot(free, 0);
+    }
+
+    /**
+     * Drops the cleared positions, writing the remaining ids to new chunks of the same capacity.
+     */
+    private void compact() {
+        int[][] compacted = new int[ids.length][];
+        for (int chunk = 0; chunk < ids.length; chunk++) {
+            compacted[chunk] = new int[ids[chunk].length];
+        }
+        int count = 0;
+        for (int i = 0; i < end; i++) {
+            int id = idAt(i);
+            if (id != Movie.NO_ID) {
+                compacted[count >>> CHUNK_BITS][count & CHUNK_MASK] = id;
+                count++;
+            }
+        }
+        ids = compacted;
+        ownsIds = new boolean[ids.length];
+        Arrays.fill(ownsIds, true);
+        end = count;
+        if (slots != null) {
+            rebuildSlots();
+        }
+    }
+
+    private void rebuildSlots() {
+        // At least twice the capacity of the ids, so the table is never more than half full
+        slotCount = Integer.highestOneBit(Math.max(LINEAR_LIMIT, capacity) - 1) << 2;
+        int chunkSize = Math.min(slotCount, CHUNK_SIZE);
+        slots = new int[slotCount / chunkSize][chunkSize];
+        ownsSlots = new boolean[slots.length];
+        Arrays.fill(ownsSlots, true);
+        for (int i = 0; i < end; i++) {
+            int id = idAt(i);
+            if (id != Movie.NO_ID) {
+                insertSlot(id, i);
+            }
+        }
+    }
+
+    private static int hash(int id) {
+        return id * 0x9E3779B9 >>> 7;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof MovieIdSet && Arrays.equals(toArray(), ((MovieIdSet) other).toArray());
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(toArray());
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+}
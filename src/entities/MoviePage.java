@@ -0,0 +1,84 @@
+package entities;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * One page of a sorted and filtered query of a {@link MovieDatabase}.
+ * The cursor of the next page remembers the sort key value and id of the last movie of this page rather than a row
+ * number, so the next page continues right after that movie even if movies were added or deleted in between.
+ *
+ * @param movies The movies of the page, in the order of the query.
+ * @param nextCursor The cursor of the next page, or null if this is the last page.
+ */
+public record MoviePage(List<Movie> movies, String nextCursor) {
+    // Fields of a decoded cursor: key, direction, id, value
+    private static final String SEPARATOR = "|";
+
+    /**
+     * Returns whether there is a page after this one.
+     *
+     * @return true if {@link #nextCursor()} can be passed on to get the next page.
+     */
+    public boolean hasNextPage() {
+        return nextCursor != null;
+    }
+
+    /**
+     * Creates the cursor of the page that follows a movie.
+     *
+     * @param key The sort key of the query.
+     * @param ascending The sort direction of the query.
+     * @param last The last movie of the current page.
+     * @return An opaque, URL-safe token.
+     */
+    static String cursorAfter(MovieSortKey key, boolean ascending, Movie last) {
+        String value = switch (key) {
+            case TITLE -> last.getTitle() == null ? "n" : "s" + last.getTitle();
+            case DIRECTOR -> last.getDirector() == null ? "n" : "s" + last.getDirector();
+            case RELEASE_YEAR -> "i" + last.getReleaseYear();
+            case RUNNING_TIME -> "i" + last.getRunningTime();
+        };
+        String cursor = key.name() + SEPARATOR + (ascending ? "A" : "D") + SEPARATOR + last.getId() + SEPARATOR + value;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes a cursor into a movie that has only the sort key value and the id of the movie the cursor follows, which
+     * is enough to compare it with the key's comparator.
+     *
+     * @param cursor A cursor created by {@link #cursorAfter(MovieSortKey, boolean, Movie)}.
+     * @param key The sort key of the query.
+     * @param ascending The sort direction of the query.
+     * @return The movie to continue after.
+     * @throws IllegalArgumentException if the cursor is malformed or belongs to a query with another order.
+     */
+    static Movie decodeCursor(String cursor, MovieSortKey key, boolean ascending) {
+        String[] fields;
+        try {
+            fields = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("\\|", 4);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Malformed cursor " + cursor, e);
+        }
+        if (fields.length != 4 || fields[3].isEmpty()) {
+            throw new IllegalArgumentException("Malformed cursor " + cursor);
+        }
+        if (!fields[0].equals(key.name()) || !fields[1].equals(ascending ? "A" : "D")) {
+            throw new IllegalArgumentException("The cursor belongs to a query sorted by " + fields[0] + " " + fields[1]);
+        }
+        try {
+            int id = Integer.parseInt(fields[2]);
+            String text = fields[3].charAt(0) == 's' ? fields[3].substring(1) : null;
+            int number = fields[3].charAt(0) == 'i' ? Integer.parseInt(fields[3].substring(1)) : 0;
+            return switch (key) {
+                case TITLE -> new Movie(id, text, null, 0, 0);
+                case DIRECTOR -> new Movie(id, null, text, 0, 0);
+                case RELEASE_YEAR -> new Movie(id, null, null, number, 0);
+                case RUNNING_TIME -> new Movie(id, null, null, 0, number);
+            };
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed cursor " + cursor, e);
+        }
+    }
+}
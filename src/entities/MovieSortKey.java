@@ -0,0 +1,41 @@
+package entities;
+
+import java.util.Comparator;
+import java.util.function.ToIntFunction;
+
+/**
+ * The attributes movies can be sorted by. The MovieDatabase keeps a sorted order of its movies for each of them.
+ */
+public enum MovieSortKey {
+    TITLE(Comparator.comparing(Movie::getTitle, Comparator.nullsFirst(Comparator.naturalOrder())), null),
+    DIRECTOR(Comparator.comparing(Movie::getDirector, Comparator.nullsFirst(Comparator.naturalOrder())), null),
+    RELEASE_YEAR(Comparator.comparingInt(Movie::getReleaseYear), Movie::getReleaseYear),
+    RUNNING_TIME(Comparator.comparingInt(Movie::getRunningTime), Movie::getRunningTime);
+
+    private final Comparator<Movie> comparator;
+    private final ToIntFunction<Movie> intValue;
+
+    MovieSortKey(Comparator<Movie> comparator, ToIntFunction<Movie> intValue) {
+        // Movies with equal values are ordered by id, so every movie has exactly one position in the order
+        this.comparator = comparator.thenComparingInt(Movie::getId);
+        this.intValue = intValue;
+    }
+
+    /**
+     * Returns the ascending order of this key. Movies with equal values are ordered by id.
+     *
+     * @return The comparator.
+     */
+    public Comparator<Movie> comparator() {
+        return comparator;
+    }
+
+    /**
+     * Returns the value of an int key, which allows sorting without comparing movies.
+     *
+     * @return The value of the key, or null if the key is not an int.
+     */
+    ToIntFunction<Movie> intValue() {
+        return intValue;
+    }
+}
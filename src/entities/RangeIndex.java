@@ -0,0 +1,114 @@
+package entities;
+
+import java.util.Arrays;
+
+/**
+ * A secondary index from an int key, such as the release year, to the sequence numbers of the movies with that key,
+ * used by the {@link MovieDatabaseSnapshot}. The keys are kept in a sorted array, so a range query finds its first
+ * bucket with a binary search and walks the buckets up to the end of the range. Each bucket is an ascending
+ * {@link IntChunkList}. Keys take few distinct values, so an {@link #edit()} copy copies the arrays of keys and buckets
+ * and then only the chunks of the buckets it changes. Once {@link #freeze() frozen}, an index never changes.
+ */
+final class RangeIndex {
+    static final RangeIndex EMPTY = new RangeIndex(new int[0], new IntChunkList[0], 0);
+
+    private int[] keys;
+    private IntChunkList[] buckets;
+    private int keyCount;
+    // Whether this copy may change the keys and buckets; false once frozen
+    private boolean editing;
+
+    private RangeIndex(int[] keys, IntChunkList[] buckets, int keyCount) {
+        this.keys = keys;
+        this.buckets = buckets;
+        this.keyCount = keyCount;
+    }
+
+    /**
+     * Returns a changeable copy of this index, which shares all buckets with it.
+     */
+    RangeIndex edit() {
+        int capacity = Math.max(8, keyCount + 1);
+        RangeIndex copy = new RangeIndex(Arrays.copyOf(keys, capacity), Arrays.copyOf(buckets, capacity), keyCount);
+        copy.editing = true;
+        return copy;
+    }
+
+    /**
+     * Makes this index and all its buckets immutable.
+     */
+    RangeIndex freeze() {
+        if (editing) {
+            for (int i = 0; i < keyCount; i++) {
+                buckets[i].freeze();
+            }
+            editing = false;
+        }
+        return this;
+    }
+
+    /**
+     * Returns the buckets of all keys in the given inclusive range, in key order.
+     */
+    IntChunkList[] range(int from, int to) {
+        if (from > to) {
+            return new IntChunkList[0];
+        }
+        int first = Arrays.binarySearch(keys, 0, keyCount, from);
+        first = first >= 0 ? first : -first - 1;
+        int end = first;
+        while (end < keyCount && keys[end] <= to) {
+            end++;
+        }
+        return Arrays.copyOfRange(buckets, first, end);
+    }
+
+    /**
+     * Adds a sequence number to the bucket of a key.
+     */
+    void add(int key, int seq) {
+        int position = Arrays.binarySearch(keys, 0, keyCount, key);
+        if (position < 0) {
+            position = -position - 1;
+            if (keyCount == keys.length) {
+                keys = Arrays.copyOf(keys, keyCount * 2);
+                buckets = Arrays.copyOf(buckets, keyCount * 2);
+            }
+            System.arraycopy(keys, position, keys, position + 1, keyCount - position);
+            System.arraycopy(buckets, position, buckets, position + 1, keyCount - position);
+            keys[position] = key;
+            buckets[position] = IntChunkList.EMPTY;
+            keyCount++;
+        }
+        writable(position).addSorted(seq);
+    }
+
+    /**
+     * Removes a sequence number from the bucket of a key, dropping the key once its bucket is empty.
+     */
+    void remove(int key, int seq) {
+        int position = Arrays.binarySearch(keys, 0, keyCount, key);
+        if (position < 0) {
+            return;
+        }
+        IntChunkList bucket = writable(position);
+        if (bucket.removeSorted(seq) && bucket.size() == 0) {
+            System.arraycopy(keys, position + 1, keys, position, keyCount - position - 1);
+            System.arraycopy(buckets, position + 1, buckets, position, keyCount - position - 1);
+            keyCount--;
+            buckets[keyCount] = null;
+        }
+    }
+
+    private IntChunkList writable(int position) {
+        if (!editing) {
+            throw new UnsupportedOperationException("The index is frozen, change an edit() copy instead");
+        }
+        IntChunkList bucket = buckets[position];
+        if (bucket.isFrozen()) {
+            bucket = bucket.edit();
+            buckets[position] = bucket;
+        }
+        return bucket;
+    }
+}
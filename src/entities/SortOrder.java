@@ -0,0 +1,194 @@
+package entities;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * The ids of all movies of a database in the ascending order of one sort key.
+ * The order is sorted once when it is first needed and from then on kept up to date on every insert and delete, which
+ * binary-search the movie's position in an {@link IntChunkList}, so a change copies one chunk of ids rather than the
+ * whole order. Descending order is the same list walked backwards. Int keys are sorted as primitive longs holding the
+ * value and the id, without comparing movies. Like its list, an order is changed through an {@link #edit()} copy and
+ * never changes once {@link #freeze() frozen}.
+ */
+final class SortOrder {
+    private static final int[] NO_IDS = new int[0];
+
+    private final Comparator<Movie> comparator;
+    private IntChunkList ids;
+
+    private SortOrder(MovieSortKey key, IntChunkList ids) {
+        this.comparator = key.comparator();
+        this.ids = ids;
+    }
+
+    /**
+     * Sorts the given movies, the whole database.
+     *
+     * @param key The key to sort by.
+     * @param movies All movies of the database.
+     * @return The frozen order.
+     */
+    static SortOrder build(MovieSortKey key, Collection<Movie> movies) {
+        ToIntFunction<Movie> intValue = key.intValue();
+        int[] sortedIds = new int[movies.size()];
+        if (intValue != null) {
+            // The value in the high half and the id in the low half sort like the comparator
+            long[] packed = new long[sortedIds.length];
+            int count = 0;
+            for (Movie movie : movies) {
+                packed[count++] = (long) intValue.applyAsInt(movie) << 32 | movie.getId();
+            }
+            Arrays.sort(packed);
+            for (int i = 0; i < sortedIds.length; i++) {
+                sortedIds[i] = (int) packed[i];
+            }
+        } else {
+            Movie[] sorted = movies.toArray(new Movie[0]);
+            Arrays.sort(sorted, key.comparator());
+            for (int i = 0; i < sortedIds.length; i++) {
+                sortedIds[i] = sorted[i].getId();
+            }
+        }
+        return new SortOrder(key, IntChunkList.of(sortedIds, sortedIds.length));
+    }
+
+    /**
+     * Returns a changeable copy of this order, which shares all chunks of ids with it.
+     */
+    SortOrder edit(MovieSortKey key) {
+        return new SortOrder(key, ids.edit());
+    }
+
+    /**
+     * Makes this order immutable, so it can be handed to other threads.
+     */
+    SortOrder freeze() {
+        ids.freeze();
+        return this;
+    }
+
+    /**
+     * Inserts a movie at its position.
+     *
+     * @param movie The movie.
+     * @param moviesById Looks up the movies of the order by id.
+     */
+    void add(Movie movie, IntFunction<Movie> moviesById) {
+        ids.insert(-search(movie, moviesById) - 1, movie.getId());
+    }
+
+    /**
+     * Removes a movie.
+     *
+     * @param movie The movie.
+     * @param moviesById Looks up the movies of the order by id, which must still find the movie.
+     */
+    void remove(Movie movie, IntFunction<Movie> moviesById) {
+        int position = search(movie, moviesById);
+        if (position >= 0) {
+            ids.remove(position);
+        }
+    }
+
+    /**
+     * Returns the ids of all movies in order.
+     *
+     * @param ascending true for ascending order, false for descending order.
+     * @return A new array of the ids.
+     */
+    int[] toArray(boolean ascending) {
+        int[] result = ids.toArray();
+        if (!ascending) {
+            reverse(result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the given ids in order, by walking the order and keeping the wanted ids.
+     *
+     * @param wanted The ids to keep.
+     * @param ascending true for ascending order, false for descending order.
+     * @return A new array of the kept ids.
+     */
+    int[] filter(MovieIdSet wanted, boolean ascending) {
+        int count = wanted.size();
+        if (count == 0) {
+            return NO_IDS;
+        }
+        int[] result = new int[count];
+        int found = 0;
+        for (int i = 0; i < ids.size() && found < count; i++) {
+            int id = ids.get(i);
+            if (wanted.contains(id)) {
+                result[found++] = id;
+            }
+        }
+        if (found < count) {
+            result = Arrays.copyOf(result, found);
+        }
+        if (!ascending) {
+            reverse(result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of movies in the order.
+     */
+    int size() {
+        return ids.size();
+    }
+
+    /**
+     * Returns the id at a position of the ascending order.
+     */
+    int idAt(int position) {
+        return ids.get(position);
+    }
+
+    /**
+     * Returns the position of the first movie that comes after the given one in ascending order. The given movie does
+     * not have to be in the order, for example when it was deleted since a page ended with it.
+     *
+     * @param movie The movie, or a movie with just the key value and the id of one.
+     * @param moviesById Looks up the movies of the order by id.
+     * @return The position, size() if no movie comes after it.
+     */
+    int positionAfter(Movie movie, IntFunction<Movie> moviesById) {
+        int position = search(movie, moviesById);
+        return position >= 0 ? position + 1 : -position - 1;
+    }
+
+    /**
+     * Returns the position of the last movie that comes before the given one in ascending order, like
+     * {@link #positionAfter(Movie, IntFunction)}.
+     *
+     * @return The position, -1 if no movie comes before it.
+     */
+    int positionBefore(Movie movie, IntFunction<Movie> moviesById) {
+        int position = search(movie, moviesById);
+        return position >= 0 ? position - 1 : -position - 2;
+    }
+
+    /**
+     * Binary-searches a movie.
+     *
+     * @return The position of the movie, or (-(insertion point) - 1) if it is not in the order.
+     */
+    private int search(Movie movie, IntFunction<Movie> moviesById) {
+        return ids.search(id -> comparator.compare(moviesById.apply(id), movie));
+    }
+
+    private static void reverse(int[] array) {
+        for (int i = 0, j = array.length - 1; i < j; i++, j--) {
+            int swap = array[i];
+            array[i] = array[j];
+            array[j] = swap;
+        }
+    }
+}
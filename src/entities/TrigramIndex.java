@@ -0,0 +1,313 @@
+package entities;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * An inverted index from the character trigrams of a movie's title and director to the movies containing them.
+ * Substring queries intersect the posting lists of the query's trigrams and then check only the remaining candidates,
+ * instead of lower-casing and scanning the title and director of every movie. The single characters and character
+ * pairs of the text are indexed as well, so a query of one or two characters reads one posting list instead of
+ * scanning. Letter case is ignored on both the indexed text and the query.
+ * <p>
+ * Movies are indexed under their sequence number in a {@link MovieDatabaseSnapshot}, which grows with the insertion
+ * order, so posting lists are ascending {@link IntChunkList}s and new movies are appended to them. They are kept in an
+ * open-addressing table keyed by the packed gram, so no boxing happens while indexing or searching. The slots of the
+ * table are chunked like the lists: an index is changed through an {@link #edit()} copy, which copies only the chunks
+ * of slots and of posting lists it touches, and once {@link #freeze() frozen} it never changes.
+ */
+final class TrigramIndex {
+    private static final int GRAM_LENGTH = 3;
+    private static final long NO_KEY = -1L; // Packed grams only use the lower 50 bits
+    // Tags in the bits above the three chars of a trigram, so grams of different lengths never share a key
+    private static final long BIGRAM = 1L << 48;
+    private static final long UNIGRAM = 2L << 48;
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    static final TrigramIndex EMPTY = new TrigramIndex(1024);
+
+    // Open-addressing table: packed gram -> ascending posting list of sequence numbers
+    private long[][] keys;
+    private IntChunkList[][] postings;
+    private int gramCount;
+    // The chunks of slots this copy may change in place, and the posting lists it changed; null once frozen
+    private boolean[] copied;
+    private List<IntChunkList> edited;
+
+    private TrigramIndex(int slotCount) {
+        clearTable(slotCount);
+        copied = null;
+    }
+
+    private TrigramIndex(TrigramIndex original) {
+        keys = original.keys.clone();
+        postings = original.postings.clone();
+        gramCount = original.gramCount;
+        copied = new boolean[keys.length];
+        edited = new ArrayList<>();
+    }
+
+    /**
+     * Returns a changeable copy of this index, which shares all chunks and posting lists with it.
+     */
+    TrigramIndex edit() {
+        return new TrigramIndex(this);
+    }
+
+    /**
+     * Makes this index and all its posting lists immutable.
+     */
+    TrigramIndex freeze() {
+        if (edited != null) {
+            for (IntChunkList posting : edited) {
+                posting.freeze();
+            }
+        }
+        copied = null;
+        edited = null;
+        return this;
+    }
+
+    /**
+     * Indexes the title and director of a movie under a sequence number, which is usually higher than all others.
+     *
+     * @param movie The movie to index.
+     * @param seq The sequence number of the movie.
+     */
+    void add(Movie movie, int seq) {
+        indexText(movie.getTitle(), seq, true);
+        indexText(movie.getDirector(), seq, true);
+    }
+
+    /**
+     * Takes a movie out of the posting lists of its title and director.
+     *
+     * @param movie The indexed movie.
+     * @param seq The sequence number it is indexed under.
+     */
+    void remove(Movie movie, int seq) {
+        indexText(movie.getTitle(), seq, false);
+        indexText(movie.getDirector(), seq, false);
+    }
+
+    /**
+     * Finds the movies whose title or director contains the given text, ignoring case.
+     * Queries of one or two characters read the posting list of that gram, longer ones intersect those of their
+     * trigrams.
+     *
+     * @param text The text to search for, not empty.
+     * @param moviesBySeq Looks up the indexed movies by sequence number.
+     * @return The matching movies, in the order of their sequence numbers.
+     */
+    List<Movie> search(String text, IntFunction<Movie> moviesBySeq) {
+        List<Movie> result = new ArrayList<>();
+        String query = lowerCase(text);
+
+        // Look up the posting list of every query gram, ordered from the shortest to the longest
+        int gramLength = Math.min(query.length(), GRAM_LENGTH);
+        int gramTotal = query.length() - gramLength + 1;
+        IntChunkList[] lists = new IntChunkList[gramTotal];
+        for (int i = 0; i < gramTotal; i++) {
+            int slot = find(pack(query, i, gramLength));
+            if (keyAt(slot) == NO_KEY) {
+                return result; // Some gram occurs nowhere, so nothing can match
+            }
+            lists[i] = postingAt(slot);
+        }
+        Arrays.sort(lists, Comparator.comparingInt(IntChunkList::size));
+
+        // Intersect: every candidate of the shortest list is probed in the others with a forward-moving cursor
+        int[] candidates = lists[0].toArray();
+        IntChunkList.Cursor[] cursors = new IntChunkList.Cursor[gramTotal];
+        for (int l = 1; l < gramTotal; l++) {
+            cursors[l] = lists[l].cursor();
+        }
+        candidates:
+        for (int seq : candidates) {
+            for (int l = 1; l < gramTotal; l++) {
+                if (lists[l] == lists[l - 1]) {
+                    continue; // Repeated gram in the query
+                }
+                if (!cursors[l].skipTo(seq)) {
+                    continue candidates;
+                }
+            }
+            // The trigrams may come from different fields or positions, so confirm the actual substring
+            Movie movie = moviesBySeq.apply(seq);
+            if (matches(movie, query)) {
+                result.add(movie);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns whether the title or director of a movie contains an already lower-cased query.
+     */
+    private static boolean matches(Movie movie, String query) {
+        return containsLowerCase(movie.getTitle(), query) || containsLowerCase(movie.getDirector(), query);
+    }
+
+    /**
+     * Case-insensitive substring check that lower-cases the text character by character instead of allocating a copy.
+     *
+     * @param text The text to search in, may be null.
+     * @param query The lower-cased text to search for.
+     * @return true if {@code text} contains {@code query} ignoring case.
+     */
+    private static boolean containsLowerCase(String text, String query) {
+        if (text == null) {
+            return false;
+        }
+        int last = text.length() - query.length();
+        outer:
+        for (int start = 0; start <= last; start++) {
+            for (int i = 0; i < query.length(); i++) {
+                if (Character.toLowerCase(text.charAt(start + i)) != query.charAt(i)) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Adds a sequence number to, or removes it from, the posting lists of every gram of a text.
+     */
+    private void indexText(String text, int seq, boolean add) {
+        if (text == null) {
+            return;
+        }
+        String lower = lowerCase(text);
+        for (int length = 1; length <= GRAM_LENGTH; length++) {
+            for (int i = 0; i + length <= lower.length(); i++) {
+                long gram = pack(lower, i, length);
+                if (add) {
+                    writablePosting(gram).addSorted(seq);
+                } else if (keyAt(find(gram)) != NO_KEY) {
+                    // Emptied lists stay, the gram is likely to come back
+                    writablePosting(gram).removeSorted(seq);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the posting list of a gram that this copy may change, adding the gram if the table does not have it.
+     */
+    private IntChunkList writablePosting(long gram) {
+        if (copied == null) {
+            throw new UnsupportedOperationException("The index is frozen, change an edit() copy instead");
+        }
+        int slot = find(gram);
+        if (keyAt(slot) == NO_KEY) {
+            set(slot, gram, IntChunkList.EMPTY);
+            gramCount++;
+            if (gramCount * 2 > slotCount()) {
+                grow();
+                slot = find(gram);
+            }
+        }
+        IntChunkList posting = postingAt(slot);
+        if (posting.isFrozen()) {
+            posting = posting.edit();
+            edited.add(posting);
+            set(slot, gram, posting);
+        }
+        return posting;
+    }
+
+    private long keyAt(int slot) {
+        return keys[slot >>> CHUNK_BITS][slot & CHUNK_MASK];
+    }
+
+    private IntChunkList postingAt(int slot) {
+        return postings[slot >>> CHUNK_BITS][slot & CHUNK_MASK];
+    }
+
+    private int slotCount() {
+        return keys.length == 1 ? keys[0].length : keys.length << CHUNK_BITS;
+    }
+
+    private void set(int slot, long gram, IntChunkList posting) {
+        int index = slot >>> CHUNK_BITS;
+        if (!copied[index]) {
+            keys[index] = keys[index].clone();
+            postings[index] = postings[index].clone();
+            copied[index] = true;
+        }
+        keys[index][slot & CHUNK_MASK] = gram;
+        postings[index][slot & CHUNK_MASK] = posting;
+    }
+
+    /**
+     * Returns the slot holding a gram, or the empty slot where it would be inserted.
+     */
+    private int find(long gram) {
+        int mask = slotCount() - 1;
+        int slot = (int) (gram ^ (gram >>> 21) ^ (gram >>> 37)) * 0x9E3779B9 & mask;
+        while (keyAt(slot) != NO_KEY && keyAt(slot) != gram) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Doubles the capacity of the gram table.
+     */
+    private void grow() {
+        long[][] oldKeys = keys;
+        IntChunkList[][] oldPostings = postings;
+        clearTable(slotCount() * 2);
+        for (int index = 0; index < oldKeys.length; index++) {
+            for (int offset = 0; offset < oldKeys[index].length; offset++) {
+                if (oldKeys[index][offset] != NO_KEY) {
+                    set(find(oldKeys[index][offset]), oldKeys[index][offset], oldPostings[index][offset]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the gram table with an empty one of the given power-of-two capacity, owned by this copy.
+     */
+    private void clearTable(int slotCount) {
+        int chunkLength = Math.min(slotCount, CHUNK_SIZE);
+        keys = new long[slotCount / chunkLength][chunkLength];
+        for (long[] chunk : keys) {
+            Arrays.fill(chunk, NO_KEY);
+        }
+        postings = new IntChunkList[keys.length][chunkLength];
+        copied = new boolean[keys.length];
+        Arrays.fill(copied, true);
+    }
+
+    /**
+     * Packs the one to three chars of a text starting at the given position into one long, tagged with their number.
+     */
+    private static long pack(String text, int start, int length) {
+        return switch (length) {
+            case 1 -> UNIGRAM | text.charAt(start);
+            case 2 -> BIGRAM | ((long) text.charAt(start) << 16) | text.charAt(start + 1);
+            default -> ((long) text.charAt(start) << 32) | ((long) text.charAt(start + 1) << 16)
+                    | text.charAt(start + 2);
+        };
+    }
+
+    /**
+     * Lower-cases a text char by char, matching the comparison used by {@link #containsLowerCase(String, String)}.
+     */
+    private static String lowerCase(String text) {
+        char[] chars = text.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(chars[i]);
+        }
+        return new String(chars);
+    }
+}
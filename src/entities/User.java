@@ -1,14 +1,15 @@
 package entities;
 
-import java.io.*;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 
 /**
  * Represents a user with a username and password.
  * Provides static methods for user registration and login, utilizing a file-based storage system.
  */
 public class User {
+    private static final CredentialStore CREDENTIALS = new CredentialStore(Path.of("src/resources/users.txt"));
+
     private String username;
     private String password;
 
@@ -67,70 +68,27 @@ public class User {
      *
      * @param username The username for the new user.
      * @param password The password for the new user.
-     * @return true if registration is successful, false if the username already exists.
+     * @return true if registration is successful, false if the username already exists or cannot be saved.
      */
     public static boolean register(String username, String password) {
-        Map<String, String> users = loadUsers();
-        if (users.containsKey(username)) {
+        try {
+            return CREDENTIALS.register(username, password);
+        } catch (UncheckedIOException e) {
+            e.printStackTrace();
+            System.out.println("Problem with saving the user!");
             return false;
         }
-        users.put(username, password);
-        saveUsers(users);
-        return true;
     }
 
     /**
      * Attempts to log in a user with the provided username and password.
+     * The users are kept in memory and only read again when the users file changed.
      *
      * @param username The username of the user trying to log in.
      * @param password The password of the user.
      * @return true if login is successful, false otherwise.
      */
     public static boolean login(String username, String password) {
-        Map<String, String> users = loadUsers();
-        return password.equals(users.get(username));
-    }
-
-    /**
-     * Loads users from a file into a Map.
-     * The file format is expected to be 'username:password' with each user on a new line.
-     *
-     * @return A Map containing usernames as keys and passwords as values.
-     */
-    private static Map<String, String> loadUsers() {
-        Map<String, String> users = new HashMap<>();
-        try (BufferedReader reader = new BufferedReader(new FileReader("src/resources/users.txt"))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(":");
-                String username = parts[0].replaceAll("\"", ""); // Remove quotes
-                String password = parts[1].replaceAll("\"", ""); // Remove quotes
-                users.put(username, password);
-            }
-            System.out.println(users);
-        } catch (IOException e) {
-            e.printStackTrace();
-            System.out.println("Problem with loading the users!");
-        }
-        return users;
-    }
-
-    /**
-     * Saves the current state of users to a file.
-     * Each user is written in the format 'username:password' with each user on a new line.
-     *
-     * @param users A Map containing usernames as keys and passwords as values.
-     */
-    private static void saveUsers(Map<String, String> users) {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter("src/resources/users.txt"))) {
-            for (Map.Entry<String, String> entry : users.entrySet()) {
-                String username = "\"" + entry.getKey() + "\""; // Add quotes
-                String password = "\"" + entry.getValue() + "\""; // Add quotes
-                writer.write(username + ":" + password);
-                writer.newLine();
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        return CREDENTIALS.login(username, password);
     }
 }
@@ -0,0 +1,159 @@
+package entities;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Collects watchlist changes for any number of users, which {@link WatchListDatabase#apply(WatchListBatch)} then
+ * applies and persists in one write. The changes of a user take effect in the order they were added to the batch.
+ * A batch is not safe for concurrent use while it is being filled.
+ */
+public class WatchListBatch {
+    private final Map<String, UserChanges> changes = new LinkedHashMap<>();
+
+    /**
+     * The changes of one user: an optional replacement of the whole watchlist followed by additions and removals,
+     * kept as positive ids for additions and negated ids for removals.
+     */
+    private static final class UserChanges {
+        private MovieIdSet replacement;
+        private int[] operations = new int[4];
+        private int count;
+
+        private void append(int operation) {
+            if (count == operations.length) {
+                operations = Arrays.copyOf(operations, count * 2);
+            }
+            operations[count++] = operation;
+        }
+    }
+
+    /**
+     * Adds a movie to a user's watchlist.
+     *
+     * @param username The username of the user.
+     * @param movieId The id of the movie to add.
+     * @return This batch.
+     * @throws IllegalArgumentException if the movie id is not positive.
+     */
+    public WatchListBatch add(String username, int movieId) {
+        changesOf(username).append(checkId(movieId));
+        return this;
+    }
+
+    /**
+     * Adds movies to a user's watchlist.
+     *
+     * @param username The username of the user.
+     * @param movieIds The ids of the movies to add, in order.
+     * @return This batch.
+     * @throws IllegalArgumentException if a movie id is not positive.
+     */
+    public WatchListBatch addAll(String username, int... movieIds) {
+        UserChanges userChanges = changesOf(username);
+        for (int movieId : movieIds) {
+            userChanges.append(checkId(movieId));
+        }
+        return this;
+    }
+
+    /**
+     * Removes a movie from a user's watchlist.
+     *
+     * @param username The username of the user.
+     * @param movieId The id of the movie to remove.
+     * @return This batch.
+     * @throws IllegalArgumentException if the movie id is not positive.
+     */
+    public WatchListBatch remove(String username, int movieId) {
+        changesOf(username).append(-checkId(movieId));
+        return this;
+    }
+
+    /**
+     * Removes movies from a user's watchlist.
+     *
+     * @param username The username of the user.
+     * @param movieIds The ids of the movies to remove.
+     * @return This batch.
+     * @throws IllegalArgumentException if a movie id is not positive.
+     */
+    public WatchListBatch removeAll(String username, int... movieIds) {
+        UserChanges userChanges = changesOf(username);
+        for (int movieId : movieIds) {
+            userChanges.append(-checkId(movieId));
+        }
+        return this;
+    }
+
+    /**
+     * Replaces a user's whole watchlist, discarding the user's earlier changes in this batch.
+     *
+     * @param username The username of the user.
+     * @param movieIds The ids of the new watchlist, in order. Duplicates are ignored.
+     * @return This batch.
+     * @throws IllegalArgumentException if a movie id is not positive.
+     */
+    public WatchListBatch replace(String username, int... movieIds) {
+        UserChanges userChanges = changesOf(username);
+        userChanges.replacement = MovieIdSet.of(movieIds);
+        userChanges.count = 0;
+        return this;
+    }
+
+    /**
+     * Returns whether the batch holds no changes.
+     *
+     * @return true if no user has changes in this batch.
+     */
+    public boolean isEmpty() {
+        return changes.isEmpty();
+    }
+
+    /**
+     * Returns the users with changes in this batch.
+     *
+     * @return The usernames in the order they were first changed.
+     */
+    Set<String> usernames() {
+        return changes.keySet();
+    }
+
+    /**
+     * Applies the changes of a user to a watchlist.
+     *
+     * @param username The username of the user.
+     * @param watchlist The current watchlist, or null if the user has none. It is not modified.
+     * @return The new watchlist.
+     */
+    MovieIdSet applyTo(String username, MovieIdSet watchlist) {
+        UserChanges userChanges = changes.get(username);
+        MovieIdSet result = userChanges.replacement != null ? userChanges.replacement.copy()
+                : watchlist != null ? watchlist.copy() : new MovieIdSet();
+        for (int i = 0; i < userChanges.count; i++) {
+            int operation = userChanges.operations[i];
+            if (operation > 0) {
+                result.add(operation);
+            } else {
+                result.remove(-operation);
+            }
+        }
+        return result;
+    }
+
+    private UserChanges changesOf(String username) {
+        if (username == null) {
+            throw new IllegalArgumentException("Username must not be null");
+        }
+        return changes.computeIfAbsent(username, k -> new UserChanges());
+    }
+
+    private static int checkId(int movieId) {
+        if (movieId <= Movie.NO_ID) {
+            throw new IllegalArgumentException("Movie ids must be positive: " + movieId);
+        }
+        return movieId;
+    }
+}
@@ -0,0 +1,20 @@
+package entities;
+
+/**
+ * Summarizes how one user's watchlist changed, so a view can be updated without reloading the whole watchlist.
+ *
+ * @param username The username of the user.
+ * @param added The ids of the movies that were added, in the order they now appear in the watchlist.
+ * @param removed The ids of the movies that were removed, in the order they appeared in the watchlist.
+ */
+public record WatchListChange(String username, int[] added, int[] removed) {
+
+    /**
+     * Returns whether the watchlist stayed the same.
+     *
+     * @return true if no movie was added or removed.
+     */
+    public boolean isEmpty() {
+        return added.length == 0 && removed.length == 0;
+    }
+}
@@ -2,97 +2,307 @@ package entities;
 
 import javax.swing.*;
 import javax.swing.table.DefaultTableModel;
-import java.io.*;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 
 /**
  * Manages a database of user watchlists, with functionality to load, save, add, and remove movies.
- * Each user's watchlist is stored as a list of movie titles.
+ * Each user's watchlist is stored as a compact set of movie ids; titles are resolved through the {@link MovieDatabase}
+ * only when a watchlist is displayed. How the watchlists are persisted is up to a {@link WatchListStore}; by default
+ * each user's watchlist is read from a hash file next to watchlistdb.txt when it is first needed, and changes are
+ * written to it in the background.
+ * <p>
+ * The database is safe for concurrent use by several sessions. Watchlists live in a concurrent map as frozen id sets
+ * that never change once published there: a change takes a copy, which shares all chunks of the published set, changes
+ * the copy, which copies only the chunks it touches, and publishes it frozen. Readers and the store therefore always
+ * see a consistent watchlist without taking a lock, and a change costs the same for long and short watchlists.
+ * Changes of the same user are serialized by one of a fixed number of striped locks, which also keeps the store's view
+ * of the user in order, while changes of users on other stripes run in parallel. Every change is also published through {@link #changes()}.
+ * <p>
+ * The database owns its store: {@link #close()} persists the pending changes and releases the store's files and
+ * threads, for example when the user logs out.
  */
-public class WatchListDatabase {
+public class WatchListDatabase implements Closeable {
     private static final String WATCHLIST_FILE = "src/resources/watchlistdb.txt";
-    final private Map<String, List<String>> userWatchlists;
+    private static final int LOCK_STRIPES = 64;
+    final private Map<String, MovieIdSet> userWatchlists;
+    private final ReentrantLock[] locks;
+    private final MovieDatabase movieDatabase;
+    private final WatchListStore store;
+    private final SubmissionPublisher<WatchListChange> changes = new SubmissionPublisher<>();
 
     /**
-     * Constructs a new WatchListDatabase and loads existing watchlists from a file.
+     * Constructs a new WatchListDatabase on the hash file next to watchlistdb.txt, which is built from watchlistdb.txt
+     * on first use. Watchlists are read when they are first needed.
+     *
+     * @param movieDatabase The movies the watchlists refer to.
+     * @throws UncheckedIOException if the hash file cannot be opened or built.
+     */
+    public WatchListDatabase(MovieDatabase movieDatabase) {
+        this(movieDatabase, openDefaultStoreUnchecked(movieDatabase));
+    }
+
+    /**
+     * Opens the default store: the hash file next to watchlistdb.txt, built from watchlistdb.txt on first use, with
+     * changes written in the background. Opening it may take a while the first time, so callers that must stay
+     * responsive can open it on another thread and pass it to {@link #WatchListDatabase(MovieDatabase, WatchListStore)}.
+     * If watchlistdb.txt still lists movie titles, it is migrated to movie ids before the hash file is built from it.
+     *
+     * @param catalog Supplies the movies to migrate titles with. It is only asked if a migration is needed, so the
+     *                store can be opened while the catalog is still loading.
+     * @return The opened store.
+     * @throws IOException if the hash file cannot be opened or built.
+     */
+    public static WatchListStore openDefaultStore(Supplier<MovieDatabase> catalog) throws IOException {
+        Path watchlistFile = Path.of(WATCHLIST_FILE);
+        if (!Files.exists(IndexedWatchListStore.indexPath(watchlistFile))) {
+            WatchListFileStore.migrate(watchlistFile, catalog);
+        }
+        return new WriteBehindWatchListStore(new IndexedWatchListStore(watchlistFile));
+    }
+
+    private static WatchListStore openDefaultStoreUnchecked(MovieDatabase movieDatabase) {
+        try {
+            return openDefaultStore(() -> movieDatabase);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open the watchlist hash file", e);
+        }
+    }
+
+    /**
+     * Constructs a new WatchListDatabase and loads existing watchlists from a store.
+     *
+     * @param movieDatabase The movies the watchlists refer to.
+     * @param store The store that persists the watchlists, which is closed with the database.
      */
-    public WatchListDatabase() {
-        userWatchlists = new HashMap<>();
+    public WatchListDatabase(MovieDatabase movieDatabase, WatchListStore store) {
+        this.movieDatabase = movieDatabase;
+        this.store = store;
+        userWatchlists = new ConcurrentHashMap<>();
+        locks = new ReentrantLock[LOCK_STRIPES];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
         loadWatchlists();
     }
 
     /**
-     * Loads watchlists from a file. The file format is expected to be 'username==>movie1,,movie2' with each user on a new line.
+     * Loads watchlists from the store.
      */
     private void loadWatchlists() {
-        try (BufferedReader reader = new BufferedReader(new FileReader(WATCHLIST_FILE))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split("==>");
-                if (parts.length >= 2) {
-                    String username = parts[0];
-                    List<String> movies = new ArrayList<>();
-                    if (!parts[1].isEmpty()) {
-                        Collections.addAll(movies, parts[1].split(",,"));
-                    }
-                    userWatchlists.put(username, movies);
-                }
-            }
+        try {
+            store.load().forEach((username, watchlist) -> userWatchlists.put(username, watchlist.freeze()));
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
     /**
-     * Saves the current state of all user watchlists to a file.
-     * Each user's watchlist is written in the format 'username==>movie1,,movie2' with each user on a new line.
+     * Returns a user's watchlist. Stores that read watchlists lazily are asked for it on first access.
+     *
+     * @param username The username of the user.
+     * @return The user's watchlist, or null if the user has none.
+     * @throws UncheckedIOException if the store cannot read the watchlist. Changing a watchlist that could not be
+     *         read would overwrite the stored one, so this is not treated like a missing watchlist.
      */
-    public void saveWatchlists() {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(WATCHLIST_FILE))) {
-            for (Map.Entry<String, List<String>> entry : userWatchlists.entrySet()) {
-                writer.write(entry.getKey() + "==>" + String.join(",,", entry.getValue()));
-                writer.newLine();
+    private MovieIdSet watchlistOf(String username) {
+        MovieIdSet watchlist = userWatchlists.get(username);
+        if (watchlist == null) {
+            try {
+                watchlist = store.loadUser(username);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not load the watchlist of " + username, e);
+            }
+            if (watchlist != null) {
+                // A concurrent change may have published the user first, its watchlist is newer
+                MovieIdSet published = userWatchlists.putIfAbsent(username, watchlist.freeze());
+                return published == null ? watchlist : published;
             }
+        }
+        return watchlist;
+    }
+
+    /**
+     * Returns the lock that serializes the changes of a user.
+     */
+    private ReentrantLock lockFor(String username) {
+        return locks[stripeOf(username)];
+    }
+
+    private static int stripeOf(String username) {
+        int hash = username.hashCode();
+        return (hash ^ (hash >>> 16)) & (LOCK_STRIPES - 1);
+    }
+
+    /**
+     * Saves the current state of all user watchlists to the store at once.
+     * Changes made meanwhile are not blocked; each user's watchlist is saved either before or after such a change.
+     */
+    public void saveWatchlists() {
+        try {
+            store.saveAll(userWatchlists);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
     /**
-     * Adds a movie to a user's watchlist and saves the updated watchlist.
+     * Waits until all changes are persisted. Call this before another WatchListDatabase loads the same watchlists.
+     */
+    public void flush() {
+        try {
+            store.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Persists all changes and closes the store, then tells the subscribers of {@link #changes()} that no more changes
+     * follow. The database cannot be changed afterwards.
+     */
+    @Override
+    public void close() {
+        try {
+            store.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        changes.close();
+    }
+
+    /**
+     * Returns the stream of changes of the watchlists. Every change is published to the subscribers as a
+     * {@link WatchListChange}, on a background thread; the changes of one user arrive in the order in which they were
+     * made. Every open view of a watchlist can subscribe, so a change made in one session shows up in all of them.
+     * Subscribers that update a user interface hand the changes on to its thread; none may wait for the database while
+     * receiving a change.
+     *
+     * @return The publisher of the changes.
+     */
+    public Flow.Publisher<WatchListChange> changes() {
+        return changes;
+    }
+
+    /**
+     * Adds a movie to a user's watchlist and persists the change.
      * If the movie is already in the watchlist, it is not added again.
      *
      * @param username The username of the user.
-     * @param movie The movie to be added to the watchlist.
+     * @param movieId The id of the movie to be added to the watchlist.
+     * @return true if the movie was added, false if it was already in the watchlist.
+     * @throws UncheckedIOException if the store cannot persist the change, which is then not made.
+     */
+    public boolean addMovieToWatchlist(String username, int movieId) {
+        ReentrantLock lock = lockFor(username);
+        lock.lock();
+        try {
+            MovieIdSet watchlist = watchlistOf(username);
+            if (watchlist != null && watchlist.contains(movieId)) {
+                return false;
+            }
+            MovieIdSet updated = watchlist == null ? new MovieIdSet() : watchlist.copy();
+            updated.add(movieId);
+            userWatchlists.put(username, updated.freeze());
+            try {
+                store.movieAdded(username, movieId, userWatchlists);
+            } catch (IOException e) {
+                restore(username, watchlist);
+                throw new UncheckedIOException("Could not save the watchlist of " + username, e);
+            }
+            changes.submit(new WatchListChange(username, new int[]{movieId}, new int[0]));
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds a movie to a user's watchlist by its title and persists the change.
+     * If the movie is already in the watchlist or not in the movie database, it is not added.
+     *
+     * @param username The username of the user.
+     * @param movie The title of the movie to be added to the watchlist.
+     * @throws UncheckedIOException if the store cannot persist the change, which is then not made.
      */
     public void addMovieToWatchlist(String username, String movie) {
-        List<String> watchlist = userWatchlists.computeIfAbsent(username, k -> new ArrayList<>());
-        if (!watchlist.contains(movie)) {
-            watchlist.add(movie);
-            saveWatchlists();
+        movieDatabase.getMovie(movie).ifPresent(found -> addMovieToWatchlist(username, found.getId()));
+    }
+
+    /**
+     * Removes a movie from a user's watchlist and persists the change.
+     *
+     * @param username The username of the user.
+     * @param movieId The id of the movie to be removed from the watchlist.
+     * @return true if the movie was removed, false if it was not in the watchlist.
+     * @throws UncheckedIOException if the store cannot persist the change, which is then not made.
+     */
+    public boolean removeMovieFromWatchlist(String username, int movieId) {
+        ReentrantLock lock = lockFor(username);
+        lock.lock();
+        try {
+            MovieIdSet watchlist = watchlistOf(username);
+            if (watchlist == null || !watchlist.contains(movieId)) {
+                return false;
+            }
+            MovieIdSet updated = watchlist.copy();
+            updated.remove(movieId);
+            userWatchlists.put(username, updated.freeze());
+            try {
+                store.movieRemoved(username, movieId, userWatchlists);
+            } catch (IOException e) {
+                restore(username, watchlist);
+                throw new UncheckedIOException("Could not save the watchlist of " + username, e);
+            }
+            changes.submit(new WatchListChange(username, new int[0], new int[]{movieId}));
+            return true;
+        } finally {
+            lock.unlock();
         }
     }
 
+    /**
+     * Removes a movie from a user's watchlist by its title and persists the change.
+     *
+     * @param username The username of the user.
+     * @param movie The title of the movie to be removed from the watchlist.
+     * @return true if the movie was removed, false if it was not in the watchlist or not in the movie database.
+     * @throws UncheckedIOException if the store cannot persist the change, which is then not made.
+     */
+    public boolean removeFromWatchlist(String username, String movie) {
+        Optional<Movie> found = movieDatabase.getMovie(movie);
+        return found.isPresent() && removeMovieFromWatchlist(username, found.get().getId());
+    }
+
     /**
      * Removes a movie from a user's watchlist and updates the associated JTable view.
-     * If the movie is found and removed, the watchlist is saved and the JTable is updated accordingly.
+     * If the movie is found and removed, the change is persisted and the JTable is updated accordingly.
      *
      * @param username The username of the user.
-     * @param movie The movie to be removed from the watchlist.
+     * @param movie The title of the movie to be removed from the watchlist.
      * @param watchListTable The JTable displaying the watchlist.
+     * @deprecated Views should update themselves; use {@link #removeFromWatchlist(String, String)} or
+     *             {@link #removeAll(String, int...)} and apply the result to the view.
      */
+    @Deprecated
     public void removeFromWatchlist(String username, String movie, JTable watchListTable) {
-        List<String> watchlist = userWatchlists.get(username);
-        if (watchlist != null && watchlist.remove(movie)) {
-            saveWatchlists();
-            System.out.println("Delete clicked!");
+        if (removeFromWatchlist(username, movie)) {
             // Update JTable
             int rowIndex = watchListTable.getSelectedRow();
             DefaultTableModel model = (DefaultTableModel) watchListTable.getModel();
             if (rowIndex != -1 && rowIndex < model.getRowCount()) {
                 model.removeRow(rowIndex);
             }
-            if (rowIndex < model.getRowCount()) {
+            if (rowIndex >= 0 && rowIndex < model.getRowCount()) {
                 watchListTable.setRowSelectionInterval(rowIndex, rowIndex);
             } else if (model.getRowCount() > 0) {
                 watchListTable.setRowSelectionInterval(model.getRowCount() - 1, model.getRowCount() - 1);
@@ -101,13 +311,177 @@ public class WatchListDatabase {
     }
 
     /**
-     * Retrieves the watchlist for a specific user.
+     * Adds movies to a user's watchlist and persists them in one write.
+     *
+     * @param username The username of the user.
+     * @param movieIds The ids of the movies to add, in order. Movies already in the watchlist are skipped.
+     * @return The movies that were actually added.
+     * @throws UncheckedIOException if the store cannot persist the change, which is then not made.
+     */
+    public WatchListChange addAll(String username, int... movieIds) {
+        return changeOf(username, apply(new WatchListBatch().addAll(username, movieIds)));
+    }
+
+    /**
+     * Removes movies from a user's watchlist and persists the removal in one write.
+     *
+     * @param username The username of the user.
+     * @param movieIds The ids of the movies to remove. Movies not in the watchlist are skipped.
+     * @return The movies that were actually removed.
+     * @throws UncheckedIOException if the store cannot persist the change, which is then not made.
+     */
+    public WatchListChange removeAll(String username, int... movieIds) {
+        return changeOf(username, apply(new WatchListBatch().removeAll(username, movieIds)));
+    }
+
+    /**
+     * Replaces a user's whole watchlist and persists it in one write.
+     *
+     * @param username The username of the user.
+     * @param movieIds The ids of the new watchlist, in order.
+     * @return The movies that were added and removed by the replacement.
+     * @throws UncheckedIOException if the store cannot persist the change, which is then not made.
+     */
+    public WatchListChange replace(String username, int... movieIds) {
+        return changeOf(username, apply(new WatchListBatch().replace(username, movieIds)));
+    }
+
+    private static WatchListChange changeOf(String username, List<WatchListChange> changes) {
+        return changes.isEmpty() ? new WatchListChange(username, new int[0], new int[0]) : changes.get(0);
+    }
+
+    /**
+     * Applies the changes of several users at once and persists all changed watchlists in one write.
+     * The locks of all affected users are held until the batch is persisted, so concurrent changes of these users
+     * happen entirely before or after the batch. Readers are not blocked.
+     *
+     * @param batch The changes to apply.
+     * @return One summary per user whose watchlist changed, in the order the users appear in the batch.
+     * @throws UncheckedIOException if the store cannot persist the batch. The watchlists are then restored to what
+     *         they were before and no change is published, so memory never runs ahead of the store.
+     */
+    public List<WatchListChange> apply(WatchListBatch batch) {
+        if (batch.isEmpty()) {
+            return List.of();
+        }
+        // Lock the stripes in ascending order, so concurrent batches cannot deadlock
+        boolean[] stripes = new boolean[LOCK_STRIPES];
+        for (String username : batch.usernames()) {
+            stripes[stripeOf(username)] = true;
+        }
+        int locked = 0;
+        try {
+            for (; locked < LOCK_STRIPES; locked++) {
+                if (stripes[locked]) {
+                    locks[locked].lock();
+                }
+            }
+
+            List<WatchListChange> changes = new ArrayList<>();
+            Map<String, MovieIdSet> changed = new LinkedHashMap<>();
+            // The watchlists before the batch, null for users who had none
+            Map<String, MovieIdSet> previous = new HashMap<>();
+            for (String username : batch.usernames()) {
+                MovieIdSet before = watchlistOf(username);
+                MovieIdSet after = batch.applyTo(username, before).freeze();
+                WatchListChange change = diff(username, before, after);
+                if (!change.isEmpty()) {
+                    previous.put(username, before);
+                    userWatchlists.put(username, after);
+                    changed.put(username, after);
+                    changes.add(change);
+                }
+            }
+            if (!changed.isEmpty()) {
+                try {
+                    store.saveUsers(changed, userWatchlists);
+                } catch (IOException e) {
+                    previous.forEach(this::restore);
+                    throw new UncheckedIOException("Could not save the watchlists of " + changed.keySet(), e);
+                }
+            }
+            changes.forEach(this.changes::submit);
+            return changes;
+        } finally {
+            for (int stripe = locked - 1; stripe >= 0; stripe--) {
+                if (stripes[stripe]) {
+                    locks[stripe].unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Puts back the watchlist a user had before a change the store could not persist, so memory never runs ahead of
+     * the store. The caller holds the user's lock.
+     *
+     * @param before The previous watchlist, or null if the user had none.
+     */
+    private void restore(String username, MovieIdSet before) {
+        if (before == null) {
+            userWatchlists.remove(username);
+        } else {
+            userWatchlists.put(username, before);
+        }
+    }
+
+    /**
+     * Computes which movies were added to and removed from a watchlist.
+     */
+    private static WatchListChange diff(String username, MovieIdSet before, MovieIdSet after) {
+        int[] beforeIds = before == null ? new int[0] : before.toArray();
+        int[] afterIds = after.toArray();
+        int[] added = Arrays.stream(afterIds).filter(id -> before == null || !before.contains(id)).toArray();
+        int[] removed = Arrays.stream(beforeIds).filter(id -> !after.contains(id)).toArray();
+        return new WatchListChange(username, added, removed);
+    }
+
+    /**
+     * Returns whether a movie is in a user's watchlist.
+     *
+     * @param username The username of the user.
+     * @param movieId The id of the movie.
+     * @return true if the movie is in the user's watchlist.
+     */
+    public boolean isInWatchlist(String username, int movieId) {
+        MovieIdSet watchlist = watchlistOf(username);
+        return watchlist != null && watchlist.contains(movieId);
+    }
+
+    /**
+     * Retrieves the movie ids of a user's watchlist.
+     *
+     * @param username The username of the user.
+     * @return The movie ids in the order they were added.
+     */
+    public int[] getWatchlistIds(String username) {
+        MovieIdSet watchlist = watchlistOf(username);
+        return watchlist == null ? new int[0] : watchlist.toArray();
+    }
+
+    /**
+     * Retrieves the watchlist for a specific user, resolving the movie ids to titles.
+     * Movies that were deleted from the movie database are left out.
      *
      * @param username The username of the user.
      * @return A List containing the movie titles in the user's watchlist.
      */
     public List<String> getWatchlistForUser(String username) {
-        return userWatchlists.getOrDefault(username, new ArrayList<>());
+        return resolveTitles(getWatchlistIds(username));
+    }
+
+    /**
+     * Resolves movie ids to titles through the movie database, for display.
+     *
+     * @param movieIds The ids of the movies.
+     * @return The titles in the same order. Movies that were deleted from the movie database are left out.
+     */
+    public List<String> resolveTitles(int... movieIds) {
+        List<String> titles = new ArrayList<>(movieIds.length);
+        for (int id : movieIds) {
+            movieDatabase.getMovieById(id).ifPresent(movie -> titles.add(movie.getTitle()));
+        }
+        return titles;
     }
 
 }
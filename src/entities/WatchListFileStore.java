@@ -0,0 +1,239 @@
+package entities;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Stores all watchlists in one text file with one line per user in the format 'username==>movieId1,,movieId2'.
+ * Every change rewrites the whole file.
+ * <p>
+ * Files written before watchlists held movie ids list movie titles in place of the ids. Such a file is recognized by
+ * an entry that is not a number and has to be migrated with {@link #migrate(Path, Supplier)} before it can be read.
+ */
+public class WatchListFileStore implements WatchListStore {
+    private final Path file;
+    // The movies to migrate a file that lists titles with, or null
+    private final MovieDatabase movieDatabase;
+
+    /**
+     * Constructs a WatchListFileStore.
+     *
+     * @param file The watchlist file.
+     */
+    public WatchListFileStore(Path file) {
+        this(file, null);
+    }
+
+    /**
+     * Constructs a WatchListFileStore that migrates a file listing movie titles to movie ids when it is loaded.
+     *
+     * @param file The watchlist file.
+     * @param movieDatabase The movies to resolve the titles with.
+     */
+    public WatchListFileStore(Path file, MovieDatabase movieDatabase) {
+        this.file = file;
+        this.movieDatabase = movieDatabase;
+    }
+
+    @Override
+    public synchronized Map<String, MovieIdSet> load() throws IOException {
+        if (movieDatabase != null) {
+            migrate(file, () -> movieDatabase);
+        }
+        return read(file);
+    }
+
+    @Override
+    public synchronized void movieAdded(String username, int movieId, Map<String, MovieIdSet> watchlists) throws IOException {
+        write(file, watchlists);
+    }
+
+    @Override
+    public synchronized void movieRemoved(String username, int movieId, Map<String, MovieIdSet> watchlists) throws IOException {
+        write(file, watchlists);
+    }
+
+    @Override
+    public synchronized void saveAll(Map<String, MovieIdSet> watchlists) throws IOException {
+        write(file, watchlists);
+    }
+
+    /**
+     * Reads a watchlist file. A missing file holds no watchlists.
+     *
+     * @param file The watchlist file.
+     * @return The watchlists by username.
+     * @throws IOException if the file exists but cannot be read, or still lists movie titles.
+     */
+    static Map<String, MovieIdSet> read(Path file) throws IOException {
+        return read(file, null);
+    }
+
+    /**
+     * Reads a watchlist file that lists either movie ids or movie titles. Titles are resolved to the ids of the movies
+     * with these titles; titles of movies that no longer exist are reported and skipped.
+     *
+     * @param file The watchlist file.
+     * @param catalog Supplies the movies to resolve titles with. It is only asked for a file that lists titles.
+     * @return The watchlists by username.
+     * @throws IOException if the file exists but cannot be read, or lists titles and the catalog is null.
+     */
+    static Map<String, MovieIdSet> read(Path file, Supplier<MovieDatabase> catalog) throws IOException {
+        Map<String, MovieIdSet> watchlists = new HashMap<>();
+        if (!Files.exists(file)) {
+            return watchlists;
+        }
+        MovieDatabase movieDatabase = null;
+        if (listsTitles(file)) {
+            if (catalog == null) {
+                throw new IOException(file + " lists movie titles and has to be migrated to movie ids first");
+            }
+            movieDatabase = catalog.get();
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("==>");
+                if (parts.length >= 2) {
+                    MovieIdSet ids = movieDatabase == null ? parseIds(parts[1], file)
+                            : resolveTitles(parts[1], movieDatabase, file);
+                    watchlists.put(parts[0], ids);
+                }
+            }
+        }
+        return watchlists;
+    }
+
+    /**
+     * Rewrites a watchlist file that still lists movie titles with the ids of the movies, so later reads and saves
+     * keep them. A file that already lists ids is left alone. A title that is a number cannot be told apart from an
+     * id, so a file is only taken for a title list if at least one of its entries is not a number.
+     *
+     * @param file The watchlist file.
+     * @param catalog Supplies the movies to resolve the titles with. It is only asked if the file lists titles.
+     * @return true if the file listed titles and was rewritten.
+     * @throws IOException if the file cannot be read or written.
+     */
+    static boolean migrate(Path file, Supplier<MovieDatabase> catalog) throws IOException {
+        if (!Files.exists(file) || !listsTitles(file)) {
+            return false;
+        }
+        write(file, read(file, catalog));
+        System.out.println("Migrated the watchlists in " + file + " from movie titles to movie ids");
+        return true;
+    }
+
+    private static boolean listsTitles(Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("==>");
+                if (parts.length < 2 || parts[1].isEmpty()) {
+                    continue;
+                }
+                for (String entry : parts[1].split(",,")) {
+                    try {
+                        Integer.parseInt(entry.trim());
+                    } catch (NumberFormatException e) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static MovieIdSet resolveTitles(String text, MovieDatabase movieDatabase, Path file) {
+        MovieIdSet ids = new MovieIdSet();
+        if (text.isEmpty()) {
+            return ids;
+        }
+        for (String title : text.split(",,")) {
+            Optional<Movie> movie = movieDatabase.getMovie(title);
+            if (movie.isPresent()) {
+                ids.add(movie.get().getId());
+            } else {
+                System.out.println("Skipping unknown movie '" + title + "' in " + file);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Parses the movie ids of one watchlist, separated by ',,'. Entries that are not ids are reported and skipped.
+     *
+     * @param text The movie ids of the watchlist.
+     * @param file The file the watchlist comes from, used for reporting.
+     * @return The movie ids.
+     */
+    static MovieIdSet parseIds(String text, Path file) {
+        MovieIdSet ids = new MovieIdSet();
+        if (text.isEmpty()) {
+            return ids;
+        }
+        for (String entry : text.split(",,")) {
+            try {
+                int id = Integer.parseInt(entry.trim());
+                if (id > Movie.NO_ID) {
+                    ids.add(id);
+                    continue;
+                }
+            } catch (NumberFormatException e) {
+                // Reported below
+            }
+            System.out.println("Skipping invalid movie id '" + entry + "' in " + file);
+        }
+        return ids;
+    }
+
+    /**
+     * Formats the movie ids of one watchlist, separated by ',,'.
+     *
+     * @param ids The movie ids of the watchlist.
+     * @return The formatted ids.
+     */
+    static String formatIds(MovieIdSet ids) {
+        StringBuilder text = new StringBuilder();
+        for (int id : ids.toArray()) {
+            if (text.length() > 0) {
+                text.append(",,");
+            }
+            text.append(id);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Writes a watchlist file. The file is written to a temporary file first, synced and then moved into place,
+     * so a crash never leaves a partially written file behind.
+     *
+     * @param file The watchlist file.
+     * @param watchlists The watchlists by username.
+     * @throws IOException if the file cannot be written.
+     */
+    static void write(Path file, Map<String, MovieIdSet> watchlists) throws IOException {
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(tempFile.toFile());
+             Writer writer = new BufferedWriter(new OutputStreamWriter(fileOut, StandardCharsets.UTF_8))) {
+            for (Map.Entry<String, MovieIdSet> entry : watchlists.entrySet()) {
+                writer.write(entry.getKey() + "==>" + formatIds(entry.getValue()));
+                writer.write('\n');
+            }
+            writer.flush();
+            fileOut.getFD().sync();
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,92 @@
+package entities;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Persists the watchlists of a {@link WatchListDatabase}.
+ * The database keeps all watchlists in memory and reports every change to its store, so each store decides how much
+ * has to be written for a change. A store may hold open files and threads until it is closed.
+ */
+public interface WatchListStore extends Closeable {
+
+    /**
+     * Reads all stored watchlists.
+     *
+     * @return The watchlists by username, each a set of movie ids.
+     * @throws IOException if the stored watchlists cannot be read.
+     */
+    Map<String, MovieIdSet> load() throws IOException;
+
+    /**
+     * Reads the watchlist of one user that {@link #load()} did not return, for stores that read watchlists lazily.
+     * Stores that load all watchlists at once have no other watchlists to return.
+     *
+     * @param username The username of the user.
+     * @return The user's watchlist, or null if the store has none for the user.
+     * @throws IOException if the watchlist cannot be read.
+     */
+    default MovieIdSet loadUser(String username) throws IOException {
+        return null;
+    }
+
+    /**
+     * Persists a movie that was added to a watchlist.
+     *
+     * @param username The username of the user.
+     * @param movieId The id of the movie that was added.
+     * @param watchlists All watchlists, already including the change.
+     * @throws IOException if the change cannot be written.
+     */
+    void movieAdded(String username, int movieId, Map<String, MovieIdSet> watchlists) throws IOException;
+
+    /**
+     * Persists a movie that was removed from a watchlist.
+     *
+     * @param username The username of the user.
+     * @param movieId The id of the movie that was removed.
+     * @param watchlists All watchlists, already including the change.
+     * @throws IOException if the change cannot be written.
+     */
+    void movieRemoved(String username, int movieId, Map<String, MovieIdSet> watchlists) throws IOException;
+
+    /**
+     * Persists all watchlists at once.
+     *
+     * @param watchlists All watchlists.
+     * @throws IOException if the watchlists cannot be written.
+     */
+    void saveAll(Map<String, MovieIdSet> watchlists) throws IOException;
+
+    /**
+     * Persists the complete watchlists of several users in one write. By default all watchlists are saved.
+     *
+     * @param changed The current watchlists of the users that changed, by username.
+     * @param watchlists All watchlists, already including the changes.
+     * @throws IOException if the watchlists cannot be written.
+     */
+    default void saveUsers(Map<String, MovieIdSet> changed, Map<String, MovieIdSet> watchlists) throws IOException {
+        saveAll(watchlists);
+    }
+
+    /**
+     * Writes out any changes the store has not persisted yet and waits until they are written.
+     * Stores that write every change right away have nothing to do.
+     *
+     * @throws IOException if the changes cannot be written.
+     */
+    default void flush() throws IOException {
+    }
+
+    /**
+     * Writes out any changes the store has not persisted yet and releases its files and threads. The store cannot be
+     * used afterwards. Stores that hold nothing open only flush.
+     *
+     * @throws IOException if the changes cannot be written or a file cannot be closed.
+     */
+    @Override
+    default void close() throws IOException {
+        flush();
+    }
+}
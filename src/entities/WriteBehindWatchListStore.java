@@ -0,0 +1,264 @@
+package entities;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Puts a background writer in front of another store, so the thread changing a watchlist never waits for the disk.
+ * A change only copies the user's watchlist, a few ints, into a set of dirty users, where later changes of the same
+ * user replace earlier ones. The writer hands all dirty users to the wrapped store in one batch, on a fixed interval or
+ * as soon as enough users are dirty, so the wrapped store needs a single write and sync per batch.
+ * <p>
+ * The writer keeps its own copy of all watchlists as they were last persisted, so the wrapped store always sees a
+ * consistent state that no other thread changes. Pending changes are flushed by {@link #flush()}, {@link #close()}
+ * and when the JVM shuts down. Closing also stops the writer thread and closes the wrapped store.
+ */
+public class WriteBehindWatchListStore implements WatchListStore {
+    /**
+     * The default time in milliseconds between two flushes.
+     */
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 1000;
+    /**
+     * The default number of dirty users from which on a flush starts before the interval is over.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    private final WatchListStore delegate;
+    private final int batchSize;
+    private final ScheduledExecutorService writer;
+    private final Thread shutdownHook;
+
+    // Guarded by this
+    private Map<String, MovieIdSet> dirtyUsers = new LinkedHashMap<>();
+    private boolean saveAllRequested;
+    private boolean flushRequested;
+
+    // Only touched by the writer thread once loaded
+    private Map<String, MovieIdSet> persisted = new HashMap<>();
+
+    /**
+     * Constructs a WriteBehindWatchListStore with the default interval and batch size.
+     *
+     * @param delegate The store that writes the batches.
+     */
+    public WriteBehindWatchListStore(WatchListStore delegate) {
+        this(delegate, DEFAULT_FLUSH_INTERVAL_MILLIS, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Constructs a WriteBehindWatchListStore.
+     *
+     * @param delegate The store that writes the batches.
+     * @param flushIntervalMillis The time in milliseconds between two flushes.
+     * @param batchSize The number of dirty users from which on a flush starts before the interval is over.
+     */
+    public WriteBehindWatchListStore(WatchListStore delegate, long flushIntervalMillis, int batchSize) {
+        if (flushIntervalMillis < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("Flush interval and batch size must be positive");
+        }
+        this.delegate = delegate;
+        this.batchSize = batchSize;
+        writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "watchlist-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        writer.scheduleWithFixedDelay(this::writeBatchQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        shutdownHook = new Thread(this::flushQuietly, "watchlist-final-flush");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    @Override
+    public Map<String, MovieIdSet> load() throws IOException {
+        Map<String, MovieIdSet> watchlists = delegate.load();
+        Map<String, MovieIdSet> copy = copyOf(watchlists);
+        try {
+            writer.submit(() -> persisted = copy).get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IOException("Could not hand the loaded watchlists to the writer", e);
+        }
+        return watchlists;
+    }
+
+    /**
+     * Reads one user's watchlist on the writer thread, so a batch that is being written is seen as written.
+     * A user with pending changes is answered from them.
+     */
+    @Override
+    public MovieIdSet loadUser(String username) throws IOException {
+        synchronized (this) {
+            MovieIdSet dirty = dirtyUsers.get(username);
+            if (dirty != null) {
+                return dirty.copy();
+            }
+        }
+        try {
+            return writer.submit(() -> {
+                MovieIdSet watchlist = persisted.get(username);
+                if (watchlist == null) {
+                    watchlist = delegate.loadUser(username);
+                    if (watchlist == null) {
+                        return null;
+                    }
+                    persisted.put(username, watchlist);
+                }
+                return watchlist.copy();
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading a watchlist", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Loading a watchlist failed", e.getCause());
+        }
+    }
+
+    @Override
+    public void movieAdded(String username, int movieId, Map<String, MovieIdSet> watchlists) {
+        markDirty(username, watchlists.get(username));
+    }
+
+    @Override
+    public void movieRemoved(String username, int movieId, Map<String, MovieIdSet> watchlists) {
+        markDirty(username, watchlists.get(username));
+    }
+
+    @Override
+    public synchronized void saveUsers(Map<String, MovieIdSet> changed, Map<String, MovieIdSet> watchlists) {
+        changed.forEach(this::markDirty);
+    }
+
+    @Override
+    public synchronized void saveAll(Map<String, MovieIdSet> watchlists) {
+        dirtyUsers.putAll(copyOf(watchlists));
+        saveAllRequested = true;
+        requestFlush();
+    }
+
+    private synchronized void markDirty(String username, MovieIdSet watchlist) {
+        dirtyUsers.put(username, watchlist == null ? new MovieIdSet() : watchlist.copy());
+        if (dirtyUsers.size() >= batchSize) {
+            requestFlush();
+        }
+    }
+
+    private void requestFlush() {
+        if (!flushRequested) {
+            flushRequested = true;
+            writer.execute(this::writeBatchQuietly);
+        }
+    }
+
+    /**
+     * Writes all pending changes and waits until they are persisted.
+     *
+     * @throws IOException if the changes cannot be written. They stay pending and are retried with the next batch.
+     */
+    @Override
+    public void flush() throws IOException {
+        try {
+            writer.submit(() -> {
+                writeBatch();
+                return null;
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while flushing watchlists", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Flushing watchlists failed", e.getCause());
+        }
+    }
+
+    /**
+     * Flushes all pending changes, stops the background writer and closes the wrapped store.
+     *
+     * @throws IOException if the pending changes cannot be written or the wrapped store cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            writer.shutdown();
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // The JVM is already shutting down and runs the hook anyway
+            }
+            try {
+                // A batch requested before the flush may still be running, the wrapped store must outlive it
+                writer.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            delegate.close();
+        }
+    }
+
+    /**
+     * Takes all dirty users and writes them as one batch. Runs on the writer thread only.
+     */
+    private void writeBatch() throws IOException {
+        Map<String, MovieIdSet> batch;
+        boolean saveAll;
+        synchronized (this) {
+            flushRequested = false;
+            if (dirtyUsers.isEmpty()) {
+                return;
+            }
+            batch = dirtyUsers;
+            saveAll = saveAllRequested;
+            dirtyUsers = new LinkedHashMap<>();
+            saveAllRequested = false;
+        }
+        persisted.putAll(batch);
+        try {
+            if (saveAll) {
+                delegate.saveAll(persisted);
+            } else {
+                delegate.saveUsers(batch, persisted);
+            }
+        } catch (IOException | RuntimeException e) {
+            // Keep the batch pending, changes made in the meantime are newer and win
+            synchronized (this) {
+                batch.forEach(dirtyUsers::putIfAbsent);
+                saveAllRequested |= saveAll;
+            }
+            throw e;
+        }
+    }
+
+    private void writeBatchQuietly() {
+        try {
+            writeBatch();
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            System.out.println("Problem with saving watchlists, retrying with the next batch!");
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static Map<String, MovieIdSet> copyOf(Map<String, MovieIdSet> watchlists) {
+        Map<String, MovieIdSet> copy = new HashMap<>(watchlists.size() * 2);
+        watchlists.forEach((username, watchlist) -> copy.put(username, watchlist.copy()));
+        return copy;
+    }
+}
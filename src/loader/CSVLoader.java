@@ -1,42 +1,238 @@
 package loader;
 
+import entities.DirectorDictionary;
+import entities.MappedMovieDatabase;
 import entities.Movie;
 import entities.MovieDatabase;
 
 import java.io.*;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Provides functionality to load movies from a CSV file into a MovieDatabase
  * and to delete movies by title from the CSV file.
+ * A binary snapshot of the loaded movies is kept next to the CSV file, so unchanged catalogs load without parsing.
+ * Director names are interned through a {@link DirectorDictionary} while loading, so the movies of one director share
+ * a single String instead of each row keeping its own copy.
  */
 public class CSVLoader {
     static String DB_PATH = "src/resources/moviedb.csv";
 
+    // Column positions in moviedb.csv
+    static final int ID_COLUMN = 0;
+    static final int TITLE_COLUMN = 1;
+    static final int YEAR_COLUMN = 2;
+    static final int RUNTIME_COLUMN = 3;
+    static final int DIRECTOR_COLUMN = 6;
+
+    // Chunks per worker thread of the parallel loader, so that uneven chunks still keep all threads busy
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    // Mutation log of added and deleted movies, compacted into the CSV file at 1 MB or a quarter of its size
+    private static long logCompactionBytes = 1 << 20;
+    private static double logCompactionRatio = 0.25;
+    private static MovieMutationLog mutationLog;
+    private static String mutationLogPath;
+
+    // The loaded catalog whose changes this loader records
+    private final MovieDatabase movieDatabase;
+
+    /**
+     * Constructs a CSVLoader that records the additions and deletions of a catalog in the mutation log.
+     *
+     * @param movieDatabase The catalog as loaded by {@link #loadMovies()}.
+     */
+    public CSVLoader(MovieDatabase movieDatabase) {
+        this.movieDatabase = movieDatabase;
+    }
+
+    /**
+     * Loads the movie catalog, from the binary snapshot if it was built from the current CSV file and from the CSV
+     * file otherwise. In the latter case the snapshot is rewritten for the next start.
+     * If the snapshot cannot be used or written, the movies are still loaded from the CSV file.
+     * The additions and deletions recorded in the mutation log are applied on top.
+     *
+     * @return A MovieDatabase populated with the movies of the catalog.
+     */
+    public static MovieDatabase loadMovies() {
+        MovieDatabase movieDatabase;
+        try {
+            movieDatabase = loadBaseMovies();
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("Problem with loading the movies!");
+            return new MovieDatabase();
+        }
+        try {
+            mutationLog().replay(movieDatabase);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("Problem with replaying the movie log!");
+        }
+        return movieDatabase;
+    }
+
+    /**
+     * Loads the movie catalog like {@link #loadMovies()}, but fails instead of returning an empty or partial catalog
+     * when the CSV file or the mutation log cannot be read, so the caller can show the problem to the user.
+     *
+     * @return A MovieDatabase populated with the movies of the catalog.
+     * @throws IOException if the CSV file or the mutation log cannot be read.
+     */
+    public static MovieDatabase loadMoviesOrThrow() throws IOException {
+        MovieDatabase movieDatabase = loadBaseMovies();
+        mutationLog().replay(movieDatabase);
+        return movieDatabase;
+    }
+
+    /**
+     * Loads the movies of the CSV file alone, through the binary snapshot when it is fresh.
+     */
+    private static MovieDatabase loadBaseMovies() throws IOException {
+        Path csvFile = Path.of(DB_PATH);
+        Path snapshotFile = snapshotPath();
+        MovieSnapshot.CSVStamp stamp = MovieSnapshot.CSVStamp.of(csvFile);
+
+        if (MovieSnapshot.isFresh(snapshotFile, stamp)) {
+            try {
+                MovieDatabase movieDatabase = new MovieDatabase();
+                movieDatabase.addAllMovies(MovieSnapshot.read(snapshotFile));
+                return movieDatabase;
+            } catch (IOException e) {
+                System.out.println("Problem with reading the movie snapshot, loading the CSV file instead: "
+                        + e.getMessage());
+            }
+        }
+
+        MovieDatabase movieDatabase = readMoviesFromCSVParallel(ForkJoinPool.commonPool());
+        writeSnapshot(snapshotFile, stamp, movieDatabase);
+        return movieDatabase;
+    }
+
+    /**
+     * Opens the movie catalog as a memory-mapped file, for catalogs too large to load into a MovieDatabase.
+     * The file is kept next to the CSV file with the extension ".movies" and is rebuilt by streaming the CSV file
+     * whenever it is missing or was built from another version of the CSV file, so the heap never holds the whole
+     * catalog. Like the binary snapshot, the file stores the size, modification time and checksum of the CSV file it
+     * was built from, so an edit that keeps the modification time, or a CSV file restored with an older one, is still
+     * noticed. The mutation log is not applied, the mapped catalog shows the movies of the CSV file alone.
+     *
+     * @return The mapped catalog, which must be closed after use.
+     * @throws IOException if the CSV file cannot be read or the mapped file cannot be written or opened.
+     */
+    public static MappedMovieDatabase openMappedMovies() throws IOException {
+        Path csvFile = Path.of(DB_PATH);
+        Path mappedFile = companionPath(".movies");
+        long[] stamp = MovieSnapshot.CSVStamp.of(csvFile).toLongs();
+        if (!Arrays.equals(MappedMovieDatabase.readSourceStamp(mappedFile), stamp)) {
+            try (Stream<Movie> movies = streamMovies(csvFile)) {
+                MappedMovieDatabase.write(mappedFile, movies::iterator, stamp);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+        return MappedMovieDatabase.open(mappedFile);
+    }
+
+    /**
+     * Makes sure the binary snapshot matches the current CSV file, rebuilding it from the CSV file if it does not.
+     * Afterwards {@link #loadMovies()} can load the catalog without parsing.
+     *
+     * @return The number of movies in the catalog, or -1 if the CSV file cannot be read.
+     */
+    public static int prepareSnapshot() {
+        Path snapshotFile = snapshotPath();
+        try {
+            MovieSnapshot.CSVStamp stamp = MovieSnapshot.CSVStamp.of(Path.of(DB_PATH));
+            if (MovieSnapshot.isFresh(snapshotFile, stamp)) {
+                return MovieSnapshot.readMovieCount(snapshotFile);
+            }
+            MovieDatabase movieDatabase = loadMoviesFromCSVParallel();
+            writeSnapshot(snapshotFile, stamp, movieDatabase);
+            return movieDatabase.size();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return -1;
+        }
+    }
+
+    /**
+     * Writes the snapshot of a freshly loaded catalog. Failures are only reported, the catalog stays usable.
+     */
+    private static void writeSnapshot(Path snapshotFile, MovieSnapshot.CSVStamp stamp, MovieDatabase movieDatabase) {
+        try {
+            MovieSnapshot.write(snapshotFile, stamp, movieDatabase.getAllMovies());
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("Problem with writing the movie snapshot!");
+        }
+    }
+
+    /**
+     * Returns the location of the binary snapshot, next to the CSV file with the extension ".snapshot".
+     *
+     * @return The path of the snapshot file.
+     */
+    static Path snapshotPath() {
+        return companionPath(".snapshot");
+    }
+
+    /**
+     * Returns the path of a file stored next to the CSV file under the same base name and another extension.
+     *
+     * @param extension The extension of the companion file, including the dot.
+     * @return The path of the companion file.
+     */
+    static Path companionPath(String extension) {
+        Path csvFile = Path.of(DB_PATH);
+        String name = csvFile.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return csvFile.resolveSibling((dot > 0 ? name.substring(0, dot) : name) + extension);
+    }
+
     /**
      * Loads movies from a CSV file and adds them to a MovieDatabase.
      * The CSV file is expected to have specific columns for title, director, release year, and running time.
+     * Malformed rows are reported and skipped.
+     * The movies are those of the CSV file alone: the additions and deletions of the mutation log are not applied,
+     * use {@link #loadMovies()} for the catalog as the application shows it.
      *
      * @return A MovieDatabase populated with movies from the CSV file.
      */
     public static MovieDatabase loadMoviesFromCSV() {
         MovieDatabase movieDatabase = new MovieDatabase();
 
-        try (BufferedReader br = new BufferedReader(new FileReader(DB_PATH))) {
+        try (BufferedReader br = new BufferedReader(new FileReader(DB_PATH, StandardCharsets.UTF_8))) {
+            CSVTokenizer tokenizer = new CSVTokenizer();
+            DirectorDictionary directors = new DirectorDictionary();
             String line;
+            int lineNumber = 1;
             // Skip the header line
             br.readLine();
 
             while ((line = br.readLine()) != null) {
-                String[] values = line.split(",(?=([^\"]*\"[^\"]*\")*[^\"]*$)", -1); // Split by commas not enclosed in quotes
-                String title = values[1]; // or the appropriate index
-                String director = values[6]; // or the appropriate index
-                int releaseYear = Integer.parseInt(values[2].trim()); // or the appropriate index
-                int runningTime = parseRunningTime(values[3]); // Custom method to parse running time
-
-                Movie movie = new Movie(title, director, releaseYear, runningTime);
-                movieDatabase.addMovie(movie);
+                lineNumber++;
+                int recordLineNumber = lineNumber;
+                // A quoted field may contain line breaks, so keep reading until the quote is closed
+                String nextLine;
+                while (hasOpenQuote(line) && (nextLine = br.readLine()) != null) {
+                    line = line + "\n" + nextLine;
+                    lineNumber++;
+                }
+
+                Movie movie = parseMovie(tokenizer, line, 0, line.length(), DB_PATH, recordLineNumber, directors);
+                if (movie != null) {
+                    movieDatabase.addMovie(movie);
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -46,67 +242,346 @@ public class CSVLoader {
     }
 
     /**
-     * Parses the running time from a string, extracting numerical value.
+     * Loads movies from the CSV file using all available processors.
+     * The file is memory-mapped and cut into record-aligned chunks that are parsed on the common ForkJoinPool.
+     * The parsed chunks are merged in file order, so the result is the same as that of {@link #loadMoviesFromCSV()}:
+     * the movies of the CSV file without the mutation log.
+     *
+     * @return A MovieDatabase populated with movies from the CSV file.
+     */
+    public static MovieDatabase loadMoviesFromCSVParallel() {
+        return loadMoviesFromCSVParallel(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Loads movies from the CSV file, parsing record-aligned chunks of the memory-mapped file on the given pool.
      *
-     * @param runningTimeStr The string representation of the running time.
-     * @return The running time as an integer. Returns 0 if parsing fails.
+     * @param pool The pool on which the chunks are parsed.
+     * @return A MovieDatabase populated with movies from the CSV file, in file order.
      */
-    private static int parseRunningTime(String runningTimeStr) {
+    public static MovieDatabase loadMoviesFromCSVParallel(ForkJoinPool pool) {
         try {
-            return Integer.parseInt(runningTimeStr.replaceAll("[^0-9]", ""));
-        } catch (NumberFormatException e) {
-            return 0;
+            return readMoviesFromCSVParallel(pool);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return new MovieDatabase();
+        }
+    }
+
+    /**
+     * Loads movies from the CSV file like {@link #loadMoviesFromCSVParallel(ForkJoinPool)}, but reports a file that
+     * cannot be read to the caller.
+     */
+    private static MovieDatabase readMoviesFromCSVParallel(ForkJoinPool pool) throws IOException {
+        MovieDatabase movieDatabase = new MovieDatabase();
+
+        try (MappedCSVFile file = new MappedCSVFile(Path.of(DB_PATH))) {
+            if (file.size() == 0) {
+                return movieDatabase;
+            }
+            // Skip the header line
+            long firstRecord = file.nextRecordStart(0, 1);
+            List<MappedCSVFile.Chunk> chunks = file.split(firstRecord, pool.getParallelism() * CHUNKS_PER_THREAD);
+
+            List<ForkJoinTask<List<Movie>>> tasks = new ArrayList<>(chunks.size());
+            // Shared by all chunks, so a director appearing in several chunks is still kept once
+            DirectorDictionary directors = new DirectorDictionary();
+            for (MappedCSVFile.Chunk chunk : chunks) {
+                tasks.add(pool.submit(() -> parseChunk(file, chunk, directors)));
+            }
+            // Joining in submission order keeps the rows in file order
+            List<Movie> movies = new ArrayList<>();
+            for (ForkJoinTask<List<Movie>> task : tasks) {
+                movies.addAll(task.join());
+            }
+            movieDatabase.addAllMovies(movies);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
+
+        return movieDatabase;
     }
 
     /**
-     * Deletes a movie from the CSV file based on its title.
+     * Opens a lazy stream over the movies of the CSV file, without building a MovieDatabase.
      *
-     * @param titleToDelete The title of the movie to delete.
-     * @return true if the movie was successfully deleted, false otherwise.
+     * @return A Stream of the movies in file order, which must be closed after use.
+     * @throws IOException if the file cannot be opened.
+     * @see #streamMovies(Path)
      */
-    public boolean deleteMovieByTitle(String titleToDelete) {
-        List<String> lines = new ArrayList<>();
-        boolean movieDeleted = false;
+    public static Stream<Movie> streamMovies() throws IOException {
+        return streamMovies(Path.of(DB_PATH));
+    }
 
-        try (BufferedReader br = new BufferedReader(new FileReader(DB_PATH))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] values = line.split(",(?=([^\"]*\"[^\"]*\")*[^\"]*$)", -1);
-                String title = values[1].trim(); // Assuming title is in the second column (index 1)
+    /**
+     * Opens a lazy stream over the movies of a CSV file in the format of moviedb.csv, without building a MovieDatabase.
+     * The file is memory-mapped and rows are parsed one at a time as the stream is consumed, so the heap used does not
+     * depend on the file size and short-circuiting operations stop reading early.
+     * Parallel streams split the file at record boundaries. Malformed rows are reported and skipped,
+     * duplicate titles are not removed.
+     *
+     * @param csvFile The CSV file to read, starting with a header line.
+     * @return A Stream of the movies in file order, which must be closed after use to release the file.
+     * @throws IOException if the file cannot be opened.
+     */
+    public static Stream<Movie> streamMovies(Path csvFile) throws IOException {
+        MappedCSVFile file = new MappedCSVFile(csvFile);
+        // Skip the header line
+        long firstRecord = file.size() == 0 ? 0 : file.nextRecordStart(0, 1);
+        MovieSpliterator spliterator = new MovieSpliterator(file, firstRecord, file.size(), 2);
+        return StreamSupport.stream(spliterator, false).onClose(() -> {
+            try {
+                file.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
 
-                if (!title.equalsIgnoreCase(titleToDelete)) {
-                    lines.add(line);
-                } else {
-                    movieDeleted = true;
+    /**
+     * Parses all records of one chunk of the mapped CSV file.
+     *
+     * @param file The mapped file.
+     * @param chunk The chunk to parse.
+     * @param directors The dictionary the director names are interned in.
+     * @return The movies of the chunk, in file order.
+     */
+    private static List<Movie> parseChunk(MappedCSVFile file, MappedCSVFile.Chunk chunk, DirectorDictionary directors) {
+        CharBuffer chars;
+        try {
+            chars = file.decode(chunk.start(), chunk.end());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        CSVTokenizer tokenizer = new CSVTokenizer();
+        String source = file.path().toString();
+        List<Movie> movies = new ArrayList<>();
+        long line = chunk.firstLine();
+        long recordLine = line;
+        int recordStart = 0;
+        boolean inQuotes = false;
+        int length = chars.limit();
+        for (int i = 0; i < length; i++) {
+            char c = chars.get(i);
+            if (c == '"') {
+                inQuotes = !inQuotes;
+            } else if (c == '\n') {
+                line++;
+                if (!inQuotes) {
+                    addParsedMovie(movies, tokenizer, chars, recordStart, i, source, recordLine, directors);
+                    recordStart = i + 1;
+                    recordLine = line;
                 }
             }
+        }
+        addParsedMovie(movies, tokenizer, chars, recordStart, length, source, recordLine, directors);
+        return movies;
+    }
+
+    /**
+     * Parses one record of a decoded chunk, dropping a trailing carriage return, and adds the movie to a list.
+     */
+    private static void addParsedMovie(List<Movie> movies, CSVTokenizer tokenizer, CharBuffer chars, int from, int to,
+                                       String source, long lineNumber, DirectorDictionary directors) {
+        if (to > from && chars.get(to - 1) == '\r') {
+            to--;
+        }
+        Movie movie = parseMovie(tokenizer, chars, from, to, source, lineNumber, directors);
+        if (movie != null) {
+            movies.add(movie);
+        }
+    }
+
+    /**
+     * Returns whether a line ends inside a quoted field, i.e. whether it contains an odd number of quotes.
+     * Escaped quotes come in pairs and do not change the result.
+     *
+     * @param line The line to check.
+     * @return true if a quoted field is still open at the end of the line.
+     */
+    static boolean hasOpenQuote(String line) {
+        boolean open = false;
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) == '"') {
+                open = !open;
+            }
+        }
+        return open;
+    }
+
+    /**
+     * Parses one line of the CSV file into a Movie.
+     * The running time is read from the leading digits of its column (e.g. "142 min") and defaults to 0.
+     * A row without a numeric id yields a movie without one, the MovieDatabase assigns it when the movie is added.
+     * Blank lines are ignored, malformed rows are reported on the console.
+     *
+     * @param tokenizer The tokenizer to use for splitting the line.
+     * @param buffer The buffer holding the line.
+     * @param from The position of the first character of the line.
+     * @param to The position just past the last character of the line.
+     * @param source The name of the file the line comes from, used for reporting.
+     * @param lineNumber The line number within the file, used for reporting.
+     * @return The parsed Movie, or null if the line is blank or malformed.
+     */
+    static Movie parseMovie(CSVTokenizer tokenizer, CharSequence buffer, int from, int to, String source,
+                            long lineNumber) {
+        return parseMovie(tokenizer, buffer, from, to, source, lineNumber, null);
+    }
+
+    /**
+     * Parses one line of the CSV file into a Movie like
+     * {@link #parseMovie(CSVTokenizer, CharSequence, int, int, String, long)}, interning the director name.
+     *
+     * @param directors The dictionary the director name is interned in, or null to keep the parsed name.
+     */
+    static Movie parseMovie(CSVTokenizer tokenizer, CharSequence buffer, int from, int to, String source,
+                            long lineNumber, DirectorDictionary directors) {
+        if (from == to) {
+            return null;
+        }
+        if (!tokenizer.tokenize(buffer, from, to)) {
+            reportMalformedRow(source, lineNumber, tokenizer.error());
+            return null;
+        }
+        if (tokenizer.fieldCount() <= DIRECTOR_COLUMN) {
+            reportMalformedRow(source, lineNumber,
+                    "expected at least " + (DIRECTOR_COLUMN + 1) + " columns but found " + tokenizer.fieldCount());
+            return null;
+        }
+        if (!tokenizer.isIntField(YEAR_COLUMN)) {
+            reportMalformedRow(source, lineNumber, "invalid release year '" + tokenizer.field(YEAR_COLUMN) + "'");
+            return null;
+        }
+
+        int id = tokenizer.isIntField(ID_COLUMN) ? tokenizer.intField(ID_COLUMN) : Movie.NO_ID;
+        int runningTime = tokenizer.intField(RUNTIME_COLUMN);
+        String director = tokenizer.field(DIRECTOR_COLUMN);
+        return new Movie(id, tokenizer.field(TITLE_COLUMN), directors == null ? director : directors.intern(director),
+                tokenizer.intField(YEAR_COLUMN), runningTime == CSVTokenizer.NO_NUMBER ? 0 : runningTime);
+    }
+
+    /**
+     * Reports a row of the CSV file that could not be loaded.
+     *
+     * @param source The name of the file the row comes from.
+     * @param lineNumber The line number of the row.
+     * @param reason Why the row was skipped.
+     */
+    private static void reportMalformedRow(String source, long lineNumber, String reason) {
+        System.out.println("Skipping malformed row at line " + lineNumber + " of " + source + ": " + reason);
+    }
+
+    /**
+     * Deletes a movie from the catalog based on its title.
+     * Only a tombstone is appended to the mutation log, the CSV file itself is rewritten by a later compaction.
+     * Titles the database does not have are not logged, so the movie is deleted here before it is removed from the
+     * database.
+     *
+     * @param titleToDelete The title of the movie to delete.
+     * @return true if the deletion was recorded, false if the catalog has no such movie or the log cannot be written.
+     */
+    public boolean deleteMovieByTitle(String titleToDelete) {
+        if (movieDatabase.getMovie(titleToDelete).isEmpty()) {
+            return false;
+        }
+        try {
+            mutationLog().logDelete(titleToDelete);
+            return true;
         } catch (IOException e) {
             e.printStackTrace();
+            return false;
         }
+    }
 
-        if (movieDeleted) {
-            try (BufferedWriter bw = new BufferedWriter(new FileWriter(DB_PATH))) {
-                for (String line : lines) {
-                    bw.write(line);
-                    bw.newLine();
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-                movieDeleted = false;
-            }
+    /**
+     * Adds a movie to the catalog by appending it to the mutation log.
+     * The CSV file itself is rewritten by a later compaction.
+     *
+     * @param movie The movie to add.
+     * @return true if the addition was recorded, false otherwise.
+     */
+    public boolean appendMovie(Movie movie) {
+        try {
+            mutationLog().logAdd(movie);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
         }
+    }
 
-        return movieDeleted;
+    /**
+     * Changes when the mutation log is folded back into the CSV file.
+     * The log is compacted on a background thread once it reaches either limit.
+     *
+     * @param maxLogBytes The log size in bytes from which on the log is compacted.
+     * @param maxLogRatio The log size, as a fraction of the CSV file size, from which on the log is compacted.
+     */
+    public static void setLogCompactionThresholds(long maxLogBytes, double maxLogRatio) {
+        logCompactionBytes = maxLogBytes;
+        logCompactionRatio = maxLogRatio;
+        mutationLog().setCompactionThresholds(maxLogBytes, maxLogRatio);
+    }
+
+    /**
+     * Returns the mutation log of the current CSV file, stored next to it with the extension ".log".
+     *
+     * @return The mutation log.
+     */
+    static synchronized MovieMutationLog mutationLog() {
+        if (mutationLog == null || !mutationLogPath.equals(DB_PATH)) {
+            mutationLog = new MovieMutationLog(Path.of(DB_PATH), companionPath(".log"),
+                    companionPath(".compacting.log"), logCompactionBytes, logCompactionRatio);
+            mutationLogPath = DB_PATH;
+        }
+        return mutationLog;
+    }
+
+    /**
+     * Formats a movie as a row of moviedb.csv. Columns the application does not track are left empty.
+     *
+     * @param movie The movie to format.
+     * @return The CSV row, without a line terminator.
+     */
+    static String formatRow(Movie movie) {
+        return (movie.getId() == Movie.NO_ID ? "" : String.valueOf(movie.getId())) + ","
+                + formatField(movie.getTitle()) + "," + movie.getReleaseYear() + ","
+                + movie.getRunningTime() + " min,,,"
+                + formatField(movie.getDirector());
+    }
+
+    /**
+     * Formats a value as a CSV field, enclosing it in quotes if it contains commas, quotes or line breaks.
+     *
+     * @param value The value to format, may be null.
+     * @return The CSV field.
+     */
+    static String formatField(String value) {
+        if (value == null) {
+            return "";
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                return '"' + value.replace("\"", "\"\"") + '"';
+            }
+        }
+        return value;
     }
 
     /**
      * The main method to demonstrate the loading of movies from a CSV file.
+     * The movies are streamed and only counted, so the catalog is never held in memory or printed as a whole.
      *
      * @param args Command line arguments (not used).
      */
     public static void main(String[] args) {
-        MovieDatabase movieDatabase = loadMoviesFromCSV();
-        System.out.println(movieDatabase);
+        try (Stream<Movie> movies = streamMovies()) {
+            System.out.println("Movies in the catalog: " + movies.count());
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("Problem with reading the movies!");
+        }
     }
 }
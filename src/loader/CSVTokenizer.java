@@ -0,0 +1,190 @@
+package loader;
+
+import java.util.Arrays;
+
+/**
+ * A reusable single-pass tokenizer for one CSV line.
+ * Fields may be enclosed in double quotes, in which case they can contain commas and escaped quotes ({@code ""}).
+ * The tokenizer only records where each field starts and ends in the line, strings are created on demand and
+ * numeric fields are parsed straight from the characters.
+ * Malformed lines are reported through the return value of {@link #tokenize(CharSequence)} and {@link #error()}
+ * instead of exceptions.
+ */
+final class CSVTokenizer {
+    /**
+     * Returned by {@link #intField(int)} when a field does not start with a number.
+     */
+    static final int NO_NUMBER = -1;
+
+    private CharSequence line;
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private boolean[] escaped = new boolean[16];
+    private int fieldCount;
+    private String error;
+
+    /**
+     * Splits a line into fields.
+     *
+     * @param line The line to tokenize, without its line terminator.
+     * @return true if the line is well-formed, false if it has an unterminated quoted field or text after a
+     *         closing quote. The reason is then available from {@link #error()}.
+     */
+    boolean tokenize(CharSequence line) {
+        return tokenize(line, 0, line.length());
+    }
+
+    /**
+     * Splits the part of a buffer between two positions into fields.
+     *
+     * @param buffer The buffer holding the line.
+     * @param from The position of the first character of the line.
+     * @param to The position just past the last character of the line, excluding its line terminator.
+     * @return true if the line is well-formed, false otherwise. The reason is then available from {@link #error()}.
+     */
+    boolean tokenize(CharSequence buffer, int from, int to) {
+        this.line = buffer;
+        fieldCount = 0;
+        error = null;
+
+        int position = from;
+        while (true) {
+            if (position < to && buffer.charAt(position) == '"') {
+                // Quoted field: runs until a quote that is not followed by another quote
+                int contentStart = position + 1;
+                boolean hasEscapes = false;
+                int i = contentStart;
+                while (true) {
+                    if (i >= to) {
+                        error = "unterminated quoted field " + (fieldCount + 1);
+                        return false;
+                    }
+                    if (buffer.charAt(i) == '"') {
+                        if (i + 1 < to && buffer.charAt(i + 1) == '"') {
+                            hasEscapes = true;
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+                addField(contentStart, i, hasEscapes);
+                position = i + 1;
+                if (position < to && buffer.charAt(position) != ',') {
+                    error = "unexpected character after quoted field " + fieldCount;
+                    return false;
+                }
+            } else {
+                // Plain field: runs until the next comma
+                int i = position;
+                while (i < to && buffer.charAt(i) != ',') {
+                    i++;
+                }
+                addField(position, i, false);
+                position = i;
+            }
+
+            if (position >= to) {
+                return true;
+            }
+            position++; // Skip the comma
+        }
+    }
+
+    /**
+     * Returns the number of fields of the last tokenized line.
+     *
+     * @return The number of fields.
+     */
+    int fieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * Returns the reason why the last line could not be tokenized.
+     *
+     * @return A description of the problem, or null if the last line was well-formed.
+     */
+    String error() {
+        return error;
+    }
+
+    /**
+     * Returns the text of a field, with enclosing quotes removed and escaped quotes resolved.
+     *
+     * @param index The index of the field.
+     * @return The field text.
+     */
+    String field(int index) {
+        String text = line.subSequence(starts[index], ends[index]).toString();
+        return escaped[index] ? text.replace("\"\"", "\"") : text;
+    }
+
+    /**
+     * Parses the number at the start of a field directly from the line, skipping leading spaces and stopping at the
+     * first non-digit, so values like {@code "142 min"} yield 142.
+     *
+     * @param index The index of the field.
+     * @return The parsed number, or {@link #NO_NUMBER} if the field does not start with digits or the value
+     *         does not fit into an int.
+     */
+    int intField(int index) {
+        int i = starts[index];
+        int end = ends[index];
+        while (i < end && line.charAt(i) == ' ') {
+            i++;
+        }
+        if (i == end || !isDigit(line.charAt(i))) {
+            return NO_NUMBER;
+        }
+        long value = 0;
+        while (i < end && isDigit(line.charAt(i))) {
+            value = value * 10 + (line.charAt(i) - '0');
+            if (value > Integer.MAX_VALUE) {
+                return NO_NUMBER;
+            }
+            i++;
+        }
+        return (int) value;
+    }
+
+    /**
+     * Returns whether a field consists of nothing but a number, optionally surrounded by spaces.
+     *
+     * @param index The index of the field.
+     * @return true if the whole field is a number.
+     */
+    boolean isIntField(int index) {
+        int i = starts[index];
+        int end = ends[index];
+        while (i < end && line.charAt(i) == ' ') {
+            i++;
+        }
+        int digitsStart = i;
+        while (i < end && isDigit(line.charAt(i))) {
+            i++;
+        }
+        int digitsEnd = i;
+        while (i < end && line.charAt(i) == ' ') {
+            i++;
+        }
+        return digitsEnd > digitsStart && i == end;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private void addField(int start, int end, boolean hasEscapes) {
+        if (fieldCount == starts.length) {
+            starts = Arrays.copyOf(starts, fieldCount * 2);
+            ends = Arrays.copyOf(ends, fieldCount * 2);
+            escaped = Arrays.copyOf(escaped, fieldCount * 2);
+        }
+        starts[fieldCount] = start;
+        ends[fieldCount] = end;
+        escaped[fieldCount] = hasEscapes;
+        fieldCount++;
+    }
+}
@@ -0,0 +1,179 @@
+package loader;
+
+import entities.MappedSegments;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A read-only, memory-mapped view of a UTF-8 CSV file that can be cut into record-aligned chunks.
+ * A record ends at a line break that is not inside a quoted field. Since quotes and line breaks are single bytes
+ * that never occur inside multi-byte UTF-8 sequences, record boundaries are found on the raw bytes without decoding.
+ * The file is mapped through {@link MappedSegments}, so files larger than 2 GB are supported.
+ */
+final class MappedCSVFile implements Closeable {
+    private final Path path;
+    private final FileChannel channel;
+    private final long size;
+    private final MappedSegments file;
+
+    /**
+     * A record-aligned part of the file.
+     *
+     * @param start The position of the first byte of the chunk.
+     * @param end The position just past the last byte of the chunk.
+     * @param firstLine The line number of the first line of the chunk, counting from 1.
+     */
+    record Chunk(long start, long end, long firstLine) {
+    }
+
+    /**
+     * Maps a file into memory.
+     *
+     * @param path The file to map.
+     * @throws IOException if the file cannot be opened or mapped.
+     */
+    MappedCSVFile(Path path) throws IOException {
+        this.path = path;
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            size = channel.size();
+            file = new MappedSegments(channel, FileChannel.MapMode.READ_ONLY, size);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the path of the mapped file.
+     *
+     * @return The file path.
+     */
+    Path path() {
+        return path;
+    }
+
+    /**
+     * Returns the size of the file in bytes.
+     *
+     * @return The file size.
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * Returns the byte at a position of the file.
+     *
+     * @param position The position, between 0 and {@link #size()} exclusive.
+     * @return The byte at that position.
+     */
+    byte byteAt(long position) {
+        return file.get(position);
+    }
+
+    /**
+     * Finds the start of the first record that begins at or after a target position.
+     *
+     * @param recordStart A position known to be the start of a record, at or before {@code target}.
+     * @param target The position from which on a record start is wanted.
+     * @return The start of the next record, or {@link #size()} if no record starts at or after the target.
+     */
+    long nextRecordStart(long recordStart, long target) {
+        boolean inQuotes = false;
+        for (long position = recordStart; position < size; position++) {
+            byte b = byteAt(position);
+            if (b == '"') {
+                inQuotes = !inQuotes;
+            } else if (b == '\n' && !inQuotes && position + 1 >= target) {
+                return position + 1;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Cuts the file, from a record start to its end, into chunks of roughly equal size that each hold whole records.
+     * The file is scanned once to find the boundaries and to number the lines.
+     *
+     * @param from The position to start at, which must be the start of a record.
+     * @param count The desired number of chunks.
+     * @return The chunks in file order, possibly fewer than requested for small files.
+     */
+    List<Chunk> split(long from, int count) {
+        List<Chunk> chunks = new ArrayList<>(count);
+        long line = 1;
+        // Lines before the starting record only matter for numbering
+        for (long position = 0; position < from; position++) {
+            if (byteAt(position) == '\n') {
+                line++;
+            }
+        }
+
+        long chunkStart = from;
+        long chunkFirstLine = line;
+        boolean inQuotes = false;
+
+        long target = from + (size - from) / count;
+        for (long position = from; position < size; position++) {
+            byte b = byteAt(position);
+            if (b == '"') {
+                inQuotes = !inQuotes;
+            } else if (b == '\n') {
+                line++;
+                if (!inQuotes && position + 1 >= target && position + 1 < size) {
+                    chunks.add(new Chunk(chunkStart, position + 1, chunkFirstLine));
+                    chunkStart = position + 1;
+                    chunkFirstLine = line;
+                    target = from + (size - from) * (chunks.size() + 1) / count;
+                }
+            }
+        }
+        if (chunkStart < size) {
+            chunks.add(new Chunk(chunkStart, size, chunkFirstLine));
+        }
+        return chunks;
+    }
+
+    /**
+     * Decodes part of the file from UTF-8. Malformed byte sequences are replaced, as a Reader would do.
+     *
+     * @param from The position of the first byte to decode.
+     * @param to The position just past the last byte to decode.
+     * @return A buffer with the decoded characters, positioned at 0.
+     * @throws IOException if the part cannot be mapped.
+     */
+    CharBuffer decode(long from, long to) throws IOException {
+        ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        try {
+            return decoder.decode(bytes);
+        } catch (CharacterCodingException e) {
+            throw new IllegalStateException("Decoder configured to replace malformed input failed", e);
+        }
+    }
+
+    /**
+     * Closes the underlying file channel. The mapped segments are released once they are garbage collected.
+     *
+     * @throws IOException if closing the channel fails.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,298 @@
+package loader;
+
+import entities.Movie;
+import entities.MovieDatabase;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * An append-only log of the movies added to and deleted from the catalog since the CSV file was last rewritten.
+ * Adding or deleting a movie appends one line to the log instead of rewriting the whole CSV file,
+ * and the loader replays the log on top of the CSV file.
+ * <p>
+ * An added movie is logged as {@code +} followed by its CSV row, a deleted movie as a tombstone: {@code -} followed by
+ * its quoted title. Once the log grows past a size limit or a fraction of the CSV file, a background thread compacts
+ * it: the log is renamed, the CSV file is rewritten with the logged changes applied and the renamed log is deleted.
+ * Until then the renamed log is replayed before the current one, so a crash during compaction loses nothing.
+ * Compaction gives the same catalog as replaying: of several movies with the same title, the first one is kept.
+ */
+final class MovieMutationLog {
+    private static final char ADD = '+';
+    private static final char DELETE = '-';
+
+    private final Path baseFile;
+    private final Path logFile;
+    private final Path compactingFile;
+    private final ExecutorService compactor;
+
+    private volatile long maxLogBytes;
+    private volatile double maxLogRatio;
+
+    private Writer writer;
+    private long logBytes;
+    private Future<?> compaction;
+
+    /**
+     * Constructs a MovieMutationLog for a CSV file.
+     *
+     * @param baseFile The CSV file the log applies to.
+     * @param logFile The log file.
+     * @param compactingFile The file the log is renamed to while it is being compacted.
+     * @param maxLogBytes The log size in bytes from which on the log is compacted.
+     * @param maxLogRatio The log size relative to the CSV file from which on the log is compacted.
+     */
+    MovieMutationLog(Path baseFile, Path logFile, Path compactingFile, long maxLogBytes, double maxLogRatio) {
+        this.baseFile = baseFile;
+        this.logFile = logFile;
+        this.compactingFile = compactingFile;
+        this.maxLogBytes = maxLogBytes;
+        this.maxLogRatio = maxLogRatio;
+        this.compactor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "movie-log-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Changes when the log is compacted.
+     *
+     * @param maxLogBytes The log size in bytes from which on the log is compacted.
+     * @param maxLogRatio The log size relative to the CSV file from which on the log is compacted.
+     */
+    void setCompactionThresholds(long maxLogBytes, double maxLogRatio) {
+        this.maxLogBytes = maxLogBytes;
+        this.maxLogRatio = maxLogRatio;
+    }
+
+    /**
+     * Logs an added movie.
+     *
+     * @param movie The movie that was added.
+     * @throws IOException if the log cannot be written.
+     */
+    void logAdd(Movie movie) throws IOException {
+        append(ADD + CSVLoader.formatRow(movie));
+    }
+
+    /**
+     * Logs a deleted movie as a tombstone.
+     *
+     * @param title The title of the movie that was deleted.
+     * @throws IOException if the log cannot be written.
+     */
+    void logDelete(String title) throws IOException {
+        append(DELETE + CSVLoader.formatField(title));
+    }
+
+    /**
+     * Appends one record to the log and starts a compaction if the log became too large.
+     */
+    private synchronized void append(String record) throws IOException {
+        if (writer == null) {
+            logBytes = Files.exists(logFile) ? Files.size(logFile) : 0;
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(logFile.toFile(), true),
+                    StandardCharsets.UTF_8));
+        }
+        writer.write(record);
+        writer.write('\n');
+        writer.flush();
+        logBytes += record.getBytes(StandardCharsets.UTF_8).length + 1;
+
+        boolean idle = compaction == null || compaction.isDone();
+        if (idle && (logBytes >= maxLogBytes || logBytes >= maxLogRatio * Files.size(baseFile))) {
+            compaction = compactor.submit(this::compactQuietly);
+        }
+    }
+
+    /**
+     * Applies the logged changes, including those of an unfinished compaction, to a database loaded from the CSV file.
+     *
+     * @param movieDatabase The database to update.
+     * @throws IOException if a log exists but cannot be read.
+     */
+    void replay(MovieDatabase movieDatabase) throws IOException {
+        CSVTokenizer tokenizer = new CSVTokenizer();
+        for (Path file : new Path[]{compactingFile, logFile}) {
+            if (!Files.exists(file)) {
+                continue;
+            }
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String record;
+                long lineNumber = 0;
+                while ((record = reader.readLine()) != null) {
+                    lineNumber++;
+                    if (record.isEmpty()) {
+                        continue;
+                    }
+                    if (record.charAt(0) == ADD) {
+                        Movie movie = CSVLoader.parseMovie(tokenizer, record, 1, record.length(), file.toString(),
+                                lineNumber);
+                        if (movie != null) {
+                            movieDatabase.addMovie(movie);
+                        }
+                    } else if (record.charAt(0) == DELETE && tokenizer.tokenize(record, 1, record.length())) {
+                        movieDatabase.removeMovie(tokenizer.field(0));
+                    } else {
+                        System.out.println("Skipping malformed record at line " + lineNumber + " of " + file);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Compacts the log in the background right away, regardless of its size.
+     *
+     * @return A Future that completes once the compaction is done.
+     */
+    synchronized Future<?> compactNow() {
+        if (compaction == null || compaction.isDone()) {
+            compaction = compactor.submit(this::compactQuietly);
+        }
+        return compaction;
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("Problem with compacting the movie log!");
+        }
+    }
+
+    /**
+     * Rewrites the CSV file with all logged changes applied and removes them from the log.
+     * Appends keep going to a fresh log file while the CSV file is being rewritten.
+     */
+    private void compact() throws IOException {
+        synchronized (this) {
+            // A compacting file left over from a crash is finished first, the current log waits for the next round
+            if (!Files.exists(compactingFile)) {
+                if (writer != null) {
+                    writer.close();
+                    writer = null;
+                }
+                if (!Files.exists(logFile)) {
+                    return;
+                }
+                Files.move(logFile, compactingFile, StandardCopyOption.ATOMIC_MOVE);
+                logBytes = 0;
+            }
+        }
+
+        // What the log leaves of each title, ordered by the operation that decided it. Like replaying, an addition of a
+        // title that is already there is ignored, so the first movie with a title wins.
+        Map<String, TitleChange> changes = new LinkedHashMap<>();
+        CSVTokenizer tokenizer = new CSVTokenizer();
+        try (BufferedReader reader = Files.newBufferedReader(compactingFile, StandardCharsets.UTF_8)) {
+            String record;
+            while ((record = reader.readLine()) != null) {
+                if (record.isEmpty() || !tokenizer.tokenize(record, 1, record.length())) {
+                    continue;
+                }
+                if (record.charAt(0) == ADD && tokenizer.fieldCount() > CSVLoader.TITLE_COLUMN) {
+                    String key = MovieDatabase.titleKey(tokenizer.field(CSVLoader.TITLE_COLUMN));
+                    TitleChange change = changes.get(key);
+                    if (change == null) {
+                        // Only takes effect if the CSV file has no movie with the title
+                        changes.put(key, new TitleChange(record.substring(1), false));
+                    } else if (change.row() == null) {
+                        changes.remove(key);
+                        changes.put(key, new TitleChange(record.substring(1), true));
+                    }
+                } else if (record.charAt(0) == DELETE) {
+                    String key = MovieDatabase.titleKey(tokenizer.field(0));
+                    changes.remove(key);
+                    changes.put(key, new TitleChange(null, true));
+                }
+            }
+        }
+
+        // Copy every base row the log does not replace, then append the rows of the movies added last.
+        // The CSV file is copied as ISO-8859-1, which maps every byte to one char, so untouched rows keep their exact
+        // bytes even where they are not valid UTF-8. Only titles are decoded as UTF-8 for matching.
+        Path tempFile = baseFile.resolveSibling(baseFile.getFileName() + ".tmp");
+        try (BufferedReader reader = Files.newBufferedReader(baseFile, StandardCharsets.ISO_8859_1);
+             FileOutputStream fileOut = new FileOutputStream(tempFile.toFile());
+             Writer csvWriter = new BufferedWriter(new OutputStreamWriter(fileOut, StandardCharsets.ISO_8859_1))) {
+            String header = reader.readLine();
+            if (header != null) {
+                csvWriter.write(header);
+                csvWriter.write('\n');
+            }
+            Set<String> baseTitles = new HashSet<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String nextLine;
+                while (CSVLoader.hasOpenQuote(line) && (nextLine = reader.readLine()) != null) {
+                    line = line + "\n" + nextLine;
+                }
+                TitleChange change = null;
+                if (tokenizer.tokenize(line) && tokenizer.fieldCount() > CSVLoader.TITLE_COLUMN) {
+                    String key = MovieDatabase.titleKey(decodeUTF8(tokenizer.field(CSVLoader.TITLE_COLUMN)));
+                    change = changes.get(key);
+                    if (change != null) {
+                        baseTitles.add(key);
+                    }
+                }
+                if (change == null || !change.replacesBase()) {
+                    csvWriter.write(line);
+                    csvWriter.write('\n');
+                }
+            }
+            for (Map.Entry<String, TitleChange> entry : changes.entrySet()) {
+                TitleChange change = entry.getValue();
+                if (change.row() != null && (change.replacesBase() || !baseTitles.contains(entry.getKey()))) {
+                    csvWriter.write(encodeUTF8(change.row()));
+                    csvWriter.write('\n');
+                }
+            }
+            csvWriter.flush();
+            fileOut.getFD().sync();
+        }
+        Files.move(tempFile, baseFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.delete(compactingFile);
+    }
+
+    /**
+     * What the log leaves of one title.
+     *
+     * @param row The CSV row of the movie the title ends up with, or null if it ends up deleted.
+     * @param replacesBase Whether a movie of the CSV file with the title is replaced, because the log deleted it first.
+     *                     Otherwise the row only takes effect if the CSV file has no movie with the title.
+     */
+    private record TitleChange(String row, boolean replacesBase) {
+    }
+
+    /**
+     * Decodes text that was read as ISO-8859-1 from UTF-8 bytes.
+     */
+    private static String decodeUTF8(String latin1) {
+        return new String(latin1.getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Turns text into chars that write its UTF-8 bytes through an ISO-8859-1 writer.
+     */
+    private static String encodeUTF8(String text) {
+        return new String(text.getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1);
+    }
+}
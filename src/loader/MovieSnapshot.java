@@ -0,0 +1,209 @@
+package loader;
+
+import entities.DirectorDictionary;
+import entities.Movie;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * Reads and writes a compact binary snapshot of the movies loaded from moviedb.csv, so later starts can skip
+ * parsing the CSV text.
+ * <p>
+ * The snapshot starts with a header holding a magic number, the format version, the size, modification time and
+ * CRC32C checksum of the CSV file it was built from, and the number of movies. Each movie follows as its id, its title
+ * and director, written as an int byte length and the UTF-8 bytes (length -1 for a missing value), and its release
+ * year and running time as ints. A snapshot is fresh only while all three CSV properties still match.
+ */
+final class MovieSnapshot {
+    private static final int MAGIC = 0x4D564442; // "MVDB"
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 8 + 8 + 4;
+
+    private MovieSnapshot() {
+    }
+
+    /**
+     * Identifies one version of a CSV file by its size, modification time and checksum.
+     *
+     * @param size The size of the file in bytes.
+     * @param lastModified The modification time of the file in milliseconds since the epoch.
+     * @param checksum The CRC32C checksum of the file content.
+     */
+    record CSVStamp(long size, long lastModified, long checksum) {
+
+        /**
+         * Computes the stamp of a file. The content is read through a memory mapping to compute the checksum.
+         *
+         * @param csvFile The file to stamp.
+         * @return The stamp of the file.
+         * @throws IOException if the file cannot be read.
+         */
+        static CSVStamp of(Path csvFile) throws IOException {
+            long lastModified = Files.getLastModifiedTime(csvFile).toMillis();
+            CRC32C crc = new CRC32C();
+            long size;
+            try (FileChannel channel = FileChannel.open(csvFile, StandardOpenOption.READ)) {
+                size = channel.size();
+                for (long position = 0; position < size; position += Integer.MAX_VALUE) {
+                    crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(Integer.MAX_VALUE, size - position)));
+                }
+            }
+            return new CSVStamp(size, lastModified, crc.getValue());
+        }
+
+        /**
+         * Returns the stamp as the source stamp of an {@link entities.MappedMovieDatabase} file.
+         *
+         * @return A new array of the size, the modification time and the checksum.
+         */
+        long[] toLongs() {
+            return new long[]{size, lastModified, checksum};
+        }
+    }
+
+    /**
+     * Returns whether a snapshot exists and was built from the CSV file version with the given stamp.
+     *
+     * @param snapshotFile The snapshot file.
+     * @param stamp The stamp of the current CSV file.
+     * @return true if the snapshot can be used instead of parsing the CSV file.
+     */
+    static boolean isFresh(Path snapshotFile, CSVStamp stamp) {
+        if (!Files.isRegularFile(snapshotFile)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // Keep reading until the header is complete or the file ends
+            }
+            header.flip();
+            return header.remaining() == HEADER_BYTES
+                    && header.getInt() == MAGIC
+                    && header.getInt() == VERSION
+                    && stamp.equals(new CSVStamp(header.getLong(), header.getLong(), header.getLong()));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads all movies from a snapshot through a memory mapping.
+     *
+     * @param snapshotFile The snapshot file.
+     * @return The movies in the order in which they were written.
+     * @throws IOException if the file cannot be read or is not a valid snapshot.
+     */
+    static List<Movie> read(Path snapshotFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot " + snapshotFile + " is too large to be mapped");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException(snapshotFile + " is not a movie snapshot of version " + VERSION);
+            }
+            buffer.position(HEADER_BYTES - 4);
+            int count = buffer.getInt();
+            if (count < 0) {
+                throw new IOException("Snapshot " + snapshotFile + " has a negative movie count");
+            }
+
+            List<Movie> movies = new ArrayList<>(count);
+            byte[] scratch = new byte[256];
+            DirectorDictionary directors = new DirectorDictionary();
+            try {
+                for (int i = 0; i < count; i++) {
+                    int id = buffer.getInt();
+                    String title = readString(buffer, scratch);
+                    String director = directors.intern(readString(buffer, scratch));
+                    int releaseYear = buffer.getInt();
+                    int runningTime = buffer.getInt();
+                    movies.add(new Movie(id, title, director, releaseYear, runningTime));
+                }
+            } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+                throw new IOException("Snapshot " + snapshotFile + " is truncated or corrupt", e);
+            }
+            return movies;
+        }
+    }
+
+    /**
+     * Writes a snapshot of the given movies. The snapshot is written to a temporary file first and then moved into
+     * place, so readers never see a partially written snapshot.
+     *
+     * @param snapshotFile The snapshot file.
+     * @param stamp The stamp of the CSV file the movies were loaded from.
+     * @param movies The movies to write, in insertion order.
+     * @throws IOException if the snapshot cannot be written.
+     */
+    static void write(Path snapshotFile, CSVStamp stamp, Collection<Movie> movies) throws IOException {
+        Path tempFile = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(stamp.size());
+            out.writeLong(stamp.lastModified());
+            out.writeLong(stamp.checksum());
+            out.writeInt(movies.size());
+            for (Movie movie : movies) {
+                out.writeInt(movie.getId());
+                writeString(out, movie.getTitle());
+                writeString(out, movie.getDirector());
+                out.writeInt(movie.getReleaseYear());
+                out.writeInt(movie.getRunningTime());
+            }
+        }
+        Files.move(tempFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the number of movies from the header of a snapshot.
+     *
+     * @param snapshotFile The snapshot file.
+     * @return The number of movies in the snapshot.
+     * @throws IOException if the header cannot be read.
+     */
+    static int readMovieCount(Path snapshotFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+            ByteBuffer count = ByteBuffer.allocate(4);
+            channel.read(count, HEADER_BYTES - 4);
+            return count.flip().remaining() == 4 ? count.getInt() : 0;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer, byte[] scratch) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = length <= scratch.length ? scratch : new byte[length];
+        buffer.get(bytes, 0, length);
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+}
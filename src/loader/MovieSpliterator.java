@@ -0,0 +1,143 @@
+package loader;
+
+import entities.Movie;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * A Spliterator that parses movies lazily from a range of a memory-mapped CSV file.
+ * Only the record currently being parsed is held in memory, so a whole file can be processed in constant heap space.
+ * The range splits at record boundaries in the middle of what remains, so the file can be processed in parallel
+ * while the encounter order stays the file order.
+ */
+final class MovieSpliterator implements Spliterator<Movie> {
+    // Ranges smaller than this are not worth splitting
+    private static final long MIN_SPLIT_BYTES = 1 << 16;
+    // Rough size of one row of moviedb.csv, only used for size estimates
+    private static final long ESTIMATED_RECORD_BYTES = 80;
+
+    private final MappedCSVFile file;
+    private final CSVTokenizer tokenizer = new CSVTokenizer();
+    private byte[] record = new byte[256];
+    private long position;
+    private final long end;
+    private long line;
+
+    /**
+     * Constructs a MovieSpliterator over a range of a file.
+     *
+     * @param file The mapped CSV file.
+     * @param start The position of the first record of the range.
+     * @param end The position just past the last record of the range.
+     * @param line The line number of the first record of the range.
+     */
+    MovieSpliterator(MappedCSVFile file, long start, long end, long line) {
+        this.file = file;
+        this.position = start;
+        this.end = end;
+        this.line = line;
+    }
+
+    /**
+     * Parses the next well-formed record of the range and passes the movie to the action.
+     * Blank and malformed records are skipped, the latter are reported like in {@link CSVLoader}.
+     *
+     * @param action The action to perform on the movie.
+     * @return false if no movies remain.
+     */
+    @Override
+    public boolean tryAdvance(Consumer<? super Movie> action) {
+        while (position < end) {
+            long recordLine = line;
+            int length = readRecord();
+            String text = new String(record, 0, length, StandardCharsets.UTF_8);
+            Movie movie = CSVLoader.parseMovie(tokenizer, text, 0, text.length(), file.path().toString(), recordLine);
+            if (movie != null) {
+                action.accept(movie);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Copies the bytes of the record at the current position into the record buffer and moves past it.
+     * The line break ending the record and a carriage return before it are not copied.
+     *
+     * @return The length of the record in bytes.
+     */
+    private int readRecord() {
+        int length = 0;
+        boolean inQuotes = false;
+        while (position < end) {
+            byte b = file.byteAt(position++);
+            if (b == '\n') {
+                line++;
+                if (!inQuotes) {
+                    break;
+                }
+            } else if (b == '"') {
+                inQuotes = !inQuotes;
+            }
+            if (length == record.length) {
+                record = Arrays.copyOf(record, length * 2);
+            }
+            record[length++] = b;
+        }
+        if (length > 0 && record[length - 1] == '\r' && !inQuotes) {
+            length--;
+        }
+        return length;
+    }
+
+    /**
+     * Splits off the first half of the remaining range, cut at the first record boundary past its middle.
+     *
+     * @return A Spliterator over the first half, or null if the range is too small to split.
+     */
+    @Override
+    public Spliterator<Movie> trySplit() {
+        if (end - position < MIN_SPLIT_BYTES) {
+            return null;
+        }
+        long middle = position + (end - position) / 2;
+
+        // Scan to the first line break outside quotes past the middle, counting lines on the way
+        long lines = 0;
+        boolean inQuotes = false;
+        long boundary = -1;
+        for (long i = position; i < end; i++) {
+            byte b = file.byteAt(i);
+            if (b == '"') {
+                inQuotes = !inQuotes;
+            } else if (b == '\n') {
+                lines++;
+                if (!inQuotes && i + 1 >= middle) {
+                    boundary = i + 1;
+                    break;
+                }
+            }
+        }
+        if (boundary < 0 || boundary >= end) {
+            return null;
+        }
+
+        MovieSpliterator prefix = new MovieSpliterator(file, position, boundary, line);
+        position = boundary;
+        line += lines;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return position >= end ? 0 : (end - position) / ESTIMATED_RECORD_BYTES + 1;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL;
+    }
+}
@@ -1,21 +1,18 @@
 package panel;
 
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.table.JTableHeader;
 import javax.swing.table.TableCellRenderer;
 import java.awt.*;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.io.BufferedWriter;
-import java.io.FileWriter;
-import java.io.IOException;
 import java.util.*;
 import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import entities.Movie;
+import entities.MovieChange;
 import entities.MovieDatabase;
 import loader.CSVLoader;
 
@@ -29,15 +26,48 @@ public class BrowseMoviesPanel extends JPanel {
 
     //  HashMap used for sorting
     final private Map<Integer, Boolean> sortOrderMap = new HashMap<>();
-    String csvFilePath = "src/resources/moviedb.csv";
     private final WatchListPanel watchListPanel; // Reference to the WatchListPanel to add movies to
 
 
-    // Load movies from CSV file
-    private List<Movie> currentDisplayedMovies;
+    // The displayed movies, as a view over the movie database
+    private MovieTableModel moviesModel;
     private final MovieDatabase movieDatabase;
     private final CSVLoader csvLoader;
 
+    // Search as you type, the queries run in the background
+    private static final int SEARCH_DELAY_MILLIS = 250;
+    private final JTextField searchField = new JTextField(20);
+    private final DebouncedSearch<MovieQuery, int[]> search;
+    private MovieQuery currentQuery = new MovieQuery("", null);
+
+    /**
+     * A search of the movie list.
+     * @param text The text the title or director must contain, empty for all movies.
+     * @param year The release year, null for any year.
+     */
+    private record MovieQuery(String text, Integer year) {
+        /**
+         * Returns whether a movie matches this search, like the database's search does.
+         * @param movie The movie.
+         * @return true if the movie matches.
+         */
+        boolean matches(Movie movie) {
+            if (year != null && movie.getReleaseYear() != year) {
+                return false;
+            }
+            String needle = text.toLowerCase(Locale.ROOT);
+            return containsIgnoringCase(movie.getTitle(), needle) || containsIgnoringCase(movie.getDirector(), needle);
+        }
+
+        private static boolean containsIgnoringCase(String value, String lowerCaseNeedle) {
+            return value != null && value.toLowerCase(Locale.ROOT).contains(lowerCaseNeedle);
+        }
+    }
+
+    // Applies added and deleted movies to the table row by row
+    private final EdtSubscriber<MovieChange> movieChanges =
+            new EdtSubscriber<>(change -> moviesModel.applyChange(change, movie -> currentQuery.matches(movie)));
+
     /**
      * Constructs the BrowseMoviesPanel.
      * @param movieDatabase The MovieDatabase instance to be used.
@@ -46,26 +76,49 @@ public class BrowseMoviesPanel extends JPanel {
      */
     public BrowseMoviesPanel(MovieDatabase movieDatabase, WatchListPanel watchListPanel, MainFrame mainFrame) {
         this.movieDatabase = movieDatabase;
-        this.currentDisplayedMovies = new ArrayList<>(movieDatabase.getAllMovies());
         this.watchListPanel = watchListPanel;
         this.mainFrame = mainFrame;
-        csvLoader = new CSVLoader();
+        csvLoader = new CSVLoader(movieDatabase);
+        search = new DebouncedSearch<>(SEARCH_DELAY_MILLIS, this::findMovies, ids -> moviesModel.setView(ids));
         setLayout(new BorderLayout());
         initMoviesTable();
-        populateMovies();JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        populateMovies();
+        movieDatabase.changes().subscribe(movieChanges);
+
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
 
         // "Add New Movie" button
         JButton addMovieButton = new JButton("Add New Movie");
         addMovieButton.addActionListener(e -> addNewMovie());
         buttonPanel.add(addMovieButton); // Add to the button panel
 
-        // "Search" button
+        // Search field, the movie list follows the typed text
+        buttonPanel.add(new JLabel("Search:"));
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                searchAsYouType();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                searchAsYouType();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                searchAsYouType();
+            }
+        });
+        buttonPanel.add(searchField);
+
+        // "Search" button, for a search with a year filter
         JButton searchButton = new JButton("Search");
         searchButton.addActionListener(e -> showSearchDialog());
         buttonPanel.add(searchButton); // Add to the button panel
 
         JButton resetButton = new JButton("Reset View");
-        resetButton.addActionListener(e -> refreshMovieList());
+        resetButton.addActionListener(e -> resetView());
         buttonPanel.add(resetButton);
 
         JButton logoutButton = new JButton("Logout");
@@ -95,8 +148,8 @@ public class BrowseMoviesPanel extends JPanel {
         // Add an action listener to the "Delete" menu item
         deleteMenuItem.addActionListener(e -> {
             int selectedRow = moviesTable.getSelectedRow();
-            if (selectedRow >= 0 && selectedRow < currentDisplayedMovies.size()) {
-                Movie selectedMovie = currentDisplayedMovies.get(selectedRow);
+            Movie selectedMovie = moviesModel.getMovieAt(selectedRow);
+            if (selectedMovie != null) {
                 deleteMovie(selectedMovie);
             }
         });
@@ -125,12 +178,26 @@ public class BrowseMoviesPanel extends JPanel {
 
     /**
      * Logs out the current user and closes the main application window.
+     * The login window opens once the watchlist changes of the session are saved, which happens off the EDT.
      */
     private void logout() {
-        new LoginFrame(); // Open the login window
+        search.close();
+        movieChanges.cancel();
+        watchListPanel.close();
         mainFrame.dispose(); // Close the main application window
-        System.out.println("Main Frame Closed, Logged Out of the Session");
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() {
+                watchListPanel.closeWatchList();
+                return null;
+            }
 
+            @Override
+            protected void done() {
+                new LoginFrame(); // Open the login window
+                System.out.println("Main Frame Closed, Logged Out of the Session");
+            }
+        }.execute();
     }
 
     /**
@@ -169,13 +236,15 @@ public class BrowseMoviesPanel extends JPanel {
     }
 
     /**
-     * Adds a movie to the database and updates the CSV file.
+     * Adds a movie to the database and records it in the movie log next to the CSV file.
      * @param movie The movie to add.
      */
     private void addMovieToDatabaseAndCSV(Movie movie) {
         if (movieDatabase.addMovie(movie)) {
-            appendMovieToCSV(movie, csvFilePath);
-            refreshMovieList();
+            // The table adds the row when the change event of the database arrives
+            if (!csvLoader.appendMovie(movie)) {
+                JOptionPane.showMessageDialog(this, "Failed to save the movie to the CSV file.", "Error", JOptionPane.ERROR_MESSAGE);
+            }
         } else {
             JOptionPane.showMessageDialog(this, "Movie already exists in the database.", "Error", JOptionPane.ERROR_MESSAGE);
         }
@@ -186,100 +255,73 @@ public class BrowseMoviesPanel extends JPanel {
      * @param movie The movie to delete.
      */
     private void deleteMovie(Movie movie) {
-        // Remove the movie from your data source (e.g., movieDatabase)
-        boolean deletedFromDatabase = movieDatabase.removeMovie(movie.getTitle());
+        // Delete the movie from the CSV file using CSVLoader, which only logs titles the database still has
+        boolean deletedFromFile = csvLoader.deleteMovieByTitle(movie.getTitle());
 
-        if (deletedFromDatabase) {
-            // Remove the movie from the currentDisplayedMovies list
-            currentDisplayedMovies.remove(movie);
-
-            // Refresh the movie list or table
-            refreshMovieList();
-
-            // Delete the movie from the CSV file using CSVLoader
-            boolean deletedFromFile = csvLoader.deleteMovieByTitle(movie.getTitle());
-
-            if (!deletedFromFile) {
-                JOptionPane.showMessageDialog(this, "Failed to delete the movie from the CSV file.", "Error", JOptionPane.ERROR_MESSAGE);
+        if (deletedFromFile) {
+            // The table removes the row when the change event of the database arrives
+            if (!movieDatabase.removeMovie(movie.getTitle())) {
+                JOptionPane.showMessageDialog(this, "Failed to delete the movie from the database.", "Error", JOptionPane.ERROR_MESSAGE);
             }
         } else {
-            JOptionPane.showMessageDialog(this, "Failed to delete the movie from the database.", "Error", JOptionPane.ERROR_MESSAGE);
+            JOptionPane.showMessageDialog(this, "Failed to delete the movie from the CSV file.", "Error", JOptionPane.ERROR_MESSAGE);
         }
     }
 
 
     /**
-     * Appends a new movie to the CSV file.
-     * @param movie The movie to append.
-     * @param filePath The file path of the CSV file.
+     * Performs a search for movies based on a search text and an optional year filter.
+     * The search runs in the background, the table shows its result once it is done.
+     * @param searchText The text to search for.
+     * @param filterYear The year to filter the movies, can be null.
      */
-    private void appendMovieToCSV(Movie movie, String filePath) {
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(filePath, true))) {
-            bw.write("," + movie.getTitle() + "," + movie.getReleaseYear() + "," + movie.getRunningTime() + ", genre, 0," + movie.getDirector()) ;
-            bw.newLine();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    private void performSearch(String searchText, Integer filterYear) {
+        // Shows the text in the search field, the search below replaces the one this starts
+        searchField.setText(searchText);
+        currentQuery = new MovieQuery(searchText, filterYear);
+        search.searchNow(currentQuery);
     }
 
     /**
-     * Performs a search for movies based on a search text and an optional year filter.(Uses Stream API)
-     * @param searchText The text to search for.
-     * @param filterYear The year to filter the movies, can be null.
+     * Searches for the text of the search field once the user stopped typing.
      */
-    private void performSearch(String searchText, Integer filterYear) {
-        String lowerCaseSearchText = searchText.toLowerCase();
-        List<Movie> filteredMovies = movieDatabase.getAllMovies().stream()
-                .filter(movie -> movie.getTitle().toLowerCase().contains(lowerCaseSearchText)
-                        || movie.getDirector().toLowerCase().contains(lowerCaseSearchText))
-                .filter(movie -> filterYear == null || movie.getReleaseYear() == filterYear)
-                .collect(Collectors.toList());
-
-        updateMovieTable(filteredMovies);
-        currentDisplayedMovies = filteredMovies;
+    private void searchAsYouType() {
+        currentQuery = new MovieQuery(searchField.getText().trim(), null);
+        search.searchLater(currentQuery);
     }
 
     /**
-     * Sorts the movie table based on the specified column index.
-     * @param columnIndex The index of the column to sort by.
+     * Finds the movies of a query. Runs on the background thread of the search. (Uses Stream API)
+     * @param query The query.
+     * @return The ids of the found movies, in insertion order.
      */
-    private void sortTableByColumn(int columnIndex) {
-        boolean isAscending = sortOrderMap.getOrDefault(columnIndex, true);
-        Stream<Movie> movieStream = currentDisplayedMovies.stream();
-
-        Comparator<Movie> comparator = switch (columnIndex) {
-            case 0 -> // "Title" column
-                    Comparator.comparing(Movie::getTitle);
-            case 1 -> // "Director" column
-                    Comparator.comparing(Movie::getDirector);
-            case 2 -> // "Year" column
-                    Comparator.comparing(Movie::getReleaseYear);
-            case 3 -> // "Running Time" column
-                    Comparator.comparing(Movie::getRunningTime);
-            default -> throw new IllegalArgumentException("Invalid column index");
-        };
-
-        if (!isAscending) {
-            comparator = comparator.reversed();
+    private int[] findMovies(MovieQuery query) {
+        if (query.text().isEmpty() && query.year() == null) {
+            return movieDatabase.getAllMovieIds();
         }
-
-        currentDisplayedMovies = movieStream.sorted(comparator).collect(Collectors.toList());
-        updateMovieTable(currentDisplayedMovies);
-
-        // Toggle the sort order for next time
-        sortOrderMap.put(columnIndex, !isAscending);
+        // The text match comes from the database's trigram index and the year from its year index,
+        // only the few hits are filtered
+        List<Movie> movies = query.text().isEmpty()
+                ? movieDatabase.getMoviesByYear(query.year())
+                : movieDatabase.searchMovies(query.text());
+        return movies.stream()
+                .filter(movie -> query.year() == null || movie.getReleaseYear() == query.year())
+                .mapToInt(Movie::getId)
+                .toArray();
     }
 
     /**
-     * Updates the movie table with a new list of movies.
-     * @param movies The list of movies to display.
+     * Sorts the movie table based on the specified column index.
+     * The displayed movies are filtered from the database's precomputed order of the column, so a click is as fast on
+     * the whole catalog as on a search result.
+     * @param columnIndex The index of the column to sort by.
      */
-    private void updateMovieTable(List<Movie> movies) {
-        DefaultTableModel model = (DefaultTableModel) moviesTable.getModel();
-        model.setRowCount(0); // Clear existing rows
+    private void sortTableByColumn(int columnIndex) {
+        boolean isAscending = sortOrderMap.getOrDefault(columnIndex, true);
 
-        for (Movie movie : movies) {
-            model.addRow(new Object[]{movie.getTitle(), movie.getDirector(), movie.getReleaseYear(), movie.getRunningTime(), "Add"});
+        if (moviesModel.sortByColumn(columnIndex, isAscending)) {
+            // Toggle the sort order for next time
+            sortOrderMap.put(columnIndex, !isAscending);
         }
     }
 
@@ -327,31 +369,9 @@ public class BrowseMoviesPanel extends JPanel {
      * Populates the movie table with movie data from the database.
      */
     private void populateMovies() {
-        DefaultTableModel model = new DefaultTableModel() {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                // Allow only the "Add to Watch List" column to be clickable
-                return column == 4;
-            }
-
-        };
-
-        // Add columns to model
-        model.addColumn("Title");
-        model.addColumn("Director");
-        model.addColumn("Year");
-        model.addColumn("Runtime");
-
-        // Now apply the model to your JTable
-        moviesTable.setModel(model);
-        model.addColumn("Add to Watch List");
-
-        // Populate the model with movies and a placeholder for the button
-        for (Movie movie : movieDatabase.getAllMovies()) {
-            model.addRow(new Object[]{movie.getTitle(), movie.getDirector(), movie.getReleaseYear(), movie.getRunningTime(), "Add"});
-        }
-
-        moviesTable.setModel(model);
+        // The model reads the cells from the database on demand instead of copying every movie into the table
+        moviesModel = new MovieTableModel(movieDatabase);
+        moviesTable.setModel(moviesModel);
 
         // Set custom renderer and editor for the "Add to Watch List" button
         moviesTable.getColumn("Add to Watch List").setCellRenderer(new ButtonRenderer());
@@ -413,8 +433,8 @@ public class BrowseMoviesPanel extends JPanel {
                     int viewRow = table.getEditingRow(); // Get the view row index
                     if (viewRow >= 0) {
                         int modelRow = table.convertRowIndexToModel(viewRow); // Convert to model row index
-                        if (modelRow >= 0 && modelRow < currentDisplayedMovies.size()) {
-                            Movie selectedMovie = currentDisplayedMovies.get(modelRow);
+                        Movie selectedMovie = moviesModel.getMovieAt(modelRow);
+                        if (selectedMovie != null) {
                             watchListPanel.addToWatchList(selectedMovie);
                         }
                     }
@@ -469,27 +489,10 @@ public class BrowseMoviesPanel extends JPanel {
     }
 
     /**
-     * Updates the current displayed movies list from the movie database.
+     * Clears the search and shows all movies.
      */
-    private void updateCurrentDisplayedMovies() {
-        currentDisplayedMovies = new ArrayList<>(movieDatabase.getAllMovies());
-    }
-
-    /**
-     * Refreshes the movie list in the table.
-     */
-    private void refreshMovieList() {
-        DefaultTableModel model = (DefaultTableModel) moviesTable.getModel();
-        model.setRowCount(0); // Clear the existing rows
-
-        // Populate the model with movies and a placeholder for the button
-        for (Movie movie : movieDatabase.getAllMovies()) {
-            model.addRow(new Object[]{movie.getTitle(), movie.getDirector(), movie.getReleaseYear(), movie.getRunningTime(), "Add"});
-        }
-
-        // Notify the table that the data has changed
-        model.fireTableDataChanged();
-        updateCurrentDisplayedMovies();
+    private void resetView() {
+        performSearch("", null);
     }
 
 }
\ No newline at end of file
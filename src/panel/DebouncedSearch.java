@@ -0,0 +1,110 @@
+package panel;
+
+import javax.swing.*;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Runs queries of a search-as-you-type field in the background.
+ * A query is started only once no newer one arrived for a short delay, so a burst of keystrokes runs a single query.
+ * Queries run one at a time on a background thread, and a newer query cancels the one still in flight; a result is
+ * handed to the event dispatch thread only if no newer query was made in the meantime, so an old result never
+ * overwrites a newer one. All methods must be called on the event dispatch thread.
+ *
+ * @param <Q> The type of the queries.
+ * @param <R> The type of the results.
+ */
+final class DebouncedSearch<Q, R> {
+    private final Function<Q, R> search;
+    private final Consumer<R> publish;
+    private final Timer timer;
+    // One thread that ends when idle, so a closed window leaves no thread behind
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(0, 1, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "movie-search");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    // Only touched on the event dispatch thread
+    private Q pendingQuery;
+    private Future<?> running;
+    private long generation;
+
+    /**
+     * Constructs a DebouncedSearch.
+     *
+     * @param delayMillis The time in milliseconds without a newer query after which a query starts.
+     * @param search Runs a query, on the background thread.
+     * @param publish Shows a current result, on the event dispatch thread.
+     */
+    DebouncedSearch(int delayMillis, Function<Q, R> search, Consumer<R> publish) {
+        this.search = search;
+        this.publish = publish;
+        timer = new Timer(delayMillis, e -> searchNow(pendingQuery));
+        timer.setRepeats(false);
+    }
+
+    /**
+     * Starts a query once no newer one arrived for the delay, for example after a keystroke.
+     * A query still in flight is cancelled right away.
+     *
+     * @param query The query.
+     */
+    void searchLater(Q query) {
+        cancelRunning();
+        pendingQuery = query;
+        timer.restart();
+    }
+
+    /**
+     * Starts a query right away, for example after the user pressed a button.
+     *
+     * @param query The query.
+     */
+    void searchNow(Q query) {
+        timer.stop();
+        cancelRunning();
+        long current = generation;
+        running = executor.submit(() -> {
+            R result;
+            try {
+                result = search.apply(query);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                return;
+            }
+            if (!Thread.currentThread().isInterrupted()) {
+                SwingUtilities.invokeLater(() -> {
+                    if (generation == current) {
+                        publish.accept(result);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Cancels the query in flight and makes sure its result is not published.
+     */
+    private void cancelRunning() {
+        generation++;
+        if (running != null) {
+            running.cancel(true);
+            running = null;
+        }
+    }
+
+    /**
+     * Cancels all queries, for example when the window closes.
+     */
+    void close() {
+        timer.stop();
+        cancelRunning();
+        executor.shutdownNow();
+    }
+}
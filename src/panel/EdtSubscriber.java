@@ -0,0 +1,85 @@
+package panel;
+
+import javax.swing.*;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Receives the changes of a database and applies them on the Swing event dispatch thread, one by one and in the order
+ * in which they were published. Receiving a change only queues it, so the publisher is never kept waiting. A single
+ * task on the event dispatch thread drains the queue, so a burst of changes costs one task rather than one per change.
+ *
+ * @param <T> The type of the changes.
+ */
+final class EdtSubscriber<T> implements Flow.Subscriber<T> {
+    private final Consumer<T> apply;
+    private final Queue<T> pending = new ConcurrentLinkedQueue<>();
+    // Whether a drain task is queued on the event dispatch thread and has not started taking changes yet
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private volatile Flow.Subscription subscription;
+    private volatile boolean cancelled;
+
+    /**
+     * Constructs an EdtSubscriber.
+     *
+     * @param apply Applies a change, on the event dispatch thread.
+     */
+    EdtSubscriber(Consumer<T> apply) {
+        this.apply = apply;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        if (cancelled) {
+            subscription.cancel();
+        } else {
+            subscription.request(Long.MAX_VALUE);
+        }
+    }
+
+    @Override
+    public void onNext(T change) {
+        pending.add(change);
+        if (drainScheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::drain);
+        }
+    }
+
+    /**
+     * Applies all queued changes, on the event dispatch thread.
+     */
+    private void drain() {
+        // Cleared before taking changes, so a change queued from now on schedules another drain if this one misses it
+        drainScheduled.set(false);
+        T change;
+        while ((change = pending.poll()) != null) {
+            if (!cancelled) {
+                apply.accept(change);
+            }
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        throwable.printStackTrace();
+    }
+
+    @Override
+    public void onComplete() {
+    }
+
+    /**
+     * Stops receiving changes, for example when the window closes. Changes already queued are dropped.
+     */
+    void cancel() {
+        cancelled = true;
+        Flow.Subscription current = subscription;
+        if (current != null) {
+            current.cancel();
+        }
+    }
+}
@@ -4,12 +4,11 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import entities.User;
 
 /**
  * Provides a login interface for users to enter their username and password.
  * This class handles user authentication and can redirect to either the main application window
- * upon successful login or a registration window.
+ * upon successful login or a registration window. Logging in runs in the background, see {@link SessionBootstrap}.
  */
 public class LoginFrame extends JFrame implements ActionListener {
     JTextField usernameField;
@@ -60,14 +59,17 @@ public class LoginFrame extends JFrame implements ActionListener {
         String username = usernameField.getText();
         String password = new String(passwordField.getPassword());
 
-        // Use the User class's login method to check credentials
-        if (User.login(username, password)) {
-            new MainFrame(username); // Open the main application window
-            this.dispose(); // Close the login window
-        } else {
-            // Show error message on failed login
-            JOptionPane.showMessageDialog(this, "Invalid username or password", "Login Error", JOptionPane.ERROR_MESSAGE);
-        }
+        // Check the credentials and load the main application window in the background,
+        // the login window closes once it is ready and shows an error message otherwise
+        setInputEnabled(false);
+        SessionBootstrap.login(this, username, password, () -> setInputEnabled(true));
+    }
+
+    private void setInputEnabled(boolean enabled) {
+        usernameField.setEnabled(enabled);
+        passwordField.setEnabled(enabled);
+        loginButton.setEnabled(enabled);
+        registerButton.setEnabled(enabled);
     }
 
 }
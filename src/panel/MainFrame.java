@@ -15,20 +15,32 @@ public class MainFrame extends JFrame {
 
     /**
      * Constructs the MainFrame which serves as the primary interface for the user.
-     * It sets up the movie browsing and watchlist panels.
+     * It loads the movie and watchlist databases and sets up the movie browsing and watchlist panels.
      *
      * @param username The username of the currently logged-in user.
      */
     public MainFrame(String username) {
+        this(username, CSVLoader.loadMovies());
+    }
+
+    private MainFrame(String username, MovieDatabase movieDatabase) {
+        this(username, movieDatabase, new WatchListDatabase(movieDatabase));
+    }
+
+    /**
+     * Constructs the MainFrame on databases that were already loaded, for example in the background while the user
+     * waited for the login.
+     *
+     * @param username The username of the currently logged-in user.
+     * @param movieDatabase The movie catalog.
+     * @param watchListDatabase The watchlists, referring to the movie catalog.
+     */
+    public MainFrame(String username, MovieDatabase movieDatabase, WatchListDatabase watchListDatabase) {
         setTitle("Movie App");
         setSize(1000, 600);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setLayout(new BorderLayout());
 
-        // Load databases
-        MovieDatabase movieDatabase = CSVLoader.loadMoviesFromCSV();
-        WatchListDatabase watchListDatabase = new WatchListDatabase();
-
         // Create panels
         WatchListPanel watchListPanel = new WatchListPanel(watchListDatabase);
         watchListPanel.loadUserWatchList(username);
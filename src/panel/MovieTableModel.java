@@ -0,0 +1,291 @@
+package panel;
+
+import entities.Movie;
+import entities.MovieChange;
+import entities.MovieDatabase;
+import entities.MovieSortKey;
+
+import javax.swing.table.AbstractTableModel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * A table model that shows a view of a MovieDatabase without copying it.
+ * The view is an array of movie ids, one per row; the cells are read from the database only when the table asks for
+ * them, which it does for the visible rows alone. Searching or sorting replaces the id array and notifies the table
+ * once, so the memory used per row is a single int however often the view changes. Inserts, updates and deletes of
+ * the database are applied as such, notifying the table of the changed rows only. The row of a changed movie is found
+ * through an open-addressing table from id to row, built when a change first needs it.
+ */
+public class MovieTableModel extends AbstractTableModel {
+    /**
+     * The index of the column holding the "Add" button.
+     */
+    public static final int ADD_COLUMN = 4;
+
+    private static final String[] COLUMN_NAMES = {"Title", "Director", "Year", "Runtime", "Add to Watch List"};
+
+    private final MovieDatabase movieDatabase;
+    // The first rowCount entries are the view, the rest is room for inserted rows
+    private int[] view;
+    private int rowCount;
+    // Row + 1 of each shown id by the hash of the id, 0 for a free slot; null until a change looks up a row
+    private int[] rowSlots;
+
+    /**
+     * Constructs a MovieTableModel showing all movies of a database.
+     *
+     * @param movieDatabase The database the cells are read from.
+     */
+    public MovieTableModel(MovieDatabase movieDatabase) {
+        this.movieDatabase = movieDatabase;
+        this.view = movieDatabase.getAllMovieIds();
+        this.rowCount = view.length;
+    }
+
+    /**
+     * Returns the key a column is sorted by.
+     *
+     * @param column The column index.
+     * @return The sort key, or null for the "Add to Watch List" column, which cannot be sorted.
+     */
+    public static MovieSortKey sortKeyOf(int column) {
+        return switch (column) {
+            case 0 -> MovieSortKey.TITLE;
+            case 1 -> MovieSortKey.DIRECTOR;
+            case 2 -> MovieSortKey.RELEASE_YEAR;
+            case 3 -> MovieSortKey.RUNNING_TIME;
+            default -> null;
+        };
+    }
+
+    /**
+     * Shows all movies of the database, in insertion order.
+     */
+    public void showAll() {
+        setView(movieDatabase.getAllMovieIds());
+    }
+
+    /**
+     * Sorts the shown movies by a column. The order comes from the precomputed sort orders of the database, so no
+     * movies are compared.
+     *
+     * @param column The column index.
+     * @param ascending true for ascending order, false for descending order.
+     * @return false if the column cannot be sorted.
+     */
+    public boolean sortByColumn(int column, boolean ascending) {
+        MovieSortKey key = sortKeyOf(column);
+        if (key == null) {
+            return false;
+        }
+        setView(movieDatabase.sortMovieIds(getView(), key, ascending));
+        return true;
+    }
+
+    /**
+     * Shows the given movies in the given order.
+     *
+     * @param movies The movies to show, which must belong to the database.
+     */
+    public void showMovies(Collection<Movie> movies) {
+        int[] ids = new int[movies.size()];
+        int count = 0;
+        for (Movie movie : movies) {
+            ids[count++] = movie.getId();
+        }
+        setView(ids);
+    }
+
+    /**
+     * Replaces the view and notifies the table once.
+     *
+     * @param movieIds The ids of the movies to show, one per row. The array is used as is and must not be changed later.
+     */
+    public void setView(int[] movieIds) {
+        view = movieIds;
+        rowCount = movieIds.length;
+        rowSlots = null;
+        fireTableDataChanged();
+    }
+
+    /**
+     * Applies a change of the database to the view. A deleted movie's row is removed, inserted movies are added as
+     * the last rows if they belong in the view, and an updated movie's row is redrawn, or removed if it no longer
+     * belongs in the view. The table is notified of the changed rows only, once for all movies of a batch insert.
+     *
+     * @param change The change of the database.
+     * @param belongsInView Whether a movie belongs in the view, for example whether it matches the current search.
+     */
+    public void applyChange(MovieChange change, Predicate<Movie> belongsInView) {
+        switch (change.type()) {
+            case DELETE -> removeRow(rowOf(change.movieId()));
+            case INSERT -> {
+                int firstRow = rowCount;
+                for (Movie movie : change.movies()) {
+                    if (rowOf(movie.getId()) < 0 && belongsInView.test(movie)) {
+                        appendRow(movie.getId());
+                    }
+                }
+                if (rowCount > firstRow) {
+                    fireTableRowsInserted(firstRow, rowCount - 1);
+                }
+            }
+            case UPDATE -> {
+                int row = rowOf(change.movieId());
+                if (!belongsInView.test(change.movie())) {
+                    removeRow(row);
+                } else if (row >= 0) {
+                    fireTableRowsUpdated(row, row);
+                } else {
+                    appendRow(change.movieId());
+                    fireTableRowsInserted(rowCount - 1, rowCount - 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the row of a movie, or -1 if the view does not show it.
+     */
+    private int rowOf(int movieId) {
+        if (rowSlots == null) {
+            rebuildRowSlots();
+        }
+        int mask = rowSlots.length - 1;
+        for (int slot = hash(movieId) & mask; rowSlots[slot] != 0; slot = (slot + 1) & mask) {
+            if (view[rowSlots[slot] - 1] == movieId) {
+                return rowSlots[slot] - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Appends a row without notifying the table.
+     */
+    private void appendRow(int movieId) {
+        if (rowCount == view.length) {
+            view = Arrays.copyOf(view, Math.max(16, rowCount * 2));
+        }
+        view[rowCount++] = movieId;
+        if (rowSlots != null) {
+            if (rowCount * 2 > rowSlots.length) {
+                rebuildRowSlots();
+            } else {
+                insertRowSlot(rowCount - 1);
+            }
+        }
+    }
+
+    private void removeRow(int row) {
+        if (row < 0) {
+            return;
+        }
+        System.arraycopy(view, row + 1, view, row, rowCount - row - 1);
+        rowCount--;
+        // Every later row moved up by one, the next lookup builds the table again
+        rowSlots = null;
+        fireTableRowsDeleted(row, row);
+    }
+
+    private void rebuildRowSlots() {
+        // At least twice the number of rows, so the table is never more than half full
+        rowSlots = new int[Integer.highestOneBit(Math.max(8, rowCount)) << 2];
+        for (int row = 0; row < rowCount; row++) {
+            insertRowSlot(row);
+        }
+    }
+
+    private void insertRowSlot(int row) {
+        int mask = rowSlots.length - 1;
+        int slot = hash(view[row]) & mask;
+        while (rowSlots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        rowSlots[slot] = row + 1;
+    }
+
+    private static int hash(int id) {
+        return id * 0x9E3779B9 >>> 7;
+    }
+
+    /**
+     * Returns the ids of the shown movies.
+     *
+     * @return A copy of the view.
+     */
+    public int[] getView() {
+        return Arrays.copyOf(view, rowCount);
+    }
+
+    /**
+     * Returns the shown movies in row order. Movies deleted from the database since the view was set are left out.
+     *
+     * @return A new list of the shown movies.
+     */
+    public List<Movie> getMovies() {
+        List<Movie> movies = new ArrayList<>(rowCount);
+        for (int row = 0; row < rowCount; row++) {
+            movieDatabase.getMovieById(view[row]).ifPresent(movies::add);
+        }
+        return movies;
+    }
+
+    /**
+     * Returns the movie of a row.
+     *
+     * @param row The row index in the model.
+     * @return The movie, or null if the row does not exist or its movie was deleted from the database.
+     */
+    public Movie getMovieAt(int row) {
+        if (row < 0 || row >= rowCount) {
+            return null;
+        }
+        return movieDatabase.getMovieById(view[row]).orElse(null);
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    /**
+     * Allows only the "Add to Watch List" column to be clickable.
+     */
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        return column == ADD_COLUMN;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        if (column == ADD_COLUMN) {
+            return "Add";
+        }
+        Movie movie = getMovieAt(row);
+        if (movie == null) {
+            return null;
+        }
+        return switch (column) {
+            case 0 -> movie.getTitle();
+            case 1 -> movie.getDirector();
+            case 2 -> movie.getReleaseYear();
+            case 3 -> movie.getRunningTime();
+            default -> throw new IndexOutOfBoundsException("Invalid column index " + column);
+        };
+    }
+}
@@ -6,6 +6,8 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import entities.User;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Provides a registration interface for new users.
  * This class handles the creation of new user accounts, including input validation.
@@ -71,15 +73,20 @@ public class RegistrationFrame extends JFrame implements ActionListener {
         }
 
 
-        // Use the User class's method to register new users
-        if (User.register(username, password)) {
-            // On successful registration:
-            JOptionPane.showMessageDialog(this, "Registration successful", "Success", JOptionPane.INFORMATION_MESSAGE);
-            this.dispose();
-        } else {
-            // Show error message on failed registration
-            JOptionPane.showMessageDialog(this, "Registration failed", "Registration Error", JOptionPane.ERROR_MESSAGE);
-        }
+        // Use the User class's method to register new users, in the background since it writes to disk
+        registerButton.setEnabled(false);
+        CompletableFuture.supplyAsync(() -> User.register(username, password), SessionBootstrap.EXECUTOR)
+                .whenComplete((registered, failure) -> SwingUtilities.invokeLater(() -> {
+                    if (failure == null && registered) {
+                        // On successful registration:
+                        JOptionPane.showMessageDialog(this, "Registration successful", "Success", JOptionPane.INFORMATION_MESSAGE);
+                        this.dispose();
+                    } else {
+                        // Show error message on failed registration
+                        JOptionPane.showMessageDialog(this, "Registration failed", "Registration Error", JOptionPane.ERROR_MESSAGE);
+                        registerButton.setEnabled(true);
+                    }
+                }));
     }
 
     /**
@@ -0,0 +1,144 @@
+package panel;
+
+import entities.MovieDatabase;
+import entities.User;
+import entities.WatchListDatabase;
+import entities.WatchListStore;
+import loader.CSVLoader;
+
+import javax.swing.*;
+import java.awt.*;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Logs a user in and prepares the main window without blocking the Swing event dispatch thread.
+ * The credentials are checked on a background thread. After a successful check the movie catalog and the watchlist
+ * store are loaded in parallel, and the user's watchlist is read ahead, so the event dispatch thread only has to build
+ * the MainFrame from the finished databases. A progress dialog is shown until then, and failures are shown as error
+ * messages.
+ */
+final class SessionBootstrap {
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    /**
+     * Runs the blocking work of logins and registrations. Every task waits on the disk, so each one gets a thread of
+     * its own instead of queueing behind the others; idle threads end after a minute. The threads are daemons, so
+     * waiting work never keeps the application alive after the last window closed.
+     */
+    static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "session-bootstrap-" + THREAD_COUNT.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private SessionBootstrap() {
+    }
+
+    /**
+     * Databases loaded for a session.
+     */
+    private record Session(MovieDatabase movieDatabase, WatchListStore watchListStore) {
+    }
+
+    /**
+     * Logs a user in and opens the main window for the user once everything is loaded. The login window is disposed
+     * then. Must be called on the event dispatch thread.
+     *
+     * @param loginFrame The login window, which owns the progress dialog and the error messages.
+     * @param username The username.
+     * @param password The password.
+     * @param onFailure Run on the event dispatch thread if the login fails, for example to enable the login window again.
+     */
+    static void login(JFrame loginFrame, String username, String password, Runnable onFailure) {
+        JProgressBar progressBar = new JProgressBar();
+        progressBar.setIndeterminate(true);
+        progressBar.setStringPainted(true);
+        progressBar.setString("Checking credentials...");
+        JDialog progressDialog = new JDialog(loginFrame, "Logging in");
+        progressDialog.setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
+        progressDialog.add(progressBar, BorderLayout.CENTER);
+        progressDialog.setSize(300, 70);
+        progressDialog.setLocationRelativeTo(loginFrame);
+        progressDialog.setVisible(true);
+
+        CompletableFuture.supplyAsync(() -> User.login(username, password), EXECUTOR)
+                .thenCompose(valid -> {
+                    if (!valid) {
+                        return CompletableFuture.completedFuture((Session) null);
+                    }
+                    SwingUtilities.invokeLater(() -> progressBar.setString("Loading movies and watchlists..."));
+                    return loadSession(username);
+                })
+                .whenComplete((session, failure) -> SwingUtilities.invokeLater(() -> {
+                    progressDialog.dispose();
+                    if (failure != null) {
+                        Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                                ? failure.getCause() : failure;
+                        JOptionPane.showMessageDialog(loginFrame, "Could not load your session: " + cause.getMessage(),
+                                "Login Error", JOptionPane.ERROR_MESSAGE);
+                        onFailure.run();
+                    } else if (session == null) {
+                        JOptionPane.showMessageDialog(loginFrame, "Invalid username or password", "Login Error",
+                                JOptionPane.ERROR_MESSAGE);
+                        onFailure.run();
+                    } else {
+                        MovieDatabase movieDatabase = session.movieDatabase();
+                        new MainFrame(username, movieDatabase, new WatchListDatabase(movieDatabase, session.watchListStore()));
+                        loginFrame.dispose();
+                    }
+                }));
+    }
+
+    /**
+     * Loads the movie catalog and opens the watchlist store at the same time. Opening the store only waits for the
+     * catalog when the watchlist file still lists movie titles that have to be migrated.
+     */
+    private static CompletableFuture<Session> loadSession(String username) {
+        CompletableFuture<MovieDatabase> movies = CompletableFuture.supplyAsync(() -> {
+            try {
+                MovieDatabase movieDatabase = CSVLoader.loadMoviesOrThrow();
+                // Sorting now keeps the first click on a column header from waiting
+                movieDatabase.prepareSortOrders();
+                return movieDatabase;
+            } catch (IOException e) {
+                throw new UncheckedIOException("the movie catalog cannot be read (" + e.getMessage() + ")", e);
+            }
+        }, EXECUTOR);
+        CompletableFuture<WatchListStore> watchlists = CompletableFuture.supplyAsync(() -> {
+            try {
+                WatchListStore store = WatchListDatabase.openDefaultStore(movies::join);
+                try {
+                    // Reading the user's watchlist now keeps the disk access out of building the main window
+                    store.loadUser(username);
+                } catch (IOException e) {
+                    closeQuietly(store);
+                    throw e;
+                }
+                return store;
+            } catch (IOException e) {
+                throw new UncheckedIOException("the watchlists cannot be read (" + e.getMessage() + ")", e);
+            }
+        }, EXECUTOR);
+
+        return movies.thenCombine(watchlists, Session::new).whenComplete((session, failure) -> {
+            if (failure != null) {
+                // Without a session nobody else closes a store that did open
+                watchlists.thenAccept(SessionBootstrap::closeQuietly);
+            }
+        });
+    }
+
+    private static void closeQuietly(WatchListStore store) {
+        try {
+            store.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -1,17 +1,22 @@
 package panel;
 
 import entities.Movie;
+import entities.WatchListChange;
 import entities.WatchListDatabase;
 
 import javax.swing.*;
 import javax.swing.table.DefaultTableModel;
 import javax.swing.table.TableCellRenderer;
 import java.awt.*;
+import java.io.UncheckedIOException;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * A panel for managing and displaying a user's movie watchlist.
  * It allows users to view, add, and remove movies from their watchlist.
+ * The table follows the change events of the WatchListDatabase, so it also shows changes made in other sessions.
  */
 public class WatchListPanel extends JPanel {
     private JTable watchListTable;
@@ -19,6 +24,7 @@ public class WatchListPanel extends JPanel {
     private WatchListDatabase watchListDB;
     private String username;
     private JLabel emptyLabel;
+    private final EdtSubscriber<WatchListChange> watchListChanges = new EdtSubscriber<>(this::applyChange);
 
     /**
      * Constructs a new WatchListPanel.
@@ -41,6 +47,10 @@ public class WatchListPanel extends JPanel {
      * @param username The username whose watchlist is to be loaded.
      */
     public void loadUserWatchList(String username) {
+        if (this.username == null) {
+            // Subscribing first means no change is missed, one made while loading may arrive twice and is skipped then
+            watchListDB.changes().subscribe(watchListChanges);
+        }
         this.username = username;
         populateWatchList(username);
     }
@@ -85,18 +95,40 @@ public class WatchListPanel extends JPanel {
     }
 
     /**
-     * Adds a movie to the user's watchlist.
+     * Persists all changes to the watchlist and closes the WatchListDatabase with its store, when the user logs out.
+     * Blocks on disk, so do not call it on the EDT.
+     */
+    public void closeWatchList() {
+        watchListDB.close();
+    }
+
+    /**
+     * Stops following the changes of the WatchListDatabase, for example when the user logs out.
+     */
+    public void close() {
+        watchListChanges.cancel();
+    }
+
+    /**
+     * Adds a movie to the user's watchlist. The table shows it once the change event arrives.
      * @param movie The movie to add to the watchlist.
      */
     public void addToWatchList(Movie movie) {
-        List<String> userWatchList = watchListDB.getWatchlistForUser(username);
-        String movieTitle = movie.getTitle();
-        if (!userWatchList.contains(movieTitle)) {
-            watchListDB.addMovieToWatchlist(username, movieTitle);
-            refreshWatchList();
+        try {
+            watchListDB.addMovieToWatchlist(username, movie.getId());
+        } catch (UncheckedIOException e) {
+            showSaveError(e);
         }
     }
 
+    /**
+     * Tells the user that a change of the watchlist could not be saved and was therefore not made.
+     */
+    private void showSaveError(UncheckedIOException e) {
+        JOptionPane.showMessageDialog(this, "Could not save your watchlist: " + e.getCause().getMessage(),
+                "Watchlist Error", JOptionPane.ERROR_MESSAGE);
+    }
+
     /**
      * Renders a button in a table cell.
      * This class extends JButton and implements TableCellRenderer, allowing it to display a button in a JTable.
@@ -158,10 +190,12 @@ public class WatchListPanel extends JPanel {
                 if (selectedRow >= 0) {
                     int modelRow = watchListTable.convertRowIndexToModel(selectedRow);
                     String movieTitle = (String) watchListTable.getModel().getValueAt(modelRow, 0);
-                    watchListDB.removeFromWatchlist(username, movieTitle,watchListTable);
-                    watchListTable.revalidate();
-                    watchListTable.repaint();
-                    refreshWatchList();
+                    // The row is removed once the change event arrives
+                    try {
+                        watchListDB.removeFromWatchlist(username, movieTitle);
+                    } catch (UncheckedIOException ex) {
+                        showSaveError(ex);
+                    }
                 }
             });
 
@@ -184,21 +218,36 @@ public class WatchListPanel extends JPanel {
     }
 
     /**
-     * Refreshes the watchlist to reflect any changes.
+     * Applies a change of the user's watchlist to the table without reloading it. Only the changed rows are added or
+     * removed; movies the table already shows are not added again.
+     *
+     * @param change The change of a watchlist. Changes of other users are ignored.
      */
-    private void refreshWatchList() {
-        watchListModel.setRowCount(0); // Clear existing rows
-        List<String> userWatchList = watchListDB.getWatchlistForUser(username);
-
-        if (userWatchList.isEmpty()) {
-            // Optional: Provide feedback for an empty watchlist
-            // e.g., show a label with text "Your watchlist is empty."
-        } else {
-            for (String movieTitle : userWatchList) {
+    public void applyChange(WatchListChange change) {
+        if (watchListModel == null || !change.username().equals(username) || change.isEmpty()) {
+            return;
+        }
+        int selectedRow = watchListTable.getSelectedRow();
+        Set<String> removedTitles = new HashSet<>(watchListDB.resolveTitles(change.removed()));
+        Set<String> shownTitles = new HashSet<>();
+        for (int row = watchListModel.getRowCount() - 1; row >= 0; row--) {
+            Object movieTitle = watchListModel.getValueAt(row, 0);
+            if (removedTitles.contains(movieTitle)) {
+                watchListModel.removeRow(row);
+            } else {
+                shownTitles.add((String) movieTitle);
+            }
+        }
+        for (String movieTitle : watchListDB.resolveTitles(change.added())) {
+            if (shownTitles.add(movieTitle)) {
                 watchListModel.addRow(new Object[]{movieTitle, "Remove"});
             }
         }
-        watchListTable.revalidate();
-        watchListTable.repaint();
+        // Keep a row selected where the removed one was
+        int rowCount = watchListModel.getRowCount();
+        if (selectedRow >= 0 && watchListTable.getSelectedRow() < 0 && rowCount > 0) {
+            int nextRow = Math.min(selectedRow, rowCount - 1);
+            watchListTable.setRowSelectionInterval(nextRow, nextRow);
+        }
     }
-}
\ No newline at end of file
+}